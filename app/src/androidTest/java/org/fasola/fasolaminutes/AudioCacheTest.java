@@ -0,0 +1,271 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package org.fasola.fasolaminutes;
+
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Requests recordings through the cache from a local stand-in for the origin server.
+ */
+public class AudioCacheTest extends AndroidTestCase {
+    private static final int LENGTH = 100 * 1024;
+    private static final int CACHED = 40 * 1024; // Length of the partly cached file
+    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    private final byte[] mData = new byte[LENGTH];
+    private File mDir;
+    private AudioCache mCache;
+    private Origin mOrigin;
+    private String mUrl;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        for (int i = 0; i < LENGTH; i++)
+            mData[i] = (byte) (i * 31 + i / 256);
+        mDir = new File(getContext().getCacheDir(), "audio_cache_test");
+        deleteDir();
+        mOrigin = new Origin(mData);
+        mUrl = "http://127.0.0.1:" + mOrigin.getPort() + "/recording.mp3";
+        mCache = new AudioCache(mDir, 10 * LENGTH);
+        mCache.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache.stop();
+        mOrigin.close();
+        deleteDir();
+        super.tearDown();
+    }
+
+    public void testFull() throws IOException {
+        Response response = get(null);
+        assertEquals(200, response.code);
+        assertBody(response, 0, LENGTH - 1);
+        assertTrue(new File(mDir, AudioCache.getKey(mUrl)).exists());
+        // Served from the cache
+        int requests = mOrigin.getRequestCount();
+        assertBody(get(null), 0, LENGTH - 1);
+        assertEquals(requests, mOrigin.getRequestCount());
+    }
+
+    public void testOpenEndedRange() throws IOException {
+        Response response = get("bytes=1000-");
+        assertEquals(206, response.code);
+        assertEquals("bytes 1000-" + (LENGTH - 1) + "/" + LENGTH, response.headers.get("content-range"));
+        assertBody(response, 1000, LENGTH - 1);
+    }
+
+    public void testBoundedRange() throws IOException {
+        Response response = get("bytes=1000-1999");
+        assertEquals(206, response.code);
+        assertEquals("bytes 1000-1999/" + LENGTH, response.headers.get("content-range"));
+        assertBody(response, 1000, 1999);
+    }
+
+    public void testCachedFileRanges() throws IOException {
+        get(null);
+        int requests = mOrigin.getRequestCount();
+        assertBody(get("bytes=5000-"), 5000, LENGTH - 1);
+        assertBody(get("bytes=5000-5999"), 5000, 5999);
+        assertEquals(requests, mOrigin.getRequestCount());
+    }
+
+    public void testOpenEndedRangeInPart() throws IOException {
+        writePart();
+        Response response = get("bytes=1000-");
+        assertEquals("bytes 1000-" + (LENGTH - 1) + "/" + LENGTH, response.headers.get("content-range"));
+        assertBody(response, 1000, LENGTH - 1);
+        // The rest was downloaded into the cache
+        assertTrue(new File(mDir, AudioCache.getKey(mUrl)).exists());
+    }
+
+    public void testBoundedRangeInPart() throws IOException {
+        writePart();
+        // Entirely in the cached part: served without the origin
+        assertBody(get("bytes=1000-1999"), 1000, 1999);
+        assertEquals(0, mOrigin.getRequestCount());
+        // Starts in the cached part and ends after it
+        assertBody(get("bytes=" + (CACHED - 100) + "-" + (CACHED + 99)), CACHED - 100, CACHED + 99);
+        // Once the length is known, ranges in the cached part say so
+        Response response = get("bytes=0-99");
+        assertEquals("bytes 0-99/" + LENGTH, response.headers.get("content-range"));
+        assertBody(response, 0, 99);
+    }
+
+    // region Helpers
+    //---------------------------------------------------------------------------------------------
+    // A partly downloaded file, as left by an interrupted download
+    private void writePart() throws IOException {
+        assertTrue(mDir.isDirectory() || mDir.mkdirs());
+        OutputStream out = new FileOutputStream(new File(mDir, AudioCache.getKey(mUrl) + ".part"));
+        try {
+            out.write(mData, 0, CACHED);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void deleteDir() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        mDir.delete();
+    }
+
+    private static class Response {
+        int code;
+        Map<String, String> headers = new HashMap<>();
+        byte[] body;
+    }
+
+    // Requests the proxy url and reads everything up to the end of the connection, so extra
+    // bytes after Content-Length are caught
+    private Response get(String range) throws IOException {
+        URL url = new URL(mCache.getUrl(mUrl));
+        Socket socket = new Socket(url.getHost(), url.getPort());
+        try {
+            String request = "GET " + url.getFile() + " HTTP/1.1\r\nHost: 127.0.0.1\r\n" +
+                    (range != null ? "Range: " + range + "\r\n" : "") + "\r\n";
+            socket.getOutputStream().write(request.getBytes("US-ASCII"));
+            byte[] bytes = readAll(socket.getInputStream());
+            int headerEnd = indexOf(bytes, "\r\n\r\n".getBytes("US-ASCII"));
+            assertTrue("Missing headers", headerEnd >= 0);
+            String[] lines = new String(bytes, 0, headerEnd, "US-ASCII").split("\r\n");
+            Response response = new Response();
+            response.code = Integer.parseInt(lines[0].split(" ")[1]);
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                response.headers.put(lines[i].substring(0, colon).trim().toLowerCase(),
+                                     lines[i].substring(colon + 1).trim());
+            }
+            response.body = Arrays.copyOfRange(bytes, headerEnd + 4, bytes.length);
+            return response;
+        } finally {
+            socket.close();
+        }
+    }
+
+    // The body is exactly the data from start to end, and matches Content-Length
+    private void assertBody(Response response, int start, int end) {
+        assertEquals(String.valueOf(end - start + 1), response.headers.get("content-length"));
+        assertEquals(end - start + 1, response.body.length);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(mData, start, end + 1), response.body));
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) > 0)
+            out.write(buffer, 0, count);
+        return out.toByteArray();
+    }
+
+    private static int indexOf(byte[] bytes, byte[] pattern) {
+        for (int i = 0; i + pattern.length <= bytes.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + pattern.length), pattern))
+                return i;
+        }
+        return -1;
+    }
+
+    // Stand-in for the recording server: serves one file, with range requests
+    private static class Origin implements Runnable {
+        private final byte[] mData;
+        private final ServerSocket mServer;
+        private final AtomicInteger mRequestCount = new AtomicInteger();
+
+        Origin(byte[] data) throws IOException {
+            mData = data;
+            mServer = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+            new Thread(this, "Origin").start();
+        }
+
+        int getPort() {
+            return mServer.getLocalPort();
+        }
+
+        int getRequestCount() {
+            return mRequestCount.get();
+        }
+
+        void close() throws IOException {
+            mServer.close();
+        }
+
+        @Override
+        public void run() {
+            while (! mServer.isClosed()) {
+                try {
+                    Socket socket = mServer.accept();
+                    try {
+                        serve(socket);
+                    } finally {
+                        socket.close();
+                    }
+                } catch (IOException e) {
+                    // Closed
+                }
+            }
+        }
+
+        private void serve(Socket socket) throws IOException {
+            InputStream in = socket.getInputStream();
+            StringBuilder request = new StringBuilder();
+            while (request.indexOf("\r\n\r\n") < 0) {
+                int b = in.read();
+                if (b < 0)
+                    return;
+                request.append((char) b);
+            }
+            mRequestCount.incrementAndGet();
+            int start = 0, end = mData.length - 1;
+            String status = "200 OK";
+            String contentRange = "";
+            for (String line : request.toString().split("\r\n")) {
+                if (! line.toLowerCase().startsWith("range:"))
+                    continue;
+                Matcher m = RANGE_PATTERN.matcher(line.substring("range:".length()).trim());
+                if (m.matches()) {
+                    start = Integer.parseInt(m.group(1));
+                    if (! m.group(2).isEmpty())
+                        end = Math.min(end, Integer.parseInt(m.group(2)));
+                    status = "206 Partial Content";
+                    contentRange = "Content-Range: bytes " + start + "-" + end + "/" + mData.length + "\r\n";
+                }
+            }
+            OutputStream out = socket.getOutputStream();
+            out.write(("HTTP/1.1 " + status + "\r\n" + contentRange +
+                       "Content-Length: " + (end - start + 1) + "\r\n" +
+                       "Content-Type: audio/mpeg\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+            out.write(mData, start, end - start + 1);
+            out.flush();
+        }
+    }
+    //---------------------------------------------------------------------------------------------
+    // endregion Helpers
+}
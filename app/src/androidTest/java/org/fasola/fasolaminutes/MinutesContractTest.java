@@ -0,0 +1,98 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package org.fasola.fasolaminutes;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+/**
+ * Builds the derived tables against the device's SQLite, on an in-memory copy of the
+ * minutes schema with a few rows.
+ */
+public class MinutesContractTest extends AndroidTestCase {
+    // Source tables from the asset db (only the columns the contract uses)
+    private static final String[] SCHEMA = {
+        "CREATE TABLE songs (id INTEGER PRIMARY KEY, Title, TitleOrdinal, PageNum, SongText," +
+            " composer, poet, Times, MeterName, Orientation, Keys)",
+        "CREATE TABLE song_stats (id INTEGER PRIMARY KEY, song_id, year, lead_count, rank)",
+        "CREATE TABLE leaders (id INTEGER PRIMARY KEY, name, last_name, lead_count, song_entropy)",
+        "CREATE TABLE leader_name_aliases (id INTEGER PRIMARY KEY, leader_id, name, alias, type)",
+        "CREATE TABLE leader_song_stats (id INTEGER PRIMARY KEY, leader_id, song_id, lead_count)",
+        "CREATE TABLE minutes (id INTEGER PRIMARY KEY, Name, Date, Location, Minutes," +
+            " RecordingCt, Year, IsDenson)",
+        "CREATE TABLE song_leader_joins (id INTEGER PRIMARY KEY, song_id, minutes_id, leader_id," +
+            " lead_id, audio_url)",
+        "CREATE TABLE song_neighbors (id INTEGER PRIMARY KEY, from_song_id, to_song_id, rank)",
+    };
+
+    private static final String[] ROWS = {
+        "INSERT INTO songs VALUES (1, 'Holy Manna', '', '59', 'Brethren, we have met to worship'," +
+            " 'William Moore', 'George Askins', '4/4', '8s & 7s', 'Oblong', 'F')",
+        "INSERT INTO songs VALUES (2, 'Northfield', '', '155', 'How long, dear Saviour'," +
+            " 'Jeremiah Ingalls', 'Isaac Watts', '2/2', 'C.M.', 'Oblong', 'D')",
+        "INSERT INTO leaders VALUES (1, 'Mike Richards', 'Richards', 2, 0.5)",
+        "INSERT INTO leader_name_aliases VALUES (1, 1, 'Mike Richards', 'Michael Richards'," +
+            " 'Alternate Spelling')",
+        "INSERT INTO minutes VALUES (1, 'Holly Springs Singing', 'June 1, 2015'," +
+            " 'Holly Springs, Georgia', 'The class was called to order', 0, 2015, 1)",
+        "INSERT INTO song_leader_joins VALUES (1, 1, 1, 1, 1, NULL)",
+        "INSERT INTO song_leader_joins VALUES (2, 2, 1, 1, 2, NULL)",
+        "INSERT INTO song_stats VALUES (1, 1, 2015, 1, 1)",
+        "INSERT INTO song_stats VALUES (2, 2, 2015, 1, 1)",
+        "INSERT INTO leader_song_stats VALUES (1, 1, 1, 1)",
+        "INSERT INTO leader_song_stats VALUES (2, 1, 2, 1)",
+        "INSERT INTO song_neighbors VALUES (1, 1, 2, 1)",
+    };
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDb = SQLiteDatabase.create(null);
+        for (String sql : SCHEMA)
+            mDb.execSQL(sql);
+        for (String sql : ROWS)
+            mDb.execSQL(sql);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    public void testCreateDerivedTables() {
+        MinutesContract.createDerivedTables(mDb);
+        assertEquals(1, match("song_search", "name", "manna"));
+        assertEquals(1, match("song_search", "poet", "watts"));
+        assertEquals(1, match("leader_search", "aliases", "michael"));
+        assertEquals(1, match("singing_search", "location", "georgia"));
+        // Opening the database again leaves the existing tables
+        MinutesContract.createDerivedTables(mDb);
+        assertEquals(2, DatabaseUtils.queryNumEntries(mDb, "song_search"));
+    }
+
+    public void testDropDerivedTables() {
+        MinutesContract.createDerivedTables(mDb);
+        MinutesContract.dropDerivedTables(mDb);
+        MinutesContract.createDerivedTables(mDb);
+        assertEquals(1, match("song_search", "name", "manna"));
+    }
+
+    // Rows whose (unqualified) column matches a term
+    private int match(String table, String column, String term) {
+        Cursor cursor = mDb.rawQuery(
+                "SELECT docid FROM " + table + " WHERE " + column + " MATCH ?", new String[] {term});
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package org.fasola.fasolaminutes;
 
+import android.app.AlertDialog;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.database.Cursor;
 import android.database.CursorWrapper;
 import android.database.DatabaseUtils;
@@ -23,8 +25,17 @@ import android.widget.ResourceCursorAdapter;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 
 import static java.lang.System.nanoTime;
 
@@ -38,6 +49,7 @@ public class SQLiteDebugActivity extends BaseActivity {
     public static ArrayList<String[]> sQueryArgs = new ArrayList<>();
     public static HashMap<String, Cursor> sCursors = new HashMap<>();
     public static SQLiteDebugActivity sActivity;
+    static final String METRICS_FILE = "query_metrics.json";
 
     DrawerLayout mDrawerLayout;
     View mDrawer;
@@ -127,6 +139,19 @@ public class SQLiteDebugActivity extends BaseActivity {
                 mDrawerLayout.openDrawer(mDrawer);
             return true;
         }
+        else if (item.getItemId() == R.id.menu_query_metrics) {
+            showMetrics();
+            return true;
+        }
+        else if (item.getItemId() == R.id.menu_dump_metrics) {
+            dumpMetrics();
+            return true;
+        }
+        else if (item.getItemId() == R.id.menu_clear_metrics) {
+            QueryMetrics.getInstance().clear();
+            Toast.makeText(this, "Metrics cleared", Toast.LENGTH_SHORT).show();
+            return true;
+        }
         return super.onOptionsItemSelected(item);
     }
 
@@ -174,6 +199,98 @@ public class SQLiteDebugActivity extends BaseActivity {
         }
     }
 
+    // Query metrics
+    /** Lists metrics for each query (slowest first). */
+    protected void showMetrics() {
+        final List<QueryMetrics.Entry> entries = QueryMetrics.getInstance().getEntries();
+        if (entries.isEmpty()) {
+            Toast.makeText(this, "No queries recorded", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        CharSequence[] items = new CharSequence[entries.size()];
+        for (int i = 0; i < items.length; i++) {
+            QueryMetrics.Entry entry = entries.get(i);
+            String sql = entry.getSql();
+            items[i] = getMetricsSummary(entry) + "\n" +
+                    (sql.length() > 200 ? sql.substring(0, 200) + "..." : sql);
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("Query metrics")
+                .setItems(items, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        showMetrics(entries.get(which));
+                    }
+                })
+                .show();
+    }
+
+    /** Shows a query's metrics and plan, with the option to edit and run the query. */
+    protected void showMetrics(final QueryMetrics.Entry entry) {
+        StringBuilder message = new StringBuilder();
+        message.append(getMetricsSummary(entry)).append("\n\n");
+        appendHistogram(message, "Execution (us)", entry.getTime());
+        appendHistogram(message, "Rows", entry.getRows());
+        appendHistogram(message, "Window fill (us)", entry.getWindowFill());
+        message.append("\nQuery plan:\n");
+        for (String line : entry.getPlan())
+            message.append(line).append("\n");
+        message.append("\n").append(entry.getSql());
+        new AlertDialog.Builder(this)
+                .setTitle(Long.toHexString(entry.getFingerprint()))
+                .setMessage(message)
+                .setPositiveButton("Edit query", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        addQuery(entry.getSql(), entry.getArgs());
+                        setQuery(sQueries.indexOf(entry.getSql()));
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    // One line: full scans, executions and times
+    private static String getMetricsSummary(QueryMetrics.Entry entry) {
+        StringBuilder summary = new StringBuilder();
+        for (String table : entry.getFullScans())
+            summary.append("[SCAN ").append(table).append("] ");
+        QueryMetrics.Histogram time = entry.getTime();
+        summary.append(String.format(Locale.US, "%dx, p50 %.1f ms, max %.1f ms, %d rows",
+                time.getCount(), time.getPercentile(50) / 1000., time.getMax() / 1000.,
+                entry.getRows().getMax()));
+        if (entry.getWindowFill().getCount() > 0)
+            summary.append(String.format(Locale.US, ", %d window fills",
+                    entry.getWindowFill().getCount()));
+        return summary.toString();
+    }
+
+    private static void appendHistogram(StringBuilder sb, String label, QueryMetrics.Histogram histogram) {
+        sb.append(String.format(Locale.US, "%s: n=%d p50=%d p90=%d p99=%d max=%d\n", label,
+                histogram.getCount(), histogram.getPercentile(50), histogram.getPercentile(90),
+                histogram.getPercentile(99), histogram.getMax()));
+    }
+
+    /** Writes metrics as JSON to the app's files dir. */
+    protected void dumpMetrics() {
+        File dir = getExternalFilesDir(null);
+        if (dir == null)
+            dir = getFilesDir();
+        File file = new File(dir, METRICS_FILE);
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            try {
+                writer.write(QueryMetrics.getInstance().toJson().toString(2));
+            } finally {
+                writer.close();
+            }
+            Toast.makeText(this, "Saved " + file, Toast.LENGTH_LONG).show();
+        } catch (IOException | JSONException e) {
+            Toast.makeText(this, e.toString(), Toast.LENGTH_LONG).show();
+            Log.e("SQLiteDebug", Log.getStackTraceString(e));
+        }
+    }
+
     // Custom minutes loader to work around debug hacks
     DebugLoader mLoader = new DebugLoader();
 
@@ -250,7 +367,11 @@ public class SQLiteDebugActivity extends BaseActivity {
      * <p>If the query already exists, this just updates queryArgs
      */
     public static void addQuery(SQL.Query query, String... queryArgs) {
-        String queryString = query.toString();
+        addQuery(query.toString(), queryArgs);
+    }
+
+    /** Adds a query string to the query list. */
+    public static void addQuery(String queryString, String... queryArgs) {
         int idx = sQueries.indexOf(queryString);
         if (idx == -1) {
             sQueries.add(queryString);
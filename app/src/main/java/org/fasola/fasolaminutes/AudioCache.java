@@ -0,0 +1,455 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package org.fasola.fasolaminutes;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A loopback HTTP proxy that caches recordings on disk.
+ *
+ * <p>Pass {@link #getUrl(String)} to MediaPlayer instead of the recording's url.  The first
+ * play streams from the origin while saving to the cache; later plays (including seeks, which
+ * are range requests) are served from disk.  An interrupted download is kept and resumed with
+ * a range request the next time the recording is played.
+ *
+ * <p>The cache is limited to {@code maxSize} bytes, evicting the least recently played files.
+ */
+public class AudioCache {
+    private static final String TAG = "AudioCache";
+    private static final int MAX_CONNECTIONS = 4;
+    private static final int TIMEOUT_MS = 15000;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final String PART_SUFFIX = ".part";
+    private static final String DEFAULT_CONTENT_TYPE = "audio/mpeg";
+    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d+)-(\\d*)");
+    private static final Pattern CONTENT_RANGE_PATTERN = Pattern.compile("bytes \\d+-\\d+/(\\d+)");
+
+    private final File mDir;
+    private final long mMaxSize;
+    private ServerSocket mServer;
+    private ExecutorService mExecutor;
+    // Cache keys with a download in progress
+    private final Set<String> mWriting = new HashSet<>();
+    // Full lengths of partly cached files, as reported by the origin
+    private final Map<String, Long> mTotals = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a new AudioCache.
+     *
+     * @param dir cache directory (e.g. under {@code Context.getCacheDir()})
+     * @param maxSize maximum size of all cached files in bytes
+     */
+    public AudioCache(File dir, long maxSize) {
+        mDir = dir;
+        mMaxSize = maxSize;
+    }
+
+    /** Starts the proxy server on a random loopback port. */
+    public synchronized void start() throws IOException {
+        if (mServer != null)
+            return;
+        if (! mDir.isDirectory() && ! mDir.mkdirs())
+            throw new IOException("Unable to create cache directory: " + mDir);
+        final ServerSocket server = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+        final ExecutorService executor = Executors.newFixedThreadPool(MAX_CONNECTIONS);
+        mServer = server;
+        mExecutor = executor;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (! server.isClosed()) {
+                    try {
+                        final Socket socket = server.accept();
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                handleConnection(socket);
+                            }
+                        });
+                    } catch (IOException e) {
+                        if (! server.isClosed())
+                            Log.e(TAG, "Accept failed", e);
+                    }
+                }
+            }
+        }, TAG).start();
+    }
+
+    /** Stops the proxy server (the cache is kept). */
+    public synchronized void stop() {
+        if (mServer == null)
+            return;
+        try {
+            mServer.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Error closing server", e);
+        }
+        mExecutor.shutdownNow();
+        mServer = null;
+        mExecutor = null;
+    }
+
+    /**
+     * Gets the proxy url for a recording.
+     *
+     * @param url recording url
+     * @return proxy url, or {@code url} if the proxy is not running
+     */
+    public synchronized String getUrl(String url) {
+        if (mServer == null)
+            return url;
+        try {
+            return "http://127.0.0.1:" + mServer.getLocalPort() + "/?url=" +
+                    URLEncoder.encode(url, "UTF-8");
+        } catch (IOException e) {
+            return url;
+        }
+    }
+
+    // Cache file name for a url (SHA-1 hex)
+    static String getKey(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest(url.getBytes("UTF-8")))
+                key.append(String.format("%02x", b));
+            return key.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return String.valueOf(url.hashCode());
+        }
+    }
+
+    // region Requests
+    //---------------------------------------------------------------------------------------------
+
+    // A parsed client request
+    private static class Request {
+        String url;
+        long start = 0;
+        long end = -1; // Inclusive; -1 for the end of the file
+        boolean hasRange;
+        String range;
+    }
+
+    private void handleConnection(Socket socket) {
+        try {
+            socket.setSoTimeout(TIMEOUT_MS);
+            Request request = readRequest(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            if (request == null)
+                writeStatus(out, "400 Bad Request");
+            else
+                serve(request, out);
+            out.flush();
+        } catch (IOException e) {
+            // Usually the player closed the connection (e.g. to seek)
+            Log.v(TAG, "Connection closed: " + e.getMessage());
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    private static Request readRequest(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "US-ASCII"));
+        String line = reader.readLine();
+        if (line == null)
+            return null;
+        // GET /?url=... HTTP/1.1
+        String[] parts = line.split(" ");
+        if (parts.length < 2 || ! parts[1].startsWith("/?url="))
+            return null;
+        Request request = new Request();
+        request.url = URLDecoder.decode(parts[1].substring("/?url=".length()), "UTF-8");
+        // Headers
+        while ((line = reader.readLine()) != null && ! line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon < 0 || ! line.substring(0, colon).trim().equalsIgnoreCase("Range"))
+                continue;
+            Matcher m = RANGE_PATTERN.matcher(line.substring(colon + 1).trim());
+            if (m.matches()) {
+                request.hasRange = true;
+                request.range = m.group(0);
+                request.start = Long.parseLong(m.group(1));
+                if (! m.group(2).isEmpty())
+                    request.end = Long.parseLong(m.group(2));
+            }
+        }
+        return request;
+    }
+
+    private void serve(Request request, OutputStream out) throws IOException {
+        String key = getKey(request.url);
+        File file = new File(mDir, key);
+        if (file.exists()) {
+            serveFile(request, file, out);
+            return;
+        }
+        // Only one download per recording; other requests go straight to the origin
+        synchronized (mWriting) {
+            if (! mWriting.add(key)) {
+                passThrough(request, out);
+                return;
+            }
+        }
+        try {
+            File part = new File(mDir, key + PART_SUFFIX);
+            if (request.end >= 0 && request.start <= request.end && request.end < part.length())
+                servePart(request, part, out);
+            else if (request.start > part.length())
+                passThrough(request, out);
+            else
+                download(request, part, file, out);
+        } finally {
+            synchronized (mWriting) {
+                mWriting.remove(key);
+            }
+        }
+        trim();
+    }
+
+    // Serves a fully cached file
+    private void serveFile(Request request, File file, OutputStream out) throws IOException {
+        // Most recently played files are evicted last
+        file.setLastModified(System.currentTimeMillis());
+        long total = file.length();
+        if (request.start >= total) {
+            writeStatus(out, "416 Range Not Satisfiable");
+            return;
+        }
+        long end = getEnd(request, total);
+        writeHeaders(out, request, DEFAULT_CONTENT_TYPE, total, end);
+        copyRange(file, request.start, end, out);
+    }
+
+    // Serves a bounded range that is entirely in a partly cached file, without the origin
+    private void servePart(Request request, File part, OutputStream out) throws IOException {
+        Long total = mTotals.get(part.getName());
+        writeHeaders(out, request, DEFAULT_CONTENT_TYPE, total != null ? total : -1, request.end);
+        copyRange(part, request.start, request.end, out);
+    }
+
+    // Serves a partially cached file, downloading (and caching) the rest from the origin
+    private void download(Request request, File part, File file, OutputStream out) throws IOException {
+        long partLength = part.length();
+        HttpURLConnection conn = openOrigin(request.url, partLength > 0 ? "bytes=" + partLength + "-" : null);
+        try {
+            int code = conn.getResponseCode();
+            long total;
+            if (code == HttpURLConnection.HTTP_PARTIAL && partLength > 0) {
+                Matcher m = CONTENT_RANGE_PATTERN.matcher(String.valueOf(conn.getHeaderField("Content-Range")));
+                total = m.matches() ? Long.parseLong(m.group(1)) : -1;
+            }
+            else if (code == HttpURLConnection.HTTP_OK) {
+                // Full response: start over
+                total = conn.getContentLength();
+                partLength = 0;
+            }
+            else {
+                writeStatus(out, code + " " + conn.getResponseMessage());
+                return;
+            }
+            // Unknown lengths can only be streamed from the start
+            if (total < 0 && request.start > 0) {
+                conn.disconnect();
+                passThrough(request, out);
+                return;
+            }
+            if (total >= 0)
+                mTotals.put(part.getName(), total);
+            String contentType = conn.getContentType();
+            long end = total < 0 ? -1 : getEnd(request, total);
+            writeHeaders(out, request, contentType != null ? contentType : DEFAULT_CONTENT_TYPE, total, end);
+            // Cached bytes (no further than the end of the range)
+            long cachedEnd = end < 0 ? partLength - 1 : Math.min(partLength - 1, end);
+            if (request.start <= cachedEnd)
+                copyRange(part, request.start, cachedEnd, out);
+            // Origin bytes (appended to the cache)
+            byte[] buffer = new byte[BUFFER_SIZE];
+            InputStream in = conn.getInputStream();
+            FileOutputStream cache = new FileOutputStream(part, partLength > 0);
+            long offset = partLength; // File offset of the next origin byte
+            try {
+                int count;
+                while ((end < 0 || offset <= end) && (count = in.read(buffer)) > 0) {
+                    cache.write(buffer, 0, count);
+                    // Only send the part of the buffer that is in the requested range
+                    long from = Math.max(offset, request.start);
+                    long to = end < 0 ? offset + count : Math.min(offset + count, end + 1);
+                    if (to > from)
+                        out.write(buffer, (int) (from - offset), (int) (to - from));
+                    offset += count;
+                }
+            } finally {
+                cache.close();
+                in.close();
+            }
+            // Finished
+            if (offset == total || (total < 0 && end < 0)) {
+                if (! part.renameTo(file))
+                    Log.e(TAG, "Unable to rename " + part);
+                mTotals.remove(part.getName());
+            }
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    // Serves a request directly from the origin without caching
+    private void passThrough(Request request, OutputStream out) throws IOException {
+        HttpURLConnection conn = openOrigin(request.url, request.range);
+        try {
+            int code = conn.getResponseCode();
+            StringBuilder headers = new StringBuilder();
+            headers.append("HTTP/1.1 ").append(code).append(" ").append(conn.getResponseMessage()).append("\r\n");
+            for (String name : new String[] {"Content-Type", "Content-Length", "Content-Range", "Accept-Ranges"}) {
+                String value = conn.getHeaderField(name);
+                if (value != null)
+                    headers.append(name).append(": ").append(value).append("\r\n");
+            }
+            headers.append("Connection: close\r\n\r\n");
+            out.write(headers.toString().getBytes("US-ASCII"));
+            InputStream in = code < 400 ? conn.getInputStream() : conn.getErrorStream();
+            if (in == null)
+                return;
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int count;
+                while ((count = in.read(buffer)) > 0)
+                    out.write(buffer, 0, count);
+            } finally {
+                in.close();
+            }
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private static HttpURLConnection openOrigin(String url, String range) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setConnectTimeout(TIMEOUT_MS);
+        conn.setReadTimeout(TIMEOUT_MS);
+        if (range != null)
+            conn.setRequestProperty("Range", range);
+        return conn;
+    }
+
+    // Copies bytes start to end (inclusive) of a file
+    private static void copyRange(File file, long start, long end, OutputStream out) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            in.seek(start);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long remaining = end - start + 1;
+            while (remaining > 0) {
+                int count = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (count < 0)
+                    break;
+                out.write(buffer, 0, count);
+                remaining -= count;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    // Last byte (inclusive) to send for a request
+    private static long getEnd(Request request, long total) {
+        return request.end < 0 ? total - 1 : Math.min(request.end, total - 1);
+    }
+
+    // Writes 200 or 206 headers
+    // end is -1 if the length is unknown; total is -1 if unknown (a range can still be sent)
+    private static void writeHeaders(OutputStream out, Request request, String contentType,
+                                     long total, long end) throws IOException {
+        StringBuilder headers = new StringBuilder();
+        if (request.hasRange && end >= 0) {
+            headers.append("HTTP/1.1 206 Partial Content\r\n");
+            headers.append("Content-Range: bytes ").append(request.start).append("-")
+                   .append(end).append("/").append(total >= 0 ? String.valueOf(total) : "*")
+                   .append("\r\n");
+        }
+        else {
+            headers.append("HTTP/1.1 200 OK\r\n");
+        }
+        if (end >= 0)
+            headers.append("Content-Length: ").append(end - request.start + 1).append("\r\n");
+        headers.append("Content-Type: ").append(contentType).append("\r\n");
+        headers.append("Accept-Ranges: bytes\r\n");
+        headers.append("Connection: close\r\n\r\n");
+        out.write(headers.toString().getBytes("US-ASCII"));
+    }
+
+    private static void writeStatus(OutputStream out, String status) throws IOException {
+        out.write(("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+                .getBytes("US-ASCII"));
+    }
+
+    //---------------------------------------------------------------------------------------------
+    // endregion Requests
+
+    /** Deletes the least recently played files until the cache is under its maximum size. */
+    public void trim() {
+        File[] files = mDir.listFiles();
+        if (files == null)
+            return;
+        long size = 0;
+        for (File f : files)
+            size += f.length();
+        if (size <= mMaxSize)
+            return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified(), r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File f : files) {
+            if (size <= mMaxSize)
+                break;
+            String key = f.getName().replace(PART_SUFFIX, "");
+            synchronized (mWriting) {
+                if (mWriting.contains(key))
+                    continue;
+                size -= f.length();
+                if (! f.delete())
+                    Log.e(TAG, "Unable to delete " + f);
+            }
+        }
+    }
+}
@@ -8,10 +8,13 @@ package org.fasola.fasolaminutes;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
+import android.database.CursorWrapper;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.Parcelable;
 import android.support.v4.app.ListFragment;
+import android.support.v4.os.CancellationSignal;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -28,6 +31,7 @@ import android.widget.ListView;
 import android.widget.SearchView;
 
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * ListFragment that displays SQL queries.
@@ -48,6 +52,7 @@ import java.util.ArrayList;
  */
 public class CursorListFragment extends ListFragment
                                 implements MinutesLoader.Callbacks,
+                                           MinutesLoader.BackgroundCallbacks,
                                            View.OnClickListener,
                                            View.OnLongClickListener {
     public final static String EXTRA_ID = "org.fasola.fasolaminutes.LIST_ID";
@@ -60,6 +65,11 @@ public class CursorListFragment extends ListFragment
     public final static int BIN_INDEXER = 3;
     private int mBinCount;
 
+    /** Creates a section indexer for a loaded cursor (called on the loader thread). */
+    protected interface IndexerFactory {
+        LetterIndexer create(Cursor cursor, int column);
+    }
+
     protected final static int DEFAULT_LAYOUT = android.R.layout.simple_list_item_1;
     protected Class<?> mIntentClass;
     protected MinutesLoader mMinutesLoader;
@@ -75,6 +85,10 @@ public class CursorListFragment extends ListFragment
     protected LetterIndexer mDeferredIndexer;
     protected String[] mSectionLabels;
     protected boolean mUseFastScroll = false;
+    // Indexer settings are read by the loader thread; the version changes with every setting
+    private final Object mIndexerLock = new Object();
+    private IndexerFactory mIndexerFactory;
+    private int mIndexerVersion;
 
     private static final String BUNDLE_SEARCH = "SEARCH_TERM";
     private static final String BUNDLE_SORT = "SORT_ID";
@@ -83,6 +97,28 @@ public class CursorListFragment extends ListFragment
     private Bundle mFilterState;
     private Parcelable mListState;
 
+    // Search-as-you-type waits for a pause in typing before querying
+    private static final int SEARCH_DELAY_MS = 300;
+    // Every search query uses the same loader
+    private static final int SEARCH_LOADER_ID = 0x5ea4c4;
+    private final Handler mHandler = new Handler();
+    // Search term of the query that is loading
+    private String mLoadingSearchTerm = "";
+    // Last search results (if they can be narrowed in memory)
+    private SearchSnapshot mSearchSnapshot;
+    // Search to find in the last results instead of querying (read on the loader thread)
+    private volatile Narrowing mNarrowing;
+
+    private static class Narrowing {
+        final SearchSnapshot snapshot;
+        final String searchTerm;
+
+        Narrowing(SearchSnapshot snapshot, String searchTerm) {
+            this.snapshot = snapshot;
+            this.searchTerm = searchTerm;
+        }
+    }
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -93,7 +129,15 @@ public class CursorListFragment extends ListFragment
             mListState = savedInstanceState.getParcelable(LIST_STATE);
         }
         // Setup the cursor loader
-        mMinutesLoader = new MinutesLoader(this);
+        mMinutesLoader = new MinutesLoader(this) {
+            @Override
+            protected Cursor onLoadInBackground(MinutesDb db, CancellationSignal signal) {
+                Narrowing narrowing = mNarrowing;
+                if (narrowing != null)
+                    return narrowing.snapshot.narrow(narrowing.searchTerm);
+                return super.onLoadInBackground(db, signal);
+            }
+        };
     }
 
     @Override
@@ -123,7 +167,7 @@ public class CursorListFragment extends ListFragment
         });
         // Start loading the cursor in the background
         if (mMinutesLoader.hasQuery())
-            getLoaderManager().initLoader(mMinutesLoader.getQuery().toString().hashCode(), null, mMinutesLoader);
+            mMinutesLoader.initLoader(getLoaderManager());
     }
 
     // Subclasses that want to override the default layout should provide a ViewStub with
@@ -207,24 +251,67 @@ public class CursorListFragment extends ListFragment
      * @see #setItemLayout(int)
      */
     public void setQuery(SQL.Query query, String... queryArgs) {
+        mNarrowing = null;
         mMinutesLoader.setQuery(query, queryArgs);
-        getLoaderManager().initLoader(mMinutesLoader.getQuery().toString().hashCode(), null, mMinutesLoader);
+        mMinutesLoader.initLoader(getLoaderManager());
     }
 
     /**
      * Sets a new search term using the given query.
      *
+     * <p>If the last results can be narrowed to the new term (see {@link SearchSnapshot}), the
+     * new results are found in memory on the loader thread instead of with a query.
+     *
      * @param searchTerm the search string
      * @see #onUpdateSearch
      */
     public void setSearch(String searchTerm) {
+        mHandler.removeCallbacks(mSearchRunnable);
         mSearchTerm = searchTerm;
-        if (searchTerm.isEmpty())
+        if (searchTerm.isEmpty()) {
             updateQuery();
+            return;
+        }
+        SQL.Query query = onUpdateSearch(mOriginalQuery.copy(), searchTerm);
+        mMinutesLoader.setQuery(query, new String[0]);
+        mLoadingSearchTerm = searchTerm;
+        if (mSearchSnapshot != null && mSearchSnapshot.canNarrow(searchTerm) && isNarrowable(query)) {
+            mNarrowing = new Narrowing(mSearchSnapshot, searchTerm);
+        }
+        else {
+            mNarrowing = null;
+            // Results for this term can't be narrowed from the last results, so typing more
+            // won't narrow them either
+            if (! isNarrowable(query))
+                mSearchSnapshot = null;
+        }
+        // Either way the results are delivered by the search loader, which closes the last ones
+        mMinutesLoader.restartLoader(getLoaderManager(), SEARCH_LOADER_ID);
+    }
+
+    // Does the query select the text it searches?
+    private static boolean isNarrowable(SQL.Query query) {
+        return query.hasColumn(SearchSnapshot.MATCH_COLUMN) || query.hasColumn(SearchSnapshot.LIKE_COLUMN);
+    }
+
+    // Searches once typing pauses, or right away if the results can be found in memory
+    private void scheduleSearch(String searchTerm) {
+        mHandler.removeCallbacks(mSearchRunnable);
+        mSearchTerm = searchTerm;
+        if (searchTerm.isEmpty() || (mSearchSnapshot != null && mSearchSnapshot.canNarrow(searchTerm)))
+            setSearch(searchTerm);
         else
-            setQuery(onUpdateSearch(mOriginalQuery.copy(), searchTerm));
+            mHandler.postDelayed(mSearchRunnable, SEARCH_DELAY_MS);
     }
 
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (getView() != null)
+                setSearch(mSearchTerm);
+        }
+    };
+
     /** Gets the search term. */
     public String getSearch() {
         return mSearchTerm;
@@ -258,6 +345,9 @@ public class CursorListFragment extends ListFragment
      */
     public void updateQuery() {
         mOriginalQuery = onUpdateQuery();
+        // Results for the old query can't be narrowed for the new one
+        mSearchSnapshot = null;
+        mLoadingSearchTerm = "";
         // Apply the current search term
         if (mSearchTerm.isEmpty())
             setQuery(mOriginalQuery);
@@ -332,17 +422,11 @@ public class CursorListFragment extends ListFragment
             return true;
         }
         else if (item.getItemId() == R.id.play_songs) {
-            PlaybackService.playSongs(
-                    getActivity(),
-                    PlaybackService.ACTION_PLAY_MEDIA,
-                    getListAdapter().getCursor());
+            playAll(PlaybackService.ACTION_PLAY_MEDIA);
             return true;
         }
         else if (item.getItemId() == R.id.enqueue_songs) {
-            PlaybackService.playSongs(
-                    getActivity(),
-                    PlaybackService.ACTION_ENQUEUE_MEDIA,
-                    getListAdapter().getCursor());
+            playAll(PlaybackService.ACTION_ENQUEUE_MEDIA);
             return true;
         }
         return super.onOptionsItemSelected(item);
@@ -385,21 +469,33 @@ public class CursorListFragment extends ListFragment
             @Override
             public boolean onQueryTextSubmit(String query) {
                 searchView.clearFocus(); // Hide the keyboard
-                onQueryTextChange(query);
+                setSearch(query.replace('\'', '\u2019'));
                 return true;
             }
 
             @Override
             public boolean onQueryTextChange(String query) {
                 // db uses curly apostrophes
-                setSearch(query.replace('\'', '\u2019'));
+                scheduleSearch(query.replace('\'', '\u2019'));
                 return true;
             }
         });
     }
 
+    // Plays or enqueues all recordings in the list
+    private void playAll(String action) {
+        Cursor cursor = getListAdapter().getCursor();
+        if (cursor instanceof LoadedCursor && ((LoadedCursor) cursor).mRecordingUrls != null)
+            PlaybackService.playSongs(getActivity(), action, ((LoadedCursor) cursor).mRecordingUrls);
+        else
+            PlaybackService.playSongs(getActivity(), action, cursor);
+    }
+
     void updateRecordingCount() {
-        int count = getRecordingCount(getListAdapter().getCursor());
+        // Counted on the loader thread if possible
+        Cursor cursor = getListAdapter().getCursor();
+        int count = cursor instanceof LoadedCursor ? ((LoadedCursor) cursor).mRecordingCount
+                                                   : getRecordingCount(cursor);
         if (count != mRecordingCount) {
             if (! mHasRecordingMenu) {
                 setHasOptionsMenu(true);
@@ -419,13 +515,30 @@ public class CursorListFragment extends ListFragment
         mDeferredIndexer = indexer;
     }
 
+    /**
+     * Sets an indexer that is created for each cursor on the loader thread.
+     *
+     * @param factory creates the indexer
+     */
+    protected void setIndexerFactory(IndexerFactory factory) {
+        setDeferredIndexer(NO_INDEXER);
+        synchronized (mIndexerLock) {
+            mIndexerFactory = factory;
+        }
+    }
+
     /**
      * Sets an indexer that is deferred til the Cursor is loaded.
      *
      * @param type one of {@code NO_INDEXER}, {@code RANGE_INDEXER}, or {@code STRING_INDEXER}
      */
     protected void setDeferredIndexer(int type) {
-        mDeferredIndexerType = type;
+        synchronized (mIndexerLock) {
+            mDeferredIndexerType = type;
+            mIndexerFactory = null;
+            mDeferredIndexer = null;
+            ++mIndexerVersion;
+        }
         // Clear custom labels any time a new indexer is set
         setSectionLabels();
     }
@@ -435,8 +548,13 @@ public class CursorListFragment extends ListFragment
      *
      * @param alphabet each character is used as a section
      */
-    public void setAlphabet(CharSequence alphabet) {
-        setIndexer(new LetterIndexer(null, -1, alphabet));
+    public void setAlphabet(final CharSequence alphabet) {
+        setIndexerFactory(new IndexerFactory() {
+            @Override
+            public LetterIndexer create(Cursor cursor, int column) {
+                return new LetterIndexer(cursor, column, alphabet);
+            }
+        });
     }
 
     /** Sets LetterIndexer with {@code " ABCDEFGHIJKLMNOPQRSTUVWXYZ"}. */
@@ -449,8 +567,13 @@ public class CursorListFragment extends ListFragment
      *
      * @param bins array of the lower range for each bin
      */
-    public void setBins(int... bins) {
-        setIndexer(new BinIndexer(null, -1, bins));
+    public void setBins(final int... bins) {
+        setIndexerFactory(new IndexerFactory() {
+            @Override
+            public LetterIndexer create(Cursor cursor, int column) {
+                return new BinIndexer(cursor, column, bins);
+            }
+        });
     }
 
     /**
@@ -459,7 +582,9 @@ public class CursorListFragment extends ListFragment
      * @param binCount number of bins
      */
     public void setBinCount(int binCount) {
-        mBinCount = binCount;
+        synchronized (mIndexerLock) {
+            mBinCount = binCount;
+        }
         setDeferredIndexer(BIN_INDEXER);
     }
 
@@ -470,8 +595,13 @@ public class CursorListFragment extends ListFragment
      * @param max maximium extent of range
      * @see #setRangeIndexer()
      */
-    public void setRangeIndexer(int min, int max) {
-        setIndexer(new RangeIndexer(null, -1, min, max));
+    public void setRangeIndexer(final int min, final int max) {
+        setIndexerFactory(new IndexerFactory() {
+            @Override
+            public LetterIndexer create(Cursor cursor, int column) {
+                return new RangeIndexer(cursor, column, min, max);
+            }
+        });
     }
 
     /**
@@ -499,6 +629,34 @@ public class CursorListFragment extends ListFragment
         mSectionLabels = sections;
     }
 
+    // Creates the indexer for a cursor using the current settings
+    private LetterIndexer createIndexer(Cursor cursor, int column, int type,
+                                        IndexerFactory factory, int binCount) {
+        if (type == RANGE_INDEXER)
+            return new RangeIndexer(cursor, column);
+        else if (type == STRING_INDEXER)
+            return new StringIndexer(cursor, column);
+        else if (type == BIN_INDEXER)
+            return BinIndexer.equalIntervals(cursor, column, binCount);
+        else if (factory != null)
+            return factory.create(cursor, column);
+        return null;
+    }
+
+    // Cursor delivered with the indexer and recordings from the loader thread
+    private static class LoadedCursor extends CursorWrapper {
+        final int mIndexerVersion;
+        LetterIndexer mIndexer;
+        int mRecordingCount;
+        String[] mRecordingUrls; // null for paged cursors
+        SearchSnapshot mSearchSnapshot;
+
+        LoadedCursor(Cursor cursor, int version) {
+            super(cursor);
+            mIndexerVersion = version;
+        }
+    }
+
     /**
      * Gets the highlighted row.
      *
@@ -518,6 +676,14 @@ public class CursorListFragment extends ListFragment
      * @see #setHighlight(int)
      */
     public int setHighlight(Cursor cursor, String column, Object value) {
+        // Paged cursors are searched by key, since their pages aren't all loaded
+        PagedCursor paged = PagedCursor.unwrap(cursor);
+        if (paged != null) {
+            int position = paged.findKey(column, value);
+            if (position != -1)
+                setHighlight(position);
+            return position;
+        }
         if (cursor == null || ! cursor.moveToFirst())
             return -1;
         String val = value.toString();
@@ -545,6 +711,17 @@ public class CursorListFragment extends ListFragment
         list.invalidate();
     }
 
+    /**
+     * Loads the list a page at a time (for lists that can be very long).
+     *
+     * @param keyColumn unique column that orders rows with the same sort values (null to load
+     *                  the whole list)
+     * @see PagedCursor
+     */
+    public void setPaging(String keyColumn) {
+        mMinutesLoader.setPaging(keyColumn);
+    }
+
     /** Force use of fast scroll */
     protected void setFastScrollEnabled(boolean enabled) {
         mUseFastScroll = enabled;
@@ -579,24 +756,91 @@ public class CursorListFragment extends ListFragment
 
     // region Loader Callbacks
     //---------------------------------------------------------------------------------------------
+    /**
+     * Builds the section indexer and collects recordings on the loader thread, so the sections
+     * and recording count (which require reading every row) are ready when the cursor is
+     * delivered.
+     */
+    @Override
+    public Cursor onLoadInBackground(Cursor cursor) {
+        LoadedCursor loadedCursor = loadCursor(cursor);
+        loadedCursor.mSearchSnapshot = SearchSnapshot.create(loadedCursor);
+        loadedCursor.moveToPosition(-1);
+        return loadedCursor;
+    }
+
+    // Adds the indexer and recordings to a cursor
+    private LoadedCursor loadCursor(Cursor cursor) {
+        int type, binCount, version;
+        IndexerFactory factory;
+        synchronized (mIndexerLock) {
+            type = mDeferredIndexerType;
+            factory = mIndexerFactory;
+            binCount = mBinCount;
+            version = mIndexerVersion;
+        }
+        // Results are attached to the cursor that is delivered
+        LoadedCursor loadedCursor = new LoadedCursor(cursor, version);
+        loadRecordings(loadedCursor);
+        int indexCol = IndexedCursorAdapter.getIndexColumn(cursor);
+        if (indexCol != -1 && (type != NO_INDEXER || factory != null)) {
+            LetterIndexer indexer = createIndexer(loadedCursor, indexCol, type, factory, binCount);
+            if (indexer != null) {
+                indexer.setCursor(loadedCursor, indexCol);
+                indexer.prepare();
+                loadedCursor.mIndexer = indexer;
+            }
+        }
+        loadedCursor.moveToPosition(-1);
+        return loadedCursor;
+    }
+
+    // Counts recordings and lists their urls for play/enqueue all
+    private static void loadRecordings(LoadedCursor cursor) {
+        int audioCol = cursor.getColumnIndex(AUDIO_COLUMN);
+        if (audioCol == -1)
+            return;
+        // Paged cursors count recordings when they are scanned, and the urls aren't kept
+        PagedCursor paged = PagedCursor.unwrap(cursor);
+        if (paged != null) {
+            cursor.mRecordingCount = paged.getRecordingCount();
+            return;
+        }
+        List<String> urls = new ArrayList<>();
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            String url = cursor.getString(audioCol);
+            if (isRecordingUrl(url))
+                urls.add(url);
+        }
+        cursor.mRecordingCount = urls.size();
+        cursor.mRecordingUrls = urls.toArray(new String[urls.size()]);
+    }
+
     @Override
     public void onLoadFinished(Cursor cursor) {
+        // Keep search results that can be narrowed as the search term is extended
+        if (cursor instanceof LoadedCursor && ((LoadedCursor) cursor).mSearchSnapshot != null) {
+            mSearchSnapshot = ((LoadedCursor) cursor).mSearchSnapshot;
+            mSearchSnapshot.setSearchTerm(mLoadingSearchTerm);
+        }
         IndexedCursorAdapter adapter = getListAdapter();
         int indexCol = IndexedCursorAdapter.getIndexColumn(cursor);
         if (indexCol > -1) {
-            // Setup any deferred section indexers
-            if (mDeferredIndexerType == RANGE_INDEXER)
-                mDeferredIndexer = new RangeIndexer(cursor, indexCol);
-            else if (mDeferredIndexerType == STRING_INDEXER)
-                mDeferredIndexer = new StringIndexer(cursor, indexCol);
-            else if (mDeferredIndexerType == BIN_INDEXER)
-                mDeferredIndexer = BinIndexer.equalIntervals(cursor, indexCol, mBinCount);
+            // Use the indexer from the loader thread if the settings haven't changed since
+            LetterIndexer indexer;
+            if (mDeferredIndexer != null)
+                indexer = mDeferredIndexer;
+            else if (cursor instanceof LoadedCursor && ((LoadedCursor) cursor).mIndexer != null &&
+                     ((LoadedCursor) cursor).mIndexerVersion == mIndexerVersion)
+                indexer = ((LoadedCursor) cursor).mIndexer;
+            else
+                indexer = createIndexer(cursor, indexCol, mDeferredIndexerType, mIndexerFactory, mBinCount);
             // Set the new indexer
-            if (mDeferredIndexer != null) {
-                mDeferredIndexer.setSectionLabels(mSectionLabels);
-                adapter.setIndexer(mDeferredIndexer);
+            if (indexer != null) {
+                indexer.setSectionLabels(mSectionLabels);
+                adapter.setIndexer(indexer);
                 mDeferredIndexer = null;
-                mSectionLabels = null;
             }
         } else {
             adapter.setIndexer(null);
@@ -641,6 +885,12 @@ public class CursorListFragment extends ListFragment
         }
     }
 
+    @Override
+    public void onDestroyView() {
+        mHandler.removeCallbacks(mSearchRunnable);
+        super.onDestroyView();
+    }
+
     @Override
     public void onDestroy() {
         if (getView() != null) {
@@ -811,16 +1061,24 @@ public class CursorListFragment extends ListFragment
         int audioCol = cursor.getColumnIndex(AUDIO_COLUMN);
         if (audioCol == -1)
             return 0;
+        // Counted when the pages were scanned
+        PagedCursor paged = PagedCursor.unwrap(cursor);
+        if (paged != null)
+            return paged.getRecordingCount();
         int count = 0;
         int pos = cursor.getPosition();
         if (! cursor.moveToFirst())
             return 0;
         do {
-            String url = cursor.getString(audioCol);
-            if (! (url == null || url.isEmpty() || Character.isDigit(url.charAt(0))))
+            if (isRecordingUrl(cursor.getString(audioCol)))
                 count += 1;
         } while (cursor.moveToNext());
         cursor.moveToPosition(pos);
         return count;
     }
+
+    /** Is this AUDIO_COLUMN value a url (as opposed to empty or a recording count)? */
+    static boolean isRecordingUrl(String url) {
+        return ! (url == null || url.isEmpty() || Character.isDigit(url.charAt(0)));
+    }
 }
@@ -0,0 +1,183 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package org.fasola.fasolaminutes;
+
+/**
+ * Lookups by id for the activities' headers, stats, charts and small lists, and for playback.
+ *
+ * <p>Like {@link ListQueries}, these are built without Android so the benchmark module can build
+ * the same ones.  Queries that use {@link SQL.Query#whereEq} take the id as a query arg.
+ */
+final class DetailQueries {
+    private DetailQueries() {}
+
+    // region LeaderActivity
+    //---------------------------------------------------------------------------------------------
+    static SQL.Query leaderName() {
+        return SQL.select(C.Leader.fullName).whereEq(C.Leader.id);
+    }
+
+    static SQL.Query leaderStats() {
+        return SQL.select(C.Leader.aka, C.Leader.songCount,
+                          C.Leader.leadCount, C.Leader.singingCount,
+                          C.Leader.entropyDisplay, C.Leader.majorPercent)
+                  .whereEq(C.Leader.id);
+    }
+
+    static SQL.Query leaderChart() {
+        return SQL.select(C.Leader.singingCount, C.Singing.year)
+                  .whereEq(C.Leader.id)
+                  .group(C.Singing.year)
+                  .orderAsc(C.Singing.year);
+    }
+    //---------------------------------------------------------------------------------------------
+    // endregion LeaderActivity
+
+    // region SongActivity
+    //---------------------------------------------------------------------------------------------
+    static SQL.Query songName() {
+        return C.Song.select(C.Song.fullName).whereEq(C.Song.id);
+    }
+
+    static SQL.Query songTopLeaders() {
+        return C.Leader.selectList(C.Leader.fullName, C.LeaderStats.leadCount)
+                       .whereEq(C.LeaderStats.songId)
+                       .order(C.LeaderStats.leadCount, "DESC", C.Leader.lastName, "ASC")
+                       .limit(20);
+    }
+
+    static SQL.Query songWords() {
+        return C.Song.select(C.Song.lyrics, C.Song.poet, C.Song.composer,
+                             C.Song.key, C.Song.time, C.Song.meter)
+                     .whereEq(C.Song.id);
+    }
+
+    static SQL.Query songStats() {
+        return C.Song.select(C.Song.leaderCount, C.Song.leadCount, C.Song.coleadCount)
+                     .whereEq(C.Song.id);
+    }
+
+    // Charts: one row per year
+    static SQL.Query songChartPercent() {
+        return C.SongStats.select(C.SongStats.year, C.SongStats.leadPercent)
+                          .whereEq(C.SongStats.songId)
+                          .order(C.SongStats.year, "ASC");
+    }
+
+    static SQL.Query songChartRank() {
+        return C.SongStats.select(C.SongStats.year, C.SongStats.rank)
+                          .whereEq(C.SongStats.songId)
+                          .order(C.SongStats.year, "ASC");
+    }
+
+    static SQL.Query songChartLeads() {
+        return C.SongStats.select(C.SongStats.year, C.SongStats.leadCount)
+                          .whereEq(C.SongStats.songId)
+                          .order(C.SongStats.year, "ASC");
+    }
+
+    static SQL.Query songNeighbors(long songId) {
+        return SQL.select(C.Song.id, C.Song.number, C.Song.fullTitle)
+                  .join(C.SongNeighbor, C.Song.id, C.SongNeighbor.toId)
+                  .where(C.SongNeighbor.fromId, "=", songId);
+    }
+
+    static SQL.Query songRecordings(long songId) {
+        return SQL.select(C.SongLeader.id,
+                          C.Leader.allNames,
+                          C.Singing.year + " || ' ' || " + C.Singing.name,
+                          C.Singing.location)
+                  .select(C.SongLeader.audioUrl).as(CursorListFragment.AUDIO_COLUMN)
+                  .sectionIndex(C.Singing.year)
+                  .group(C.SongLeader.leadId)
+                  .where(C.SongLeader.songId, "=", songId)
+                  .and(C.SongLeader.audioUrl, "IS NOT", "NULL");
+    }
+    //---------------------------------------------------------------------------------------------
+    // endregion SongActivity
+
+    // region SingingActivity
+    //---------------------------------------------------------------------------------------------
+    static SQL.Query singingName() {
+        return C.Singing.select(C.Singing.name).whereEq(C.Singing.id);
+    }
+
+    static SQL.Query singingInfo() {
+        return C.Singing.select(C.Singing.name, C.Singing.location, C.Singing.startDate,
+                                C.Singing.songCount, C.Singing.leaderCount, C.Singing.isDenson)
+                        .whereEq(C.Singing.id);
+    }
+
+    static SQL.Query singingText() {
+        return C.Singing.select(C.Singing.fullText).whereEq(C.Singing.id);
+    }
+    //---------------------------------------------------------------------------------------------
+    // endregion SingingActivity
+
+    // region NowPlayingActivity
+    //---------------------------------------------------------------------------------------------
+    static SQL.Query leadLeaders(long leadId) {
+        return SQL.select(C.Leader.id, C.Leader.fullName)
+                  .where(C.SongLeader.leadId, "=", leadId);
+    }
+
+    static SQL.Query leadSongAndSinging(long leadId) {
+        return SQL.select(C.Song.id, C.Song.fullName)
+                  .select(C.Singing.id, C.Singing.name, C.Singing.location, C.Singing.startDate)
+                  .from(C.SongLeader)
+                  .where(C.SongLeader.leadId, "=", leadId);
+    }
+    //---------------------------------------------------------------------------------------------
+    // endregion NowPlayingActivity
+
+    // region Playback
+    //---------------------------------------------------------------------------------------------
+    // Playlist.getSongQuery()
+    static SQL.Query playlistSongs(Object column, Object... args) {
+        return SQL.select(
+                C.SongLeader.songId,
+                C.SongLeader.leadId,
+                C.Song.fullName,
+                C.Leader.allNames,
+                C.Singing.name,
+                C.Singing.startDate,
+                C.Singing.year,
+                C.SongLeader.audioUrl)
+            .from(C.SongLeader)
+            .where(column, "IN", args) // This makes for a verbose but efficient query
+            .group(C.SongLeader.leadId);
+    }
+
+    // Recordings in a singing, in order
+    static SQL.Query singingRecordings(long singingId) {
+        return C.SongLeader.select(C.SongLeader.leadId)
+                           .select(C.SongLeader.audioUrl).as(CursorListFragment.AUDIO_COLUMN)
+                           .where(C.SongLeader.singingId, "=", singingId)
+                               .and(C.SongLeader.audioUrl, "IS NOT", "NULL")
+                           .group(C.SongLeader.leadId)
+                           .order(C.SongLeader.singingOrder, "ASC");
+    }
+
+    // A singing with recordings for the recordings deep link
+    static SQL.Query randomSinging() {
+        return SQL.select(C.Singing.id)
+                  .where(C.Singing.recordingCount, ">", "10")
+                  .order("RANDOM()")
+                  .limit(1);
+    }
+    //---------------------------------------------------------------------------------------------
+    // endregion Playback
+
+    // region SongFilter
+    //---------------------------------------------------------------------------------------------
+    // Columns for the song index
+    static SQL.Query songFilter() {
+        return C.Song.select(C.Song.id, C.Song.number.cast("INT"), C.Song.time, C.Song.rawKey,
+                             C.Song.orientation);
+    }
+    //---------------------------------------------------------------------------------------------
+    // endregion SongFilter
+}
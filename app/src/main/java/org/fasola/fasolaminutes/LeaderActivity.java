@@ -35,7 +35,7 @@ public class LeaderActivity extends SimpleTabActivity {
         setHelpResource(R.string.help_leader_activity);
         // Query for main data
         long id = getIntent().getLongExtra(CursorListFragment.EXTRA_ID, -1);
-        SQL.Query query = SQL.select(C.Leader.fullName).whereEq(C.Leader.id);
+        SQL.Query query = DetailQueries.leaderName();
         getSupportLoaderManager().initLoader(1, null, new MinutesLoader(query, String.valueOf(id)) {
             @Override
             public void onLoadFinished(Cursor cursor) {
@@ -44,7 +44,7 @@ public class LeaderActivity extends SimpleTabActivity {
                     setTitle(leader.fullName.getString());
                 }
             }
-        });
+        }.setPriority(MinutesLoader.PRIORITY_HEADER));
         // Check for a lead id and switch to All Leads tab
         if (getIntent().getLongExtra(SingingActivity.EXTRA_LEAD_ID, -1) > -1) {
             int position = mPagerAdapter.getFragmentIndex(LeaderLeadsFragment.class);
@@ -90,10 +90,7 @@ public class LeaderActivity extends SimpleTabActivity {
             super.onViewCreated(view, savedInstanceState);
             long id = getActivity().getIntent().getLongExtra(CursorListFragment.EXTRA_ID, -1);
             // Query for stats
-            SQL.Query query = SQL.select(C.Leader.aka, C.Leader.songCount,
-                                         C.Leader.leadCount, C.Leader.singingCount,
-                                         C.Leader.entropyDisplay, C.Leader.majorPercent)
-                                 .whereEq(C.Leader.id);
+            SQL.Query query = DetailQueries.leaderStats();
             getLoaderManager().initLoader(1, null, new MinutesLoader(query, String.valueOf(id)) {
                 @Override
                 public void onLoadFinished(Cursor cursor) {
@@ -125,14 +122,11 @@ public class LeaderActivity extends SimpleTabActivity {
                         ((TextView) view.findViewById(R.id.entropy)).setText(entropy);
                     }
                 }
-            });
+            }.setPriority(MinutesLoader.PRIORITY_HEADER));
             // Query for BarChart
             final BarChart chart = (BarChart)view.findViewById(R.id.chart);
             chart.setNoDataText("");
-            SQL.Query chartQuery = SQL.select(C.Leader.singingCount, C.Singing.year)
-                                        .whereEq(C.Leader.id)
-                                        .group(C.Singing.year)
-                                        .orderAsc(C.Singing.year);
+            SQL.Query chartQuery = DetailQueries.leaderChart();
             getLoaderManager().initLoader(2, null, new MinutesLoader(chartQuery, String.valueOf(id)) {
                 @Override
                 public void onLoadFinished(Cursor cursor) {
@@ -177,7 +171,7 @@ public class LeaderActivity extends SimpleTabActivity {
                     // want to redraw, so we force it here.
                     chart.invalidate();
                 }
-            });
+            }.setPriority(MinutesLoader.PRIORITY_CHART));
         }
     }
 
@@ -202,25 +196,20 @@ public class LeaderActivity extends SimpleTabActivity {
 
         @Override
         public SQL.Query onUpdateQuery() {
-            // Base query
-            SQL.Query query =
-                    C.Song.selectList(C.Song.number, C.Song.fullTitle, C.LeaderStats.leadCount)
-                            .where(C.LeaderStats.leaderId, "=", mId);
-            // Sort
             switch (mSortId) {
                 case R.id.menu_song_sort_page:
-                    return query.order(C.Song.pageSort);
+                    return ListQueries.leaderSongsByPage(mId);
                 case R.id.menu_song_sort_title:
-                    return query.order(C.Song.title);
+                    return ListQueries.leaderSongsByTitle(mId);
                 case R.id.menu_song_sort_leads:
                 default:
-                    return query.order(C.LeaderStats.leadCount, "DESC", C.Song.pageSort, "ASC");
+                    return ListQueries.leaderSongsByLeadCount(mId);
             }
         }
 
         @Override
         public SQL.Query onUpdateSearch(SQL.Query query, String searchTerm) {
-            return query.where(C.Song.fullName, "LIKE", "%" + searchTerm + "%");
+            return ListQueries.leaderSongSearch(query, searchTerm);
         }
     }
 
@@ -245,16 +234,12 @@ public class LeaderActivity extends SimpleTabActivity {
 
         @Override
         public SQL.Query onUpdateQuery() {
-            return C.Singing.selectList(C.Singing.name, C.Singing.startDate, C.Singing.location)
-                    .distinct()
-                    .sectionIndex(C.Singing.year)
-                    .where(C.SongLeader.leaderId, "=", mId);
+            return ListQueries.leaderSingings(mId);
         }
 
         @Override
         public SQL.Query onUpdateSearch(SQL.Query query, String searchTerm) {
-            return query.where(C.Singing.name, "LIKE", "%" + searchTerm + "%")
-                        .or(C.Singing.location, "LIKE", "%" + searchTerm + "%");
+            return ListQueries.leaderSingingSearch(query, searchTerm);
         }
     }
 
@@ -269,6 +254,8 @@ public class LeaderActivity extends SimpleTabActivity {
             setDefaultSortId(R.id.menu_singing_sort_year);
             setItemLayout(R.layout.list_item_singing);
             setIntentActivity(SingingActivity.class);
+            // Singing ids repeat, but lead ids are unique
+            setPaging(SingingActivity.EXTRA_LEAD_ID);
             setLeaderId(getActivity().getIntent().getLongExtra(EXTRA_ID, -1));
         }
 
@@ -279,32 +266,23 @@ public class LeaderActivity extends SimpleTabActivity {
 
         @Override
         public SQL.Query onUpdateQuery() {
-            SQL.Query query =
-                    SQL.select(C.Singing.id, C.Song.fullName, C.Singing.name, C.Singing.startDate)
-                            .select(C.SongLeader.leadId).as(SingingActivity.EXTRA_LEAD_ID)
-                            .select(C.SongLeader.audioUrl).as(CursorListFragment.AUDIO_COLUMN)
-                            .where(C.SongLeader.leaderId, "=", mId);
             switch(mSortId) {
                 case R.id.menu_song_sort_title:
                     setStringIndexer();
-                    return query.sectionIndex(C.Song.fullTitle, "ASC")
-                                .order(C.Singing.year, "ASC");
+                    return ListQueries.leaderLeadsByTitle(mId);
                 case R.id.menu_song_sort_page:
                     setStringIndexer();
-                    return query.sectionIndex(C.Song.fullName)
-                                .order(C.Song.pageSort, "ASC", C.Singing.year, "ASC");
+                    return ListQueries.leaderLeadsByPage(mId);
                 case R.id.menu_singing_sort_year:
                 default:
                     setRangeIndexer();
-                    return query.sectionIndex(C.Singing.year, "ASC");
+                    return ListQueries.leaderLeadsByYear(mId);
             }
         }
 
         @Override
         public SQL.Query onUpdateSearch(SQL.Query query, String searchTerm) {
-            return query.where(C.Singing.name, "LIKE", "%" + searchTerm + "%")
-                    .or(C.Singing.location, "LIKE", "%" + searchTerm + "%")
-                    .or(C.Song.fullName, "LIKE", "%" + searchTerm + "%");
+            return ListQueries.leaderLeadSearch(query, searchTerm);
         }
 
         @Override
@@ -0,0 +1,361 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package org.fasola.fasolaminutes;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Trigram index of leader names and aliases for typo-tolerant search.
+ *
+ * <p>Each name is split into trigrams (three letter pieces of each word, padded like
+ * PostgreSQL's pg_trgm), and names are ranked by the fraction of trigrams they share with the
+ * search term.  Unlike the full text index this finds misspellings, e.g. "Jeff Sheperd" for
+ * "Jeff Shepard".
+ *
+ * <p>The index is built once per database version and saved in the app's files dir.
+ */
+class LeaderNameIndex {
+    private static final String TAG = "LeaderNameIndex";
+    private static final String FILE_NAME = "leader_trigrams.dat";
+    private static final int VERSION = 2;
+    // Minimum similarity (shared / total trigrams) to count as a match
+    private static final float MIN_SIMILARITY = 0.3f;
+    public static final int MAX_RESULTS = 50;
+
+    /** Receives the index once it has loaded. */
+    public interface Callback {
+        /** Called on the UI thread. */
+        void onLeaderNameIndexLoaded(LeaderNameIndex index);
+    }
+
+    private static LeaderNameIndex sInstance;
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+    // UI thread only
+    private static boolean sIsLoading;
+    private static final List<Callback> sCallbacks = new ArrayList<>();
+
+    /**
+     * Gets the index without waiting for it (call on the UI thread).
+     *
+     * @param context context
+     * @param callback called once the index has loaded, if it isn't loaded yet
+     * @return the index, or {@code null} if it is still loading
+     */
+    public static LeaderNameIndex getInstance(Context context, Callback callback) {
+        synchronized (LeaderNameIndex.class) {
+            if (sInstance != null)
+                return sInstance;
+        }
+        if (! sCallbacks.contains(callback))
+            sCallbacks.add(callback);
+        preload(context);
+        return null;
+    }
+
+    /** Stops a callback from being called (e.g. when its view is destroyed). */
+    public static void removeCallback(Callback callback) {
+        sCallbacks.remove(callback);
+    }
+
+    /** Loads or builds the index in the background (call on the UI thread). */
+    public static void preload(Context context) {
+        synchronized (LeaderNameIndex.class) {
+            if (sInstance != null)
+                return;
+        }
+        if (sIsLoading)
+            return;
+        sIsLoading = true;
+        final Context appContext = context.getApplicationContext();
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    load(appContext);
+                } finally {
+                    sHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onLoaded();
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    // Reads the index file, or builds the index and writes the file
+    private static synchronized void load(Context context) {
+        if (sInstance != null)
+            return;
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        LeaderNameIndex index = read(file);
+        if (index == null) {
+            index = build();
+            index.write(file);
+        }
+        sInstance = index;
+    }
+
+    // Calls the callbacks on the UI thread
+    private static void onLoaded() {
+        sIsLoading = false;
+        LeaderNameIndex index;
+        synchronized (LeaderNameIndex.class) {
+            index = sInstance;
+        }
+        // If the load failed, the next getInstance() tries again
+        if (index == null)
+            return;
+        List<Callback> callbacks = new ArrayList<>(sCallbacks);
+        sCallbacks.clear();
+        for (Callback callback : callbacks)
+            callback.onLeaderNameIndexLoaded(index);
+    }
+
+    // One entry per name or alias
+    private final long[] mLeaderIds;
+    private final int[] mTrigramCounts;
+    // Sorted trigrams and the entries that contain each one
+    private final String[] mTrigrams;
+    private final int[][] mPostings;
+
+    private LeaderNameIndex(long[] leaderIds, int[] trigramCounts, String[] trigrams, int[][] postings) {
+        mLeaderIds = leaderIds;
+        mTrigramCounts = trigramCounts;
+        mTrigrams = trigrams;
+        mPostings = postings;
+    }
+
+    // region Building
+    //---------------------------------------------------------------------------------------------
+    private static LeaderNameIndex build() {
+        List<Long> leaderIds = new ArrayList<>();
+        List<Integer> trigramCounts = new ArrayList<>();
+        Map<String, List<Integer>> postings = new TreeMap<>();
+        // One row per alias (aliases can contain commas, so Leader.aka can't be split)
+        Cursor cursor = MinutesDb.getInstance().query(
+                SQL.select(C.Leader.id, C.Leader.fullName, C.LeaderAlias.alias)
+                   .from(C.Leader)
+                   .orderAsc(C.Leader.id));
+        try {
+            long lastId = -1;
+            while (cursor.moveToNext()) {
+                List<String> names = new ArrayList<>();
+                if (cursor.getLong(0) != lastId)
+                    names.add(cursor.getString(1));
+                lastId = cursor.getLong(0);
+                if (! cursor.isNull(2))
+                    names.add(cursor.getString(2));
+                for (String name : names) {
+                    Set<String> trigrams = getTrigrams(name);
+                    if (trigrams.isEmpty())
+                        continue;
+                    int entry = leaderIds.size();
+                    leaderIds.add(cursor.getLong(0));
+                    trigramCounts.add(trigrams.size());
+                    for (String trigram : trigrams) {
+                        List<Integer> list = postings.get(trigram);
+                        if (list == null) {
+                            list = new ArrayList<>();
+                            postings.put(trigram, list);
+                        }
+                        list.add(entry);
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        // Flatten
+        long[] ids = new long[leaderIds.size()];
+        int[] counts = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = leaderIds.get(i);
+            counts[i] = trigramCounts.get(i);
+        }
+        String[] trigrams = postings.keySet().toArray(new String[postings.size()]);
+        int[][] entries = new int[trigrams.length][];
+        for (int t = 0; t < trigrams.length; t++) {
+            List<Integer> list = postings.get(trigrams[t]);
+            entries[t] = new int[list.size()];
+            for (int i = 0; i < entries[t].length; i++)
+                entries[t][i] = list.get(i);
+        }
+        return new LeaderNameIndex(ids, counts, trigrams, entries);
+    }
+
+    /**
+     * Splits a name into trigrams.
+     *
+     * <p>Names are lowercased without accents or punctuation, and each word is padded with two
+     * spaces in front and one behind, so short words and word starts still count.
+     */
+    static Set<String> getTrigrams(String name) {
+        Set<String> trigrams = new TreeSet<>();
+        if (name == null)
+            return trigrams;
+        String normalized = Normalizer.normalize(name, Normalizer.Form.NFD)
+                .replaceAll("\\p{M}+", "")
+                .replaceAll("['\\u2019]", "")
+                .replaceAll("[\\p{Punct}\\s]+", " ")
+                .toLowerCase(Locale.US)
+                .trim();
+        if (normalized.isEmpty())
+            return trigrams;
+        for (String word : normalized.split(" ")) {
+            String padded = "  " + word + " ";
+            for (int i = 0; i + 3 <= padded.length(); i++)
+                trigrams.add(padded.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+    //---------------------------------------------------------------------------------------------
+    // endregion Building
+
+    // region Cache file
+    //---------------------------------------------------------------------------------------------
+    // Returns null if the file is missing or was built from another database version
+    private static LeaderNameIndex read(File file) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != VERSION || in.readInt() != C.DB_VERSION)
+                    return null;
+                long[] ids = new long[in.readInt()];
+                int[] counts = new int[ids.length];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = in.readLong();
+                    counts[i] = in.readInt();
+                }
+                String[] trigrams = new String[in.readInt()];
+                int[][] postings = new int[trigrams.length][];
+                for (int t = 0; t < trigrams.length; t++) {
+                    trigrams[t] = in.readUTF();
+                    postings[t] = new int[in.readInt()];
+                    for (int i = 0; i < postings[t].length; i++)
+                        postings[t][i] = in.readInt();
+                }
+                return new LeaderNameIndex(ids, counts, trigrams, postings);
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read " + file, e);
+            return null;
+        }
+    }
+
+    private void write(File file) {
+        // Write to a temp file and rename so a partial write is never read
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(VERSION);
+                out.writeInt(C.DB_VERSION);
+                out.writeInt(mLeaderIds.length);
+                for (int i = 0; i < mLeaderIds.length; i++) {
+                    out.writeLong(mLeaderIds[i]);
+                    out.writeInt(mTrigramCounts[i]);
+                }
+                out.writeInt(mTrigrams.length);
+                for (int t = 0; t < mTrigrams.length; t++) {
+                    out.writeUTF(mTrigrams[t]);
+                    out.writeInt(mPostings[t].length);
+                    for (int entry : mPostings[t])
+                        out.writeInt(entry);
+                }
+            } finally {
+                out.close();
+            }
+            if (! tmp.renameTo(file))
+                Log.e(TAG, "Unable to rename " + tmp);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to save " + file, e);
+        }
+    }
+    //---------------------------------------------------------------------------------------------
+    // endregion Cache file
+
+    /**
+     * Finds leaders with names similar to a search term.
+     *
+     * @param searchTerm user search string
+     * @return leader ids, most similar first (at most {@link #MAX_RESULTS})
+     */
+    public Long[] search(String searchTerm) {
+        Set<String> trigrams = getTrigrams(searchTerm);
+        if (trigrams.isEmpty())
+            return new Long[0];
+        // Count shared trigrams for each entry
+        int[] shared = new int[mLeaderIds.length];
+        List<Integer> entries = new ArrayList<>();
+        for (String trigram : trigrams) {
+            int t = Arrays.binarySearch(mTrigrams, trigram);
+            if (t < 0)
+                continue;
+            for (int entry : mPostings[t]) {
+                if (shared[entry]++ == 0)
+                    entries.add(entry);
+            }
+        }
+        // Best similarity for each leader
+        final Map<Long, Float> scores = new HashMap<>();
+        for (int entry : entries) {
+            float similarity = (float) shared[entry] /
+                    (trigrams.size() + mTrigramCounts[entry] - shared[entry]);
+            if (similarity < MIN_SIMILARITY)
+                continue;
+            Float score = scores.get(mLeaderIds[entry]);
+            if (score == null || score < similarity)
+                scores.put(mLeaderIds[entry], similarity);
+        }
+        // Rank
+        List<Long> ids = new ArrayList<>(scores.keySet());
+        Collections.sort(ids, new Comparator<Long>() {
+            @Override
+            public int compare(Long lhs, Long rhs) {
+                int cmp = Float.compare(scores.get(rhs), scores.get(lhs));
+                return cmp != 0 ? cmp : lhs.compareTo(rhs);
+            }
+        });
+        if (ids.size() > MAX_RESULTS)
+            ids = ids.subList(0, MAX_RESULTS);
+        return ids.toArray(new Long[ids.size()]);
+    }
+}
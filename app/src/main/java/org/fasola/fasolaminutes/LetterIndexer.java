@@ -16,12 +16,20 @@ import java.util.List;
  * A subclass of up AlphabetIndexer that allows setting custom section labels.
  *
  * <p>This is used as a base class for StringIndexer, and is used in IndexedCursorAdapter.
+ *
+ * <p>Section lookups use tables of runs of rows in the same section, built in a single pass over
+ * the cursor by {@link #prepare()} or the first time they are needed.  A {@link PagedCursor}
+ * supplies its runs of values directly, so its rows are never read.
  */
 public class LetterIndexer extends AlphabetIndexer {
     boolean mIsDesc;
     boolean mIsSorted = true;
     int mTotalCount = 0;
     String[] mSections;
+    // Lookup tables (null until built) and the cursor/column they were built from
+    private Tables mTables;
+    private Cursor mTablesCursor;
+    private int mTablesColumn;
 
     public LetterIndexer(Cursor cursor, int sortedColumnIndex, CharSequence alphabet) {
         super(cursor, sortedColumnIndex, alphabet);
@@ -110,9 +118,148 @@ public class LetterIndexer extends AlphabetIndexer {
                     Collections.reverse(sectionReverser);
                     sectionReverser.toArray(mSections);
                 }
+                clearTables();
+            }
+        }
+    }
+
+    /** Builds the lookup tables now (e.g. on a loader thread) instead of on first use. */
+    public void prepare() {
+        buildTables();
+    }
+
+    // region Lookup tables
+    //---------------------------------------------------------------------------------------------
+    // Runs of consecutive rows in the same section
+    private static class Tables {
+        int count;
+        int runCount;
+        int[] runStarts = new int[16];
+        int[] runSections = new int[16];
+        int[] positionForSection;
+
+        Tables(int sectionCount) {
+            positionForSection = new int[sectionCount];
+            Arrays.fill(positionForSection, -1);
+        }
+
+        void add(int position, int section) {
+            if (runCount > 0 && runSections[runCount - 1] == section)
+                return;
+            if (runCount == runStarts.length) {
+                runStarts = Arrays.copyOf(runStarts, runCount * 2);
+                runSections = Arrays.copyOf(runSections, runCount * 2);
+            }
+            runStarts[runCount] = position;
+            runSections[runCount++] = section;
+            if (positionForSection[section] == -1)
+                positionForSection[section] = position;
+        }
+    }
+
+    @Override
+    public int getSectionForPosition(int position) {
+        if (! buildTables() || position < 0 || position >= mTables.count)
+            return 0;
+        int run = Arrays.binarySearch(mTables.runStarts, 0, mTables.runCount, position);
+        if (run < 0)
+            run = -run - 2; // Run that starts before position
+        return mTables.runSections[run];
+    }
+
+    @Override
+    public int getPositionForSection(int section) {
+        if (! buildTables() || section < 0 || mTables.positionForSection.length == 0)
+            return 0;
+        return mTables.positionForSection[Math.min(section, mTables.positionForSection.length - 1)];
+    }
+
+    @Override
+    public void onChanged() {
+        super.onChanged();
+        clearTables();
+    }
+
+    @Override
+    public void onInvalidated() {
+        super.onInvalidated();
+        clearTables();
+    }
+
+    private void clearTables() {
+        mTables = null;
+        mTablesCursor = null;
+    }
+
+    /**
+     * Builds run and section -> position tables in one pass over the cursor.
+     *
+     * @return {@code true} if the tables are available
+     */
+    private boolean buildTables() {
+        if (mTables != null && mTablesCursor == mDataCursor && mTablesColumn == mColumnIndex)
+            return true;
+        if (mDataCursor == null || mDataCursor.isClosed() || mColumnIndex < 0)
+            return false;
+        int sectionCount = mAlphabet.length();
+        Tables tables = new Tables(sectionCount);
+        PagedCursor paged = PagedCursor.unwrap(mDataCursor);
+        int runCount = paged != null ? paged.getRunCount(mColumnIndex) : -1;
+        if (runCount != -1) {
+            // Runs of equal values are already known
+            for (int i = 0; i < runCount; i++)
+                tables.add(paged.getRunStart(i), findSection(paged.getRunValue(i)));
+            tables.count = paged.getCount();
+        }
+        else {
+            int count = mDataCursor.getCount();
+            int savedPos = mDataCursor.getPosition();
+            String last = null;
+            for (int pos = 0; pos < count && mDataCursor.moveToPosition(pos); pos++) {
+                String word = mDataCursor.getString(mColumnIndex);
+                if (word == null)
+                    word = "";
+                // Rows are sorted, so only look up each distinct value once
+                if (! word.equals(last)) {
+                    last = word;
+                    tables.add(pos, findSection(word));
+                }
             }
+            mDataCursor.moveToPosition(savedPos);
+            tables.count = count;
+        }
+        // Empty sections start where the following section (in list order) starts
+        boolean isAscending = tables.runCount == 0 ||
+                tables.runSections[0] <= tables.runSections[tables.runCount - 1];
+        int next = tables.count;
+        for (int i = 0; i < sectionCount; i++) {
+            int s = isAscending ? sectionCount - 1 - i : i;
+            if (tables.positionForSection[s] == -1)
+                tables.positionForSection[s] = next;
+            else
+                next = tables.positionForSection[s];
+        }
+        mTables = tables;
+        mTablesCursor = mDataCursor;
+        mTablesColumn = mColumnIndex;
+        return true;
+    }
+
+    /**
+     * Finds the section for a value.
+     *
+     * @param word value from the index column
+     * @return first matching section (0 if not found, like AlphabetIndexer)
+     */
+    protected int findSection(String word) {
+        for (int i = 0; i < mAlphabet.length(); i++) {
+            if (compare(word, Character.toString(mAlphabet.charAt(i))) == 0)
+                return i;
         }
+        return 0;
     }
+    //---------------------------------------------------------------------------------------------
+    // endregion Lookup tables
 
     /**
      * Gets the number of items in a section.
@@ -0,0 +1,332 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package org.fasola.fasolaminutes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Queries for the list fragments.
+ *
+ * <p>The fragments pick a query by their sort menu and search term, and set up their indexers.
+ * The queries are built here, without Android, so the benchmark module can build the same ones.
+ */
+final class ListQueries {
+    private ListQueries() {}
+
+    // region Search
+    //---------------------------------------------------------------------------------------------
+    /**
+     * Filters a query by a full text search, and selects the searched text so the results can
+     * be narrowed in memory as the search term is extended.
+     *
+     * @param query query to filter (must include the search table's source table)
+     * @param table full text search table
+     * @param searchTerm user search string
+     * @return {@code query}
+     */
+    static SQL.Query whereMatch(SQL.Query query, C.SearchTable table, String searchTerm) {
+        return table.whereMatch(query, searchTerm)
+                    .select(table.textColumn()).as(SearchSnapshot.MATCH_COLUMN);
+    }
+
+    /**
+     * Filters a query by {@code column LIKE '%searchTerm%'} for any of the columns, and selects
+     * the searched text so the results can be narrowed in memory as the search term is extended.
+     *
+     * @param query query to filter
+     * @param searchTerm user search string
+     * @param columns columns to search
+     * @return {@code query}
+     */
+    static SQL.Query whereLike(SQL.Query query, String searchTerm, Object... columns) {
+        String pattern = "%" + searchTerm + "%";
+        List<Object> text = new ArrayList<>();
+        for (int i = 0; i < columns.length; i++) {
+            if (i == 0) {
+                query.where(columns[i], "LIKE", pattern);
+            }
+            else {
+                query.or(columns[i], "LIKE", pattern);
+                text.add(" || char(31) || ");
+            }
+            text.add("IFNULL(");
+            text.add(columns[i]);
+            text.add(", '')");
+        }
+        return query.select(new SQL.QueryColumn(text.toArray())).as(SearchSnapshot.LIKE_COLUMN);
+    }
+    //---------------------------------------------------------------------------------------------
+    // endregion Search
+
+    // region MainActivity
+    //---------------------------------------------------------------------------------------------
+    // LeaderListFragment
+    static SQL.Query leadersByName() {
+        return C.Leader.selectList(C.Leader.fullName, C.Leader.leadCount)
+                       .sectionIndex(C.Leader.lastName, "ASC")
+                       .order(C.Leader.fullName, "ASC");
+    }
+
+    static SQL.Query leadersByFirstName() {
+        return C.Leader.selectList(C.Leader.fullName, C.Leader.leadCount)
+                       .sectionIndex(C.Leader.fullName, "ASC");
+    }
+
+    static SQL.Query leadersByLeadCount() {
+        return C.Leader.selectList(C.Leader.fullName, C.Leader.leadCount)
+                       .sectionIndex(C.Leader.leadCount, "DESC")
+                       .order(C.Leader.lastName, "ASC", C.Leader.fullName, "ASC");
+    }
+
+    static SQL.Query leadersByEntropy() {
+        return C.Leader.selectList(C.Leader.fullName, C.Leader.entropyDisplay)
+                       .sectionIndex(C.Leader.entropy.format("CAST({column} * 100 AS INT)"), "DESC")
+                       .order(C.Leader.entropy, "DESC",
+                               C.Leader.lastName, "ASC",
+                               C.Leader.fullName, "ASC");
+    }
+
+    /**
+     * Leader search with similar names (e.g. misspellings).
+     *
+     * <p>Full text matches come first in name order, then similar names ranked by similarity.
+     *
+     * @param searchTerm user search string
+     * @param similar leader ids from {@code LeaderNameIndex.search()}, most similar first
+     * @param displayColumn column shown next to the name
+     * @return new query
+     */
+    static SQL.Query leaderSearch(String searchTerm, Long[] similar, Object displayColumn) {
+        SQL.Column match = C.LeaderSearch.matchColumn(searchTerm, "0", "0");
+        StringBuilder ranks = new StringBuilder();
+        for (int i = 0; i < similar.length; i++)
+            ranks.append(" WHEN ").append(similar[i]).append(" THEN ").append(i + 1);
+        SQL.Column rank = new SQL.QueryColumn("IFNULL(", match, ", CASE ", C.Leader.id, ranks, " END)");
+        SQL.Query query = C.Leader.selectList(C.Leader.fullName, displayColumn)
+                        .sectionIndex(new SQL.QueryColumn(
+                            "CASE WHEN ", match, " IS NULL THEN 'Similar names' ELSE 'Matches' END"))
+                        .order(rank, "ASC", C.Leader.lastName, "ASC", C.Leader.fullName, "ASC");
+        return C.LeaderSearch.whereMatch(query, searchTerm)
+                             .or(C.Leader.id, "IN", (Object[]) similar);
+    }
+
+    // SongListFragment: ids are the songs that match the filters (null for all songs)
+    static SQL.Query songs(Long[] ids) {
+        SQL.Query query = C.Song.selectList(
+            C.Song.number, C.Song.fullTitle, C.Song.leadCount);
+        if (ids != null)
+            query.where(C.Song.id, "IN", (Object[]) ids);
+        return query;
+    }
+
+    static SQL.Query songsByPage(Long[] ids) {
+        return songs(ids).sectionIndex(C.Song.pageSort);
+    }
+
+    static SQL.Query songsByTitle(Long[] ids) {
+        return songs(ids).sectionIndex(C.Song.title, "ASC");
+    }
+
+    static SQL.Query songsByLeadCount(Long[] ids) {
+        return songs(ids).sectionIndex(C.Song.leadCount, "DESC");
+    }
+
+    static SQL.Query songsByKey(Long[] ids) {
+        return songs(ids).sectionIndex(C.Song.key, "ASC");
+    }
+
+    static SQL.Query songsByTime(Long[] ids) {
+        return songs(ids).sectionIndex(C.Song.time, "ASC");
+    }
+
+    static SQL.Query songsByMeter(Long[] ids) {
+        return songs(ids).sectionIndex(C.Song.meter)
+                         .orderAsc(C.Song.meter.cast("INT"))
+                         .orderAsc(C.Song.meter);
+    }
+
+    /**
+     * Song search, in sections by the first column with a match (title, composer, poet, words).
+     *
+     * @param ids songs that match the filters (null for all songs)
+     * @param searchTerm user search string
+     * @param section column that replaces the title in the section labels (or null)
+     * @param order columns and directions to sort by within a section
+     * @return new query
+     */
+    static SQL.Query songSearch(Long[] ids, String searchTerm, Object section, Object... order) {
+        SQL.Query query = C.SongSearch.whereMatch(songs(ids), searchTerm)
+                                      .orderAsc(songSearchColumn(searchTerm, 0, 1, 2, 3))
+                                      .order(order);
+        if (section != null)
+            query.sectionIndex(songSearchColumn(searchTerm, section, "Composer", "Poet", "Words"));
+        else
+            query.sectionIndex(songSearchColumn(searchTerm, "Title", "Composer", "Poet", "Words"));
+        // Last sort should always be by page
+        return query.orderAsc(C.Song.pageSort);
+    }
+
+    // Column for the first column with a match
+    private static SQL.Column songSearchColumn(String searchTerm, Object val1, Object val2,
+                                               Object val3, Object val4) {
+        return C.SongSearch.matchColumn(searchTerm,
+                songSearchColumn_fixValue(val1), songSearchColumn_fixValue(val2),
+                songSearchColumn_fixValue(val3), songSearchColumn_fixValue(val4));
+    }
+
+    // Add quotes around unquoted strings
+    private static String songSearchColumn_fixValue(Object value) {
+        String strVal = value.toString();
+        if (value instanceof CharSequence && !strVal.contains("'"))
+            return "'" + strVal + "'";
+        else
+            return strVal;
+    }
+
+    // SingingListFragment
+    private static SQL.Query singings() {
+        return C.Singing.selectList(C.Singing.name, C.Singing.startDate, C.Singing.location)
+                        .select(C.Singing.recordingCount).as(CursorListFragment.AUDIO_COLUMN);
+    }
+
+    static SQL.Query singingsByYear() {
+        return singings().sectionIndex(C.Singing.year);
+    }
+
+    static SQL.Query singingsWithRecordings() {
+        return singings().where(C.Singing.recordingCount, ">", "0")
+                         .orderDesc(C.Singing.recordingCount)
+                         .orderAsc(C.Singing.year);
+    }
+
+    static SQL.Query singingSearch(SQL.Query query, String searchTerm) {
+        return C.SingingSearch.whereMatch(query, searchTerm);
+    }
+    //---------------------------------------------------------------------------------------------
+    // endregion MainActivity
+
+    // region LeaderActivity
+    //---------------------------------------------------------------------------------------------
+    // LeaderSongFragment
+    private static SQL.Query leaderSongs(long leaderId) {
+        return C.Song.selectList(C.Song.number, C.Song.fullTitle, C.LeaderStats.leadCount)
+                     .where(C.LeaderStats.leaderId, "=", leaderId);
+    }
+
+    static SQL.Query leaderSongsByPage(long leaderId) {
+        return leaderSongs(leaderId).order(C.Song.pageSort);
+    }
+
+    static SQL.Query leaderSongsByTitle(long leaderId) {
+        return leaderSongs(leaderId).order(C.Song.title);
+    }
+
+    static SQL.Query leaderSongsByLeadCount(long leaderId) {
+        return leaderSongs(leaderId).order(C.LeaderStats.leadCount, "DESC", C.Song.pageSort, "ASC");
+    }
+
+    static SQL.Query leaderSongSearch(SQL.Query query, String searchTerm) {
+        return whereLike(query, searchTerm, C.Song.fullName);
+    }
+
+    // LeaderSingingFragment
+    static SQL.Query leaderSingings(long leaderId) {
+        return C.Singing.selectList(C.Singing.name, C.Singing.startDate, C.Singing.location)
+                .distinct()
+                .sectionIndex(C.Singing.year)
+                .where(C.SongLeader.leaderId, "=", leaderId);
+    }
+
+    static SQL.Query leaderSingingSearch(SQL.Query query, String searchTerm) {
+        return whereLike(query, searchTerm, C.Singing.name, C.Singing.location);
+    }
+
+    // LeaderLeadsFragment
+    private static SQL.Query leaderLeads(long leaderId) {
+        return SQL.select(C.Singing.id, C.Song.fullName, C.Singing.name, C.Singing.startDate)
+                  .select(C.SongLeader.leadId).as(SingingActivity.EXTRA_LEAD_ID)
+                  .select(C.SongLeader.audioUrl).as(CursorListFragment.AUDIO_COLUMN)
+                  .where(C.SongLeader.leaderId, "=", leaderId);
+    }
+
+    static SQL.Query leaderLeadsByYear(long leaderId) {
+        return leaderLeads(leaderId).sectionIndex(C.Singing.year, "ASC");
+    }
+
+    static SQL.Query leaderLeadsByTitle(long leaderId) {
+        return leaderLeads(leaderId).sectionIndex(C.Song.fullTitle, "ASC")
+                                    .order(C.Singing.year, "ASC");
+    }
+
+    static SQL.Query leaderLeadsByPage(long leaderId) {
+        return leaderLeads(leaderId).sectionIndex(C.Song.fullName)
+                                    .order(C.Song.pageSort, "ASC", C.Singing.year, "ASC");
+    }
+
+    static SQL.Query leaderLeadSearch(SQL.Query query, String searchTerm) {
+        return whereLike(query, searchTerm, C.Singing.name, C.Singing.location, C.Song.fullName);
+    }
+    //---------------------------------------------------------------------------------------------
+    // endregion LeaderActivity
+
+    // region SingingActivity
+    //---------------------------------------------------------------------------------------------
+    // SingingSongListFragment: one row per lead, with all of its leaders
+    private static SQL.Query singingSongs(long singingId) {
+        return SQL.select(
+                C.Song.id,
+                C.Song.fullName,
+                C.Leader.allNames)
+            .select(C.SongLeader.leadId).as(SingingActivity.EXTRA_LEAD_ID)
+            .select(C.Leader.id.func("group_concat")).as("__leaderIds")
+            .select(C.SongLeader.audioUrl).as(CursorListFragment.AUDIO_COLUMN)
+            .from(C.SongLeader)
+            .where(C.SongLeader.singingId, "=", singingId)
+            .group(C.SongLeader.leadId);
+    }
+
+    static SQL.Query singingSongsByOrder(long singingId) {
+        return singingSongs(singingId).order(C.SongLeader.singingOrder, "ASC");
+    }
+
+    static SQL.Query singingSongsByPage(long singingId) {
+        return singingSongs(singingId).order(C.Song.pageSort, "ASC");
+    }
+
+    static SQL.Query singingSongSearch(SQL.Query query, String searchTerm) {
+        // having since Leader.allNames is a group_concat
+        return query.having(C.Leader.allNames, "LIKE", "%" + searchTerm + "%")
+                    .or(C.Song.fullName, "LIKE", "%" + searchTerm + "%");
+    }
+
+    // One row per leader, with coleaders
+    static SQL.Query singingSongsByLeader(long singingId) {
+        return SQL.select(
+                C.Song.id,
+                C.Song.fullName,
+                C.Leader.fullName +
+                    " || ' ' || " +
+                    C.SongLeader.coleaders.format(
+                        "CASE WHEN {column} IS NOT NULL" +
+                            " THEN '(with ' || {column} || ')'" +
+                            " ELSE '' " +
+                        " END"))
+            .select(C.SongLeader.leadId).as(SingingActivity.EXTRA_LEAD_ID)
+            .select(C.Leader.id).as("__leaderIds")
+            .select(C.SongLeader.audioUrl).as(CursorListFragment.AUDIO_COLUMN)
+            .from(C.SongLeader)
+            .where(C.SongLeader.singingId, "=", singingId)
+            .sectionIndex(C.Leader.lastName)
+            .order(C.Leader.lastName, "ASC", C.Leader.fullName, "ASC");
+    }
+
+    static SQL.Query singingSongByLeaderSearch(SQL.Query query, String searchTerm) {
+        return whereLike(query, searchTerm, C.Leader.fullName, C.Song.fullName);
+    }
+    //---------------------------------------------------------------------------------------------
+    // endregion SingingActivity
+}
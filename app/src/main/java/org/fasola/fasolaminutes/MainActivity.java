@@ -5,9 +5,9 @@
 
 package org.fasola.fasolaminutes;
 
+import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
-import android.database.DatabaseUtils;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.view.ViewPager;
@@ -15,11 +15,7 @@ import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import android.widget.ProgressBar;
 
 public class MainActivity extends SimpleTabActivity {
     public final static String ACTIVITY_POSITION = "org.fasola.fasolaminutes.POSITION";
@@ -34,8 +30,23 @@ public class MainActivity extends SimpleTabActivity {
         mViewPager.setOffscreenPageLimit(mPagerAdapter.getCount());
         // Set page change listener and initial settings
         setOnPageChangeListener(mPageChangeListener);
+        // Show progress while the database is installed (the lists load once it's done)
+        mInstallListener.onInstallProgress(MinutesDbInstaller.addListener(mInstallListener));
     }
 
+    MinutesDbInstaller.ProgressListener mInstallListener = new MinutesDbInstaller.ProgressListener() {
+        @Override
+        public void onInstallProgress(int percent) {
+            View progress = findViewById(R.id.install_progress);
+            if (percent == MinutesDbInstaller.NOT_INSTALLING) {
+                progress.setVisibility(View.GONE);
+                return;
+            }
+            progress.setVisibility(View.VISIBLE);
+            ((ProgressBar) findViewById(R.id.install_progress_bar)).setProgress(percent);
+        }
+    };
+
     // Change title and FaSoLa tabs when the page changes
     ViewPager.SimpleOnPageChangeListener mPageChangeListener =
         new ViewPager.SimpleOnPageChangeListener() {
@@ -54,6 +65,7 @@ public class MainActivity extends SimpleTabActivity {
 
     @Override
     protected void onDestroy() {
+        MinutesDbInstaller.removeListener(mInstallListener);
         if (PlaybackService.isRunning())
             PlaybackService.getInstance().setMainTaskRunning(false);
         super.onDestroy();
@@ -82,14 +94,17 @@ public class MainActivity extends SimpleTabActivity {
                 "recordings".equals(data.getHost())) {
             // Got a recordings url
             if (data.getLastPathSegment().equals("random")) {
-                // Start a random singing
-                SQL.Query query = SQL.select(C.Singing.id)
-                                     .where(C.Singing.recordingCount, ">", "10")
-                                     .order("RANDOM()")
-                                     .limit(1);
-                long singingId = MinutesDb.getInstance().queryLong(query.toString());
-                if (singingId > -1)
-                    PlaybackService.playSinging(this, PlaybackService.ACTION_PLAY_MEDIA, singingId);
+                // Start a random singing (in the background, since the database may still be
+                // installing)
+                final Context context = getApplicationContext();
+                new MinutesLoader(DetailQueries.randomSinging()) {
+                    @Override
+                    public void onLoadFinished(Cursor cursor) {
+                        if (cursor.moveToFirst())
+                            PlaybackService.playSinging(context, PlaybackService.ACTION_PLAY_MEDIA,
+                                                        cursor.getLong(0));
+                    }
+                }.startLoading();
             }
             else {
                 try {
@@ -118,6 +133,8 @@ public class MainActivity extends SimpleTabActivity {
             setDefaultSortId(R.id.menu_leader_sort_name);
             setIntentActivity(LeaderActivity.class);
             setItemLayout(R.layout.list_item_leader);
+            setPaging("_id");
+            LeaderNameIndex.preload(getActivity());
             ((SimpleTabActivity)getActivity()).setHelpResource(this, R.string.help_leader_list);
             updateQuery();
         }
@@ -138,37 +155,51 @@ public class MainActivity extends SimpleTabActivity {
                 case R.id.menu_leader_sort_count:
                     setBinCount(7);
                     showHeaders(false);
-                    return C.Leader.selectList(C.Leader.fullName, C.Leader.leadCount)
-                                   .sectionIndex(C.Leader.leadCount, "DESC")
-                                   .order(C.Leader.lastName, "ASC", C.Leader.fullName, "ASC");
+                    return ListQueries.leadersByLeadCount();
                 case R.id.menu_leader_sort_entropy:
                     setBins(0, 10, 20, 30, 40, 50, 60, 70, 80, 90);
                     setSectionLabels("0", "0.1", "0.2", "0.3", "0.4", "0.5", "0.6", "0.7", "0.8", "0.9");
                     showHeaders(false);
-                    return C.Leader.selectList(C.Leader.fullName, C.Leader.entropyDisplay)
-                                   .sectionIndex(C.Leader.entropy.format("CAST({column} * 100 AS INT)"), "DESC")
-                                   .order(C.Leader.entropy, "DESC",
-                                           C.Leader.lastName, "ASC",
-                                           C.Leader.fullName, "ASC");
+                    return ListQueries.leadersByEntropy();
                 case R.id.menu_leader_sort_first_name:
                     setAlphabetIndexer();
                     showHeaders(true);
-                    return C.Leader.selectList(C.Leader.fullName, C.Leader.leadCount)
-                                   .sectionIndex(C.Leader.fullName, "ASC");
+                    return ListQueries.leadersByFirstName();
                 case R.id.menu_leader_sort_name:
                 default:
                     setAlphabetIndexer();
                     showHeaders(true);
-                    return C.Leader.selectList(C.Leader.fullName, C.Leader.leadCount)
-                                   .sectionIndex(C.Leader.lastName, "ASC")
-                                   .order(C.Leader.fullName, "ASC");
+                    return ListQueries.leadersByName();
             }
         }
 
         @Override
         public SQL.Query onUpdateSearch(SQL.Query query, String searchTerm) {
-            return query.where(C.Leader.fullName, "LIKE", "%" + searchTerm + "%")
-                        .or(C.LeaderAlias.alias, "LIKE", "%" + searchTerm + "%");
+            // Until the name index has loaded, search without similar names (the search is run
+            // again when it loads)
+            LeaderNameIndex index = LeaderNameIndex.getInstance(getActivity(), mNameIndexCallback);
+            Long[] similar = index != null ? index.search(searchTerm) : new Long[0];
+            if (similar.length == 0) // Reset the indexer in case the last search changed it
+                return ListQueries.whereMatch(onUpdateQuery(), C.LeaderSearch, searchTerm);
+            showHeaders(true);
+            setStringIndexer();
+            Object displayColumn = getSortId() == R.id.menu_leader_sort_entropy ?
+                    C.Leader.entropyDisplay : C.Leader.leadCount;
+            return ListQueries.leaderSearch(searchTerm, similar, displayColumn);
+        }
+
+        private final LeaderNameIndex.Callback mNameIndexCallback = new LeaderNameIndex.Callback() {
+            @Override
+            public void onLeaderNameIndexLoaded(LeaderNameIndex index) {
+                if (getView() != null && ! getSearch().isEmpty())
+                    setSearch(getSearch());
+            }
+        };
+
+        @Override
+        public void onDestroyView() {
+            LeaderNameIndex.removeCallback(mNameIndexCallback);
+            super.onDestroyView();
         }
     }
 
@@ -180,201 +211,92 @@ public class MainActivity extends SimpleTabActivity {
             setDefaultSortId(R.id.menu_song_sort_page);
             setIntentActivity(SongActivity.class);
             setItemLayout(R.layout.list_item_song);
+            SongFilter.preload();
             ((SimpleTabActivity)getActivity()).setHelpResource(this, R.string.help_song_list);
             updateQuery();
         }
 
         /**
-         * Get the base query with filters applied
-         * @return {SQL.Query} Base song query
+         * Get the songs that match the filters
+         * @return {Long[]} Song ids, or null for all songs
          */
-        private SQL.Query songQuery() {
-            SQL.Query query = C.Song.selectList(
-                C.Song.number, C.Song.fullTitle, C.SongStats.leadCount.sum());
+        private Long[] filteredIds() {
             Bundle filters = getFilterState();
-            if (filters == null) return query;
-            // Bool filters (checkboxes)
-            List<Integer> checkboxIds = filters.getIntegerArrayList(SongFilterActivity.CHECKBOXES);
-            if (checkboxIds != null && !checkboxIds.isEmpty()) {
-                Set<Integer> checkboxes = new HashSet<>(checkboxIds);
-                // Orientation
-                List<String> orientations = new ArrayList<>();
-                if (checkboxes.contains(R.id.page_full)) orientations.add("full");
-                if (checkboxes.contains(R.id.page_top)) orientations.add("top");
-                if (checkboxes.contains(R.id.page_bottom)) orientations.add("bottom");
-                if (!orientations.isEmpty())
-                    query.where(C.Song.orientation, "IN", orientations.toArray());
-                // Left/right
-                boolean leftPage = checkboxes.contains(R.id.page_left);
-                boolean rightPage = checkboxes.contains(R.id.page_right);
-                if (leftPage ^ rightPage) { // XOR: no filter needed if they're both true
-                    query.where(C.Song.number.cast("INT").format("{column} %% 2"),
-                        leftPage ? "=" : "<>", 0);
-                }
-                // Time signature
-                List<String> times = new ArrayList<>();
-                if (checkboxes.contains(R.id.time_2_2)) times.add("%2/2%");
-                if (checkboxes.contains(R.id.time_4_4)) times.add("%4/4%");
-                if (checkboxes.contains(R.id.time_2_4)) times.add("%2/4%");
-                if (checkboxes.contains(R.id.time_3_2)) times.add("%3/2%");
-                if (checkboxes.contains(R.id.time_3_4)) times.add("%3/4%");
-                if (checkboxes.contains(R.id.time_6_4)) times.add("%6/4%");
-                if (checkboxes.contains(R.id.time_6_8)) times.add("%6/8%");
-                if (!times.isEmpty()) {
-                    query.where(C.Song.time, "LIKE", times.get(0));
-                    times.remove(0);
-                    for (String t : times) query.or(C.Song.time, "LIKE", t);
-                }
-                // Time changes
-                boolean singleTime = checkboxes.contains(R.id.time_single);
-                boolean multipleTimes = checkboxes.contains(R.id.time_multiple);
-                if (singleTime ^ multipleTimes) {
-                    query.where(C.Song.time, singleTime ? "NOT LIKE" : "LIKE", "%,%");
-                }
-                // Key signature
-                List<String> keys = new ArrayList<>();
-                if (checkboxes.contains(R.id.key_a)) keys.add("A");
-                if (checkboxes.contains(R.id.key_b_flat)) { keys.add("A#"); keys.add("Bb"); }
-                if (checkboxes.contains(R.id.key_b)) keys.add("B");
-                if (checkboxes.contains(R.id.key_c)) keys.add("C");
-                if (checkboxes.contains(R.id.key_d_flat)) { keys.add("C#"); keys.add("Db"); }
-                if (checkboxes.contains(R.id.key_d)) keys.add("D");
-                if (checkboxes.contains(R.id.key_e_flat)) { keys.add("D#"); keys.add("Eb"); }
-                if (checkboxes.contains(R.id.key_e)) keys.add("E");
-                if (checkboxes.contains(R.id.key_f)) keys.add("F");
-                if (checkboxes.contains(R.id.key_f_sharp)) { keys.add("F#"); keys.add("Gb"); }
-                if (checkboxes.contains(R.id.key_g)) keys.add("G");
-                if (checkboxes.contains(R.id.key_a_flat)) { keys.add("G#"); keys.add("Ab"); }
-                if (!keys.isEmpty()) {
-                    query.where(C.Song.rawKey.format("' ' || {column} || ' '"),
-                        "LIKE", String.format("%% %s %%", keys.get(0)));
-                    keys.remove(0);
-                    for (String k : keys)
-                        query.or(C.Song.rawKey.format("' ' || {column} || ' '"),
-                            "LIKE", String.format("%% %s %%", k));
-                }
-                // Key changes
-                boolean singleKey = checkboxes.contains(R.id.key_single);
-                boolean multipleKeys = checkboxes.contains(R.id.key_multiple);
-                if (singleKey ^ multipleKeys) {
-                    query.where(C.Song.rawKey, singleKey ? "NOT LIKE" : "LIKE", "%,%");
-                }
-                // Major/minor
-                boolean major = checkboxes.contains(R.id.key_major);
-                boolean minor = checkboxes.contains(R.id.key_minor);
-                if (major ^ minor) {
-                    query.where(C.Song.rawKey, major ? "NOT LIKE" : "LIKE", "%min%");
-                    // The only 2 songs with key changes go between major and minor of the same
-                    // key, so this works for now
-                    query.or(C.Song.rawKey, "LIKE", "%,%");
-                }
-            }
-            // Page range
-            int [] pageRange = filters.getIntArray(SongFilterActivity.PAGE_RANGE);
-            if (pageRange != null && pageRange.length == 2) {
-                query.where(C.Song.number.cast("INT"), ">=", pageRange[0])
-                    .and(C.Song.number.cast("INT"), "<=", pageRange[1]);
-            }
-            return query;
+            if (filters == null) return null;
+            // Filters are resolved in memory to a list of song ids.  Until the song index has
+            // loaded nothing matches, and the query is updated when it loads.
+            SongFilter filter = SongFilter.getInstance(mFilterCallback);
+            return filter != null ? filter.getSongIds(filters) : new Long[0];
         }
 
-        /** Get the column for the search query **/
-        private SQL.Column searchColumn(String searchTerm, Object val1, Object val2, Object val3, Object val4) {
-            return new SQL.QueryColumn(
-                "CASE ",
-                    C.Song.fullName.format("WHEN {column} LIKE %s THEN %s ", searchTerm, searchColumn_fixValue(val1)),
-                    C.Song.composer.format("WHEN {column} LIKE %s THEN %s ", searchTerm, searchColumn_fixValue(val2)),
-                    C.Song.poet.format("WHEN {column} LIKE %s THEN %s ", searchTerm, searchColumn_fixValue(val3)),
-                    C.Song.lyrics.format("WHEN {column} LIKE %s THEN %s ", searchTerm, searchColumn_fixValue(val4)),
-                "END"
-            );
-        }
+        private final SongFilter.Callback mFilterCallback = new SongFilter.Callback() {
+            @Override
+            public void onSongFilterLoaded(SongFilter filter) {
+                if (getView() != null)
+                    updateQuery();
+            }
+        };
 
-        // Add quotes around unquoted strings
-        private String searchColumn_fixValue(Object value) {
-            String strVal = value.toString();
-            if (value instanceof CharSequence && !strVal.contains("'"))
-                return "'" + strVal + "'";
-            else
-                return strVal;
+        @Override
+        public void onDestroyView() {
+            SongFilter.removeCallback(mFilterCallback);
+            super.onDestroyView();
         }
 
         // Change query/index based on the selected sort column
         public SQL.Query onUpdateQuery() {
-            SQL.Query query = songQuery();
+            Long[] ids = filteredIds();
             switch(getSortId()) {
                 default:
                 case R.id.menu_song_sort_page:
                     setBins(0, 100, 200, 300, 400, 500);
                     showHeaders(false);
-                    return query.sectionIndex(C.Song.pageSort);
+                    return ListQueries.songsByPage(ids);
                 case R.id.menu_song_sort_title:
                     setAlphabetIndexer();
                     showHeaders(true);
-                    return query.sectionIndex(C.Song.title, "ASC");
+                    return ListQueries.songsByTitle(ids);
                 case R.id.menu_song_sort_leads:
                     setBinCount(7);
                     showHeaders(false);
-                    return query.sectionIndex(C.SongStats.leadCount.sum(), "DESC");
+                    return ListQueries.songsByLeadCount(ids);
                 case R.id.menu_song_sort_key:
                     setStringIndexer();
                     showHeaders(true);
-                    return query.sectionIndex(C.Song.key, "ASC");
+                    return ListQueries.songsByKey(ids);
                 case R.id.menu_song_sort_time:
                     setStringIndexer();
                     showHeaders(true);
-                    return query.sectionIndex(C.Song.time, "ASC");
+                    return ListQueries.songsByTime(ids);
                 case R.id.menu_song_sort_meter:
                     setStringIndexer();
                     showHeaders(true);
-                    return query.sectionIndex(C.Song.meter)
-                                .orderAsc(C.Song.meter.cast("INT"))
-                                .orderAsc(C.Song.meter);
-
+                    return ListQueries.songsByMeter(ids);
             }
         }
 
         @Override
         public SQL.Query onUpdateSearch(SQL.Query query, String searchTerm) {
-            searchTerm = DatabaseUtils.sqlEscapeString("%" + searchTerm + "%");
-            // Start with standard query ordered by search sections
-            query = songQuery().orderAsc(searchColumn(searchTerm, 0, 1, 2, 3));
+            // Full text matches in search sections, with custom sorting options within a section
+            Long[] ids = filteredIds();
             showHeaders(true);
             setStringIndexer();
-            // Add custom sorting options
             switch(getSortId()) {
                 default:
                 case R.id.menu_song_sort_page:
-                    query.order(C.Song.pageSort, "ASC");
-                    break;
+                    return ListQueries.songSearch(ids, searchTerm, null, C.Song.pageSort, "ASC");
                 case R.id.menu_song_sort_title:
-                    query.order(C.Song.title, "ASC");
-                    break;
+                    return ListQueries.songSearch(ids, searchTerm, null, C.Song.title, "ASC");
                 case R.id.menu_song_sort_leads:
-                    query.order(C.SongStats.leadCount.sum(), "DESC");
-                    break;
+                    return ListQueries.songSearch(ids, searchTerm, null, C.Song.leadCount, "DESC");
                 case R.id.menu_song_sort_key:
-                    query.order(C.Song.key, "ASC")
-                         .sectionIndex(searchColumn(searchTerm, C.Song.key, "Composer", "Poet", "Words"));
-                    break;
+                    return ListQueries.songSearch(ids, searchTerm, C.Song.key, C.Song.key, "ASC");
                 case R.id.menu_song_sort_time:
-                    query.order(C.Song.time, "ASC")
-                         .sectionIndex(searchColumn(searchTerm, C.Song.time, "Composer", "Poet", "Words"));
-                    break;
+                    return ListQueries.songSearch(ids, searchTerm, C.Song.time, C.Song.time, "ASC");
                 case R.id.menu_song_sort_meter:
-                    setStringIndexer();
-                    query.orderAsc(C.Song.meter.cast("INT"))
-                         .orderAsc(C.Song.meter)
-                         .sectionIndex(searchColumn(searchTerm, C.Song.meter, "Composer", "Poet", "Words"));
-                    break;
+                    return ListQueries.songSearch(ids, searchTerm, C.Song.meter,
+                            C.Song.meter.cast("INT"), "ASC", C.Song.meter, "ASC");
             }
-            // Add the standard search index if none has been added
-            if (!query.hasSectionIndex())
-                query.sectionIndex(searchColumn(searchTerm, "Title", "Composer", "Poet", "Words"));
-            // Last sort should always be by page
-            query.orderAsc(C.Song.pageSort);
-            // CASE WHEN can exclude rows, and NULL will make indexer break
-            return query.where(SQL.INDEX_COLUMN, "IS NOT", "NULL");
         }
 
         @Override
@@ -409,34 +331,22 @@ public class MainActivity extends SimpleTabActivity {
             updateQuery();
         }
 
-        /**
-         * Get the default query for filtering or sorting
-         * @return {SQL.Query} Default singing query
-         */
-        private SQL.Query singingQuery() {
-            return C.Singing.selectList(C.Singing.name, C.Singing.startDate, C.Singing.location)
-                            .select(C.Singing.recordingCount).as(CursorListFragment.AUDIO_COLUMN);
-        }
-
         public SQL.Query onUpdateQuery() {
             switch(mSortId) {
                 case R.id.menu_singing_sort_recordings:
                     showHeaders(false);
-                    return singingQuery().where(C.Singing.recordingCount, ">", "0")
-                                         .orderDesc(C.Singing.recordingCount)
-                                         .orderAsc(C.Singing.year);
+                    return ListQueries.singingsWithRecordings();
                 case R.id.menu_singing_sort_year:
                 default:
                     setRangeIndexer();
                     showHeaders(true);
-                    return singingQuery().sectionIndex(C.Singing.year);
+                    return ListQueries.singingsByYear();
             }
         }
 
         @Override
         public SQL.Query onUpdateSearch(SQL.Query query, String searchTerm) {
-            return query.where(C.Singing.name, "LIKE", "%" + searchTerm + "%")
-                        .or(C.Singing.location, "LIKE", "%" + searchTerm + "%");
+            return ListQueries.singingSearch(query, searchTerm);
         }
 
         @Override
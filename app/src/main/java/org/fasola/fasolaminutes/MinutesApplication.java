@@ -44,8 +44,10 @@ public class MinutesApplication extends Application
     public void onCreate() {
         super.onCreate();
         mContext = getApplicationContext();
-        // Open the database
-        MinutesDb.getInstance(mContext);
+        // Open the database in the background (queries wait until it's ready)
+        MinutesDb.getInstance().openAsync(mContext);
+        // Restore the playlist from the last session
+        PlaylistStore.getInstance(mContext).restore();
         registerActivityLifecycleCallbacks(this);
     }
 
@@ -211,6 +213,8 @@ public class MinutesApplication extends Application
 
     @Override
     public void onActivityPaused(Activity activity) {
+        // The process may be killed once the app is in the background
+        PlaylistStore.getInstance(this).flush();
     }
 
     @Override
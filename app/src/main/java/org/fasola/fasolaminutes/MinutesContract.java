@@ -5,7 +5,14 @@
 
 package org.fasola.fasolaminutes;
 
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * FaSoLa database
@@ -31,6 +38,33 @@ public class MinutesContract {
     public static SongLeaderDAO SongLeader = new SongLeaderDAO();
     public static SongNeighborDAO SongNeighbor = new SongNeighborDAO();
 
+    // Derived tables (created when the database is opened)
+    public static SongAggregateDAO SongAggregate = new SongAggregateDAO();
+    public static SingingAggregateDAO SingingAggregate = new SingingAggregateDAO();
+    public static LeaderAggregateDAO LeaderAggregate = new LeaderAggregateDAO();
+    public static SongStatsYearDAO SongStatsYear = new SongStatsYearDAO();
+    public static SongSearchDAO SongSearch = new SongSearchDAO();
+    public static LeaderSearchDAO LeaderSearch = new LeaderSearchDAO();
+    public static SingingSearchDAO SingingSearch = new SingingSearchDAO();
+    private static final DerivedTable[] DERIVED_TABLES = {
+        SongAggregate, SingingAggregate, LeaderAggregate, SongStatsYear,
+        SongSearch, LeaderSearch, SingingSearch
+    };
+
+    // Indexes for joins and lookups (the asset db isn't guaranteed to have any), created with
+    // the derived tables: table name followed by columns
+    // Checked against the app's queries with the benchmark module's IndexAdvisor
+    static final String[][] INDEXES = {
+        {"song_leader_joins", "lead_id"}, // Playlist restore, coleaders
+        {"song_leader_joins", "minutes_id", "lead_id"}, // Singing's songs, grouped by lead
+        {"song_leader_joins", "leader_id"},
+        {"song_leader_joins", "song_id", "lead_id"}, // Song's recordings, grouped by lead
+        {"song_stats", "song_id", "year"},
+        {"leader_song_stats", "leader_id"},
+        {"leader_song_stats", "song_id", "lead_count"},
+        {"song_neighbors", "from_song_id"},
+    };
+
     // Initialize joins and calculated columns
     static {
         SQL.BaseTable.join(Song.id, SongStats.songId);
@@ -43,6 +77,11 @@ public class MinutesContract {
             Leader.id + " = " + LeaderAlias.leaderId + " AND " +
             LeaderAlias.type + " = 'Alternate Spelling'"
         );
+        SQL.BaseTable.join(Song.id, SongAggregate.id);
+        SQL.BaseTable.join(Singing.id, SingingAggregate.id);
+        SQL.BaseTable.join(Leader.id, LeaderAggregate.id);
+        SQL.BaseTable.join(SongStats.year, SongStatsYear.id);
+        SQL.BaseTable.buildJoinPlans();
         Song.onCreate();
         SongStats.onCreate();
         Leader.onCreate();
@@ -52,15 +91,191 @@ public class MinutesContract {
         Singing.onCreate();
     }
 
+    /**
+     * Creates any missing derived (aggregate and full text search) tables and {@link #INDEXES}.
+     *
+     * <p>Called when the database is opened.  Full installs replace the database file and
+     * delta upgrades drop the tables (see {@link #dropDerivedTables}), so the tables are
+     * rebuilt after each DB_VERSION change.
+     *
+     * @param db writable database
+     */
+    public static void createDerivedTables(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            for (DerivedTable table : DERIVED_TABLES) {
+                long exists = DatabaseUtils.longForQuery(db,
+                        "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?",
+                        new String[] {table.TABLE_NAME});
+                if (exists == 0)
+                    table.create(db);
+            }
+            for (String[] index : INDEXES)
+                db.execSQL(getCreateIndexSql(index));
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Makes the statement that creates an index.
+     *
+     * @param index entry from {@link #INDEXES}
+     * @return CREATE INDEX IF NOT EXISTS statement
+     */
+    static String getCreateIndexSql(String[] index) {
+        String[] columns = Arrays.copyOfRange(index, 1, index.length);
+        return "CREATE INDEX IF NOT EXISTS " + index[0] + "_" + TextUtils.join("_", columns) +
+               " ON " + index[0] + " (" + TextUtils.join(", ", columns) + ")";
+    }
+
+    /**
+     * Drops the derived tables so they are rebuilt from changed source tables.
+     *
+     * @param db writable database
+     */
+    public static void dropDerivedTables(SQLiteDatabase db) {
+        for (DerivedTable table : DERIVED_TABLES)
+            db.execSQL("DROP TABLE IF EXISTS " + table);
+    }
+
     // Use as a base table class to provide a database for SQL.BaseTable
     private static class MinutesBaseTable extends SQL.BaseTable {
         protected MinutesBaseTable(String tableName) {
             super(tableName);
         }
 
+        // Queried under a lease, like other MinutesDb queries
+        @Override
+        protected Cursor runQuery(SQL.Query query, String... args) {
+            return MinutesDb.getInstance().query(query, args);
+        }
+    }
+
+    // Base class for tables that are not in the asset db, but are filled from other tables
+    private static abstract class DerivedTable extends MinutesBaseTable {
+        protected DerivedTable(String tableName) {
+            super(tableName);
+        }
+
+        // Query used to fill the table
+        protected abstract SQL.Query getSourceQuery();
+
+        protected abstract void create(SQLiteDatabase db);
+    }
+
+    // Base class for tables of precomputed aggregates, keyed by id
+    // Calculated columns that would otherwise be per-row subqueries are read from these tables
+    private static abstract class AggregateTable extends DerivedTable {
+        protected AggregateTable(String tableName) {
+            super(tableName);
+        }
+
+        // Aliases in the source query are used as column names
         @Override
-        protected SQLiteDatabase getDb() {
-            return MinutesDb.getInstance().getDb();
+        protected void create(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + this + " AS " + getSourceQuery());
+            db.execSQL("CREATE UNIQUE INDEX " + this + "_id ON " + this + " (id)");
+        }
+    }
+
+    // Base class for FTS4 full text search tables
+    // docid (aliased as the id column) is the id of the source row
+    static abstract class SearchTable extends DerivedTable {
+        private final SQL.Column mSourceId;
+        private final SQL.Column[] mColumns;
+        private final String[] mColumnNames;
+
+        // Source query must select the source id followed by the columns in the same order
+        protected SearchTable(String tableName, SQL.Column sourceId, String... columnNames) {
+            super(tableName);
+            id = column("docid");
+            mSourceId = sourceId;
+            mColumnNames = columnNames;
+            mColumns = new SQL.Column[columnNames.length];
+            for (int i = 0; i < columnNames.length; i++)
+                mColumns[i] = column(columnNames[i]);
+        }
+
+        @Override
+        protected void create(SQLiteDatabase db) {
+            // Unqualified names (Column names include the table)
+            String columns = TextUtils.join(", ", mColumnNames);
+            db.execSQL("CREATE VIRTUAL TABLE " + this + " USING fts4(" + columns + ")");
+            db.execSQL("INSERT INTO " + this + " (docid, " + columns + ") " + getSourceQuery());
+        }
+
+        // The term is searched as a phrase, with the last word as a prefix (search-as-you-type)
+        private String getPhrase(String searchTerm) {
+            String phrase = getPhraseText(searchTerm);
+            return phrase.isEmpty() ? null : "\"" + phrase + "*\"";
+        }
+
+        /**
+         * Gets the words of a search term as they are matched.
+         *
+         * <p>The default tokenizer splits words on ASCII punctuation and spaces.
+         */
+        static String getPhraseText(String searchTerm) {
+            return searchTerm.replaceAll("[\\p{Punct}\\s]+", " ").trim();
+        }
+
+        /**
+         * Gets a column with the indexed text for each source row.
+         *
+         * <p>Columns are separated by {@code char(31)}, which the tokenizer treats as a space.
+         */
+        public SQL.Column textColumn() {
+            List<Object> parts = new ArrayList<>();
+            for (int i = 0; i < mColumns.length; i++) {
+                if (i > 0)
+                    parts.add(" || char(31) || ");
+                parts.addAll(Arrays.asList("IFNULL(", mColumns[i], ", '')"));
+            }
+            SQL.Column text = new SQL.QueryColumn(parts.toArray());
+            return new SQL.QueryColumn("(", SQL.select(text).from(this).where(id, "=", mSourceId), ")");
+        }
+
+        // (SELECT docid FROM table WHERE matchColumn MATCH phrase)
+        private SQL.Column matchIds(Object matchColumn, String phrase) {
+            return new SQL.QueryColumn("(", SQL.select(id).from(this).where(matchColumn, "MATCH", phrase), ")");
+        }
+
+        /**
+         * Filters a query by a full text search of all columns.
+         *
+         * @param query query to filter (must include the source table)
+         * @param searchTerm user search string
+         * @return {@code query}
+         */
+        public SQL.Query whereMatch(SQL.Query query, String searchTerm) {
+            String phrase = getPhrase(searchTerm);
+            if (phrase == null)
+                return query.where("1", "=", 0); // Nothing to search for
+            return query.where(mSourceId, "IN", matchIds(this, phrase));
+        }
+
+        /**
+         * Gets a column that is the value for the first column matching a search.
+         *
+         * <p>e.g. {@code CASE WHEN id IN (...col1 MATCH...) THEN value1 WHEN ... END}
+         *
+         * @param searchTerm user search string
+         * @param values SQL values for each column, in table order
+         * @return CASE column
+         */
+        public SQL.Column matchColumn(String searchTerm, Object... values) {
+            String phrase = getPhrase(searchTerm);
+            if (phrase == null)
+                return mSourceId.format("NULL");
+            List<Object> parts = new ArrayList<>();
+            parts.add("CASE");
+            for (int i = 0; i < values.length; i++)
+                parts.addAll(Arrays.asList(" WHEN ", mSourceId, " IN ", matchIds(mColumns[i], phrase),
+                                           " THEN ", values[i]));
+            parts.add(" END");
+            return new SQL.QueryColumn(parts.toArray());
         }
     }
 
@@ -97,16 +312,9 @@ public class MinutesContract {
         @Override
         protected void onCreate() {
             pageSort = column(number.format("{column} * 1"));
-            leaderCount = subQuery(LeaderStats.leaderId.countDistinct());
-            leadCount = column(SongStats.leadCount.sum());
-            coleadCount = subQuery(
-                "SELECT COUNT(*) FROM (" +
-                    SQL.select("1")
-                       .from(SongLeader)
-                       .group(SongLeader.leadId)
-                       .where(SongLeader.songId, "=", Song.id)
-                       .having(SongLeader.leaderId.count(), ">" , 1) +
-                ")");
+            leaderCount = column(new SQL.Column(SongAggregate, "leader_count"));
+            leadCount = column(new SQL.Column(SongAggregate, "lead_count"));
+            coleadCount = column(new SQL.Column(SongAggregate, "colead_count"));
             fullTitle = concat(title, titleOrdinal.format(
                 "(CASE WHEN {column} <> '' " +
                     "THEN ' (' || {column} || ')' " +
@@ -133,10 +341,7 @@ public class MinutesContract {
         @Override
         protected void onCreate() {
             leadPercent = leadCount.cast("FLOAT").format(
-                "100. * {column} / (%s)",
-                "SELECT SUM(song_stats_total.lead_count) " +
-                "FROM song_stats song_stats_total " +
-                "WHERE song_stats_total.year = song_stats.year");
+                "100. * {column} / %s", SongStatsYear.leadCount);
         }
 
         public SQL.Column songId, year, leadCount, rank, leadPercent;
@@ -159,7 +364,7 @@ public class MinutesContract {
         protected void onCreate() {
             songCount = column(SongLeader.songId.countDistinct());
             singingCount = column(SongLeader.singingId.countDistinct());
-            aka = subQuery(LeaderAlias.alias.func("group_concat", true));
+            aka = column(new SQL.Column(LeaderAggregate, "aka"));
             majorPercent = column(
                 Song.rawKey.format(
                     "CASE " +
@@ -221,8 +426,8 @@ public class MinutesContract {
 
         @Override
         protected void onCreate() {
-            songCount = subQuery(SongLeader.leadId.countDistinct());
-            leaderCount = subQuery(SongLeader.leaderId.countDistinct());
+            songCount = column(new SQL.Column(SingingAggregate, "song_count"));
+            leaderCount = column(new SQL.Column(SingingAggregate, "leader_count"));
         }
 
         public SQL.Column name, startDate, location, fullText, year, recordingCount, songCount, leaderCount, isDenson;
@@ -269,6 +474,113 @@ public class MinutesContract {
 
         public SQL.Column fromId, toId, rank;
     }
+
+    /* Song aggregates */
+    public static final class SongAggregateDAO extends AggregateTable {
+        protected SongAggregateDAO() {
+            super("song_aggregates");
+        }
+
+        @Override
+        protected SQL.Query getSourceQuery() {
+            return SQL.select(Song.id).as("id")
+                .select(Song.makeSubQuery(LeaderStats.leaderId.countDistinct())).as("leader_count")
+                .select(Song.makeSubQuery(SongStats.leadCount.sum())).as("lead_count")
+                .select(SQL.Column.SubQuery(Song,
+                    "SELECT COUNT(*) FROM (" +
+                        SQL.select("1")
+                           .from(SongLeader)
+                           .group(SongLeader.leadId)
+                           .where(SongLeader.songId, "=", Song.id)
+                           .having(SongLeader.leaderId.count(), ">" , 1) +
+                    ")")).as("colead_count")
+                .from(Song);
+        }
+    }
+
+    /* Singing aggregates */
+    public static final class SingingAggregateDAO extends AggregateTable {
+        protected SingingAggregateDAO() {
+            super("singing_aggregates");
+        }
+
+        @Override
+        protected SQL.Query getSourceQuery() {
+            return SQL.select(Singing.id).as("id")
+                .select(Singing.makeSubQuery(SongLeader.leadId.countDistinct())).as("song_count")
+                .select(Singing.makeSubQuery(SongLeader.leaderId.countDistinct())).as("leader_count")
+                .from(Singing);
+        }
+    }
+
+    /* Leader aggregates */
+    public static final class LeaderAggregateDAO extends AggregateTable {
+        protected LeaderAggregateDAO() {
+            super("leader_aggregates");
+        }
+
+        @Override
+        protected SQL.Query getSourceQuery() {
+            return SQL.select(Leader.id).as("id")
+                .select(Leader.makeSubQuery(LeaderAlias.alias.func("group_concat", true))).as("aka")
+                .from(Leader);
+        }
+    }
+
+    /* Total leads per year (id is the year) */
+    public static final class SongStatsYearDAO extends AggregateTable {
+        protected SongStatsYearDAO() {
+            super("song_stats_years");
+            leadCount = column("lead_count");
+        }
+
+        @Override
+        protected SQL.Query getSourceQuery() {
+            return SQL.select(SongStats.year).as("id")
+                .select(SongStats.leadCount.sum()).as("lead_count")
+                .group(SongStats.year);
+        }
+
+        public SQL.Column leadCount;
+    }
+
+    /* Full text search index for songs (docid is the song id) */
+    public static final class SongSearchDAO extends SearchTable {
+        protected SongSearchDAO() {
+            super("song_search", Song.id, "name", "composer", "poet", "lyrics");
+        }
+
+        @Override
+        protected SQL.Query getSourceQuery() {
+            return SQL.select(Song.id, Song.fullName, Song.composer, Song.poet, Song.lyrics)
+                      .from(Song);
+        }
+    }
+
+    /* Full text search index for leader names and alternate spellings */
+    public static final class LeaderSearchDAO extends SearchTable {
+        protected LeaderSearchDAO() {
+            super("leader_search", Leader.id, "name", "aliases");
+        }
+
+        @Override
+        protected SQL.Query getSourceQuery() {
+            return SQL.select(Leader.id, Leader.fullName, Leader.aka).from(Leader);
+        }
+    }
+
+    /* Full text search index for singing names, locations and minutes text */
+    public static final class SingingSearchDAO extends SearchTable {
+        protected SingingSearchDAO() {
+            super("singing_search", Singing.id, "name", "location", "minutes");
+        }
+
+        @Override
+        protected SQL.Query getSourceQuery() {
+            return SQL.select(Singing.id, Singing.name, Singing.location, Singing.fullText)
+                      .from(Singing);
+        }
+    }
 }
 
 
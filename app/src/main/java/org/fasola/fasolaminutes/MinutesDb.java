@@ -7,80 +7,283 @@ package org.fasola.fasolaminutes;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DataSetObserver;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.support.v4.os.CancellationSignal;
+import android.util.Log;
 
 import com.readystatesoftware.sqliteasset.SQLiteAssetHelper;
 
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 /**
  * The database class
+ *
+ * <p>The database is opened with write-ahead logging so that SQLite keeps a pool of
+ * connections, and queries on different threads (e.g. a leader's stats, songs and singings
+ * loaders) read in parallel instead of taking turns on one connection.
  */
 public class MinutesDb {
+    private static final String TAG = "MinutesDb";
+
     // Singleton
-    private static MinutesDb instance = null;
+    private static final MinutesDb instance = new MinutesDb();
 
     private MinutesDb() {
     }
 
     public static MinutesDb getInstance() {
-        if (instance == null)
-            instance = new MinutesDb();
         return instance;
     }
 
     public static MinutesDb getInstance(Context context) {
-        getInstance();
         instance.open(context);
         return instance;
     }
 
     // Raw database operations
-    private SQLiteDatabase db = null;
+    // db is only changed while holding this object's lock; volatile so getDb() can skip the
+    // lock once the database is open.
+    private volatile SQLiteDatabase db = null;
     private MinutesDbHelper mHelper = null; // See below
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private Future<SQLiteDatabase> mOpening;
+    // Leases keep the database open; close() waits for the last one to be released
+    private int mLeaseCount = 0;
+    private boolean mIsClosePending = false;
 
-    public SQLiteDatabase open(Context context) {
+    // SQLite keeps an LRU cache of compiled statements keyed by SQL text.  Since queries are
+    // parameterized (see SQL.Query.toStatement), this is big enough to hold every query
+    // the app makes.
+    private static final int SQL_CACHE_SIZE = 100; // SQLiteDatabase.MAX_SQL_CACHE_SIZE
+    // Compiled statements for the single-value query shortcuts
+    private static final int STATEMENT_CACHE_SIZE = 20;
+    private final StatementCache mStatements = new StatementCache();
+
+    public synchronized SQLiteDatabase open(Context context) {
+        mIsClosePending = false;
         if (db == null) {
+            // Stream the compressed asset into place when the database is missing, or apply
+            // deltas when it is old (otherwise the helper would copy the whole thing)
+            try {
+                MinutesDbInstaller.installIfNeeded(context);
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to install " + C.DB_NAME, e);
+            }
             if (mHelper == null)
                 mHelper = new MinutesDbHelper(context);
-            db = mHelper.getReadableDatabase();
+            SQLiteDatabase newDb = mHelper.getReadableDatabase();
+            // WAL lets SQLiteDatabase lease each thread its own connection for reads (only
+            // possible if the helper managed to open the db read/write)
+            if (! newDb.isReadOnly())
+                newDb.enableWriteAheadLogging();
+            newDb.setMaxSqlCacheSize(SQL_CACHE_SIZE);
+            db = newDb;
         }
         return db;
     }
 
+    /**
+     * Opens the database on a background thread (installing it first if needed; see
+     * {@link MinutesDbInstaller}).
+     *
+     * <p>Queries made before it is ready wait for it to open.
+     *
+     * @return the open database once it is ready
+     */
+    public synchronized Future<SQLiteDatabase> openAsync(Context context) {
+        mIsClosePending = false;
+        if (mOpening == null || (db == null && mOpening.isDone())) {
+            final Context appContext = context.getApplicationContext();
+            mOpening = mExecutor.submit(new Callable<SQLiteDatabase>() {
+                @Override
+                public SQLiteDatabase call() {
+                    return open(appContext);
+                }
+            });
+        }
+        return mOpening;
+    }
+
+    /** Returns the database, waiting if it is being opened (null if it isn't open). */
     public SQLiteDatabase getDb() {
-        return db;
+        SQLiteDatabase result = db;
+        if (result != null)
+            return result;
+        Future<SQLiteDatabase> opening;
+        synchronized (this) {
+            if (db != null || mOpening == null)
+                return db;
+            opening = mOpening;
+        }
+        try {
+            return opening.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            throw new SQLiteException("Unable to open " + C.DB_NAME, e.getCause());
+        }
+    }
+
+    /**
+     * Keeps the database open while in use.
+     *
+     * <p>{@link #close()} only closes the database once every lease is released.
+     */
+    public class Lease {
+        private final SQLiteDatabase mDb;
+        private boolean mIsReleased = false;
+
+        private Lease(SQLiteDatabase leasedDb) {
+            mDb = leasedDb;
+        }
+
+        public SQLiteDatabase getDb() {
+            return mDb;
+        }
+
+        /** Releases the lease (more than once is harmless). */
+        public void release() {
+            synchronized (MinutesDb.this) {
+                if (mIsReleased)
+                    return;
+                mIsReleased = true;
+                if (--mLeaseCount == 0 && mIsClosePending)
+                    closeNow();
+            }
+        }
+    }
+
+    /**
+     * Leases the open database (waiting if it is being opened).
+     *
+     * @return lease; release it when done
+     * @throws IllegalStateException if the database isn't open
+     */
+    public Lease acquire() {
+        SQLiteDatabase leasedDb = getDb();
+        synchronized (this) {
+            // Closed while waiting?
+            if (leasedDb == null || leasedDb != db || mIsClosePending)
+                throw new IllegalStateException("Database is not open");
+            mLeaseCount++;
+            return new Lease(leasedDb);
+        }
+    }
+
+    // Releases a lease when its cursor is closed
+    private static void releaseOnClose(Cursor cursor, final Lease lease) {
+        cursor.registerDataSetObserver(new DataSetObserver() {
+            @Override
+            public void onInvalidated() {
+                lease.release();
+            }
+        });
+    }
+
+    /** Closes the database, now or once all leases (e.g. open cursors) are released. */
+    public synchronized void close() {
+        if (mLeaseCount > 0)
+            mIsClosePending = true;
+        else
+            closeNow();
     }
 
     // Don't just use db.close(), close through the helper class.
-    public void close() {
+    private synchronized void closeNow() {
+        mIsClosePending = false;
         if (db != null) {
+            mStatements.clear();
             mHelper.close();
             db = null;
         }
     }
 
     // Queries
+    // SQL.Query objects are parameterized so that SQLite sees the same SQL text for
+    // queries that only differ by value.
     public Cursor query(Object sql, String... args) {
-        return db.rawQuery(sql.toString(), args);
+        return query(sql, args, null);
+    }
+
+    // The query can be interrupted (API 16+) by canceling signal
+    // The database stays open until the cursor is closed
+    public Cursor query(Object sql, String[] args, CancellationSignal signal) {
+        SQL.Statement statement = toStatement(sql, args);
+        String sqlString = statement.sql;
+        args = statement.args;
+        // Debug builds record timing and query plans (see SQLiteDebugActivity)
+        SQLiteDatabase.CursorFactory factory = QueryMetrics.ENABLED ?
+                QueryMetrics.getInstance().newCursorFactory(sqlString, args) : null;
+        Lease lease = acquire();
+        try {
+            Cursor cursor;
+            if (signal != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+                cursor = lease.getDb().rawQueryWithFactory(factory, sqlString, args, null,
+                        (android.os.CancellationSignal) signal.getCancellationSignalObject());
+            else
+                cursor = lease.getDb().rawQueryWithFactory(factory, sqlString, args, null);
+            releaseOnClose(cursor, lease);
+            return cursor;
+        } catch (RuntimeException e) {
+            lease.release();
+            throw e;
+        }
+    }
+
+    private static SQL.Statement toStatement(Object sql, String[] args) {
+        if (sql instanceof SQL.Query)
+            return ((SQL.Query) sql).toStatement(args);
+        return new SQL.Statement(sql.toString(), args);
     }
 
     // Query shortcuts
+    // Each thread leases its own compiled statement, so these don't block each other
     public static final long NOT_FOUND = -1;
-    public long queryLong(String sql, String... args) {
-        Cursor cursor = query(sql, args);
-        long result = NOT_FOUND;
-        if (cursor.moveToFirst())
-            result = cursor.getLong(0);
-        cursor.close();
-        return result;
+    public long queryLong(Object sql, String... args) {
+        SQL.Statement parameterized = toStatement(sql, args);
+        Lease lease = acquire();
+        try {
+            SQLiteStatement statement = mStatements.acquire(lease, parameterized);
+            try {
+                return statement.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                return NOT_FOUND;
+            } finally {
+                mStatements.release(parameterized.sql, statement);
+            }
+        } finally {
+            lease.release();
+        }
     }
 
-    public String queryString(String sql, String... args) {
-        Cursor cursor = query(sql, args);
-        String result = null;
-        if (cursor.moveToFirst())
-            result = cursor.getString(0);
-        cursor.close();
-        return result;
+    public String queryString(Object sql, String... args) {
+        SQL.Statement parameterized = toStatement(sql, args);
+        Lease lease = acquire();
+        try {
+            SQLiteStatement statement = mStatements.acquire(lease, parameterized);
+            try {
+                return statement.simpleQueryForString();
+            } catch (SQLiteDoneException e) {
+                return null;
+            } finally {
+                mStatements.release(parameterized.sql, statement);
+            }
+        } finally {
+            lease.release();
+        }
     }
 
     public String[] queryStringArray(String sql, String... args) {
@@ -92,6 +295,54 @@ public class MinutesDb {
         return result;
     }
 
+    // LRU cache of idle compiled statements keyed by SQL text
+    // A statement is removed while a thread is using it (its bindings can't be shared), and
+    // another thread running the same SQL meanwhile compiles its own copy.
+    // ------------------------------------------------------------------------------------------
+    private class StatementCache extends LinkedHashMap<String, SQLiteStatement> {
+        StatementCache() {
+            super(STATEMENT_CACHE_SIZE, 0.75f, true); // access order
+        }
+
+        // Returns a compiled statement with args bound; release it when done
+        SQLiteStatement acquire(Lease lease, SQL.Statement parameterized) {
+            SQLiteStatement statement;
+            synchronized (this) {
+                statement = remove(parameterized.sql);
+            }
+            if (statement == null)
+                statement = lease.getDb().compileStatement(parameterized.sql);
+            statement.clearBindings();
+            if (parameterized.args != null)
+                statement.bindAllArgsAsStrings(parameterized.args);
+            return statement;
+        }
+
+        // Returns a statement to the cache (or closes it if the cache already has a copy)
+        synchronized void release(String text, SQLiteStatement statement) {
+            statement.clearBindings();
+            if (db == null || containsKey(text))
+                statement.close();
+            else
+                put(text, statement);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+            if (size() <= STATEMENT_CACHE_SIZE)
+                return false;
+            eldest.getValue().close();
+            return true;
+        }
+
+        @Override
+        public synchronized void clear() {
+            for (SQLiteStatement statement : values())
+                statement.close();
+            super.clear();
+        }
+    }
+
     // The OpenHelper class
     // ------------------------------------------------------------------------------------------
     private static class MinutesDbHelper extends SQLiteAssetHelper {
@@ -99,5 +350,14 @@ public class MinutesDb {
             super(context.getApplicationContext(), C.DB_NAME, null, C.DB_VERSION);
             setForcedUpgrade();
         }
+
+        // Derived tables aren't in the asset db, so create them after the first copy
+        // and after each forced upgrade
+        @Override
+        public void onOpen(SQLiteDatabase db) {
+            super.onOpen(db);
+            if (! db.isReadOnly())
+                MinutesContract.createDerivedTables(db);
+        }
     }
 }
\ No newline at end of file
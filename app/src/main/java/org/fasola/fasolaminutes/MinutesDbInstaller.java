@@ -0,0 +1,357 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package org.fasola.fasolaminutes;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Installs the minutes database from its gzipped asset, or upgrades it with deltas.
+ *
+ * <p>The asset is decompressed as it is read, straight into a temporary file next to the
+ * database, which is checked and then renamed over the old database.  A failed or interrupted
+ * install leaves the old database (or no database) in place and is retried on the next open.
+ *
+ * <p>An older database is upgraded in place if there is a delta asset for each version
+ * between it and {@link C#DB_VERSION} (made by minutes_delta.py).  A delta has a header line,
+ * then one SQL statement per line with the row-level changes to the asset tables.  All deltas
+ * are applied in one transaction, and the derived tables are dropped so they are rebuilt when
+ * the database is opened.  If a delta is missing or fails, the whole database is installed.
+ *
+ * <p>This runs on MinutesDb's open thread (see {@link MinutesDb#openAsync}); listeners are
+ * told about progress on the main thread.
+ */
+class MinutesDbInstaller {
+    private static final String TAG = "MinutesDbInstaller";
+    /** Gzipped database asset (see compressDatabase in build.gradle). */
+    public static final String ASSET = "databases/" + C.DB_NAME + ".gz";
+    private static final String DELTA_DIR = "databases";
+    private static final String DELTA_HEADER = "-- " + C.DB_NAME + " delta ";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** Progress when not installing. */
+    public static final int NOT_INSTALLING = -1;
+
+    /** Follows install progress. */
+    public interface ProgressListener {
+        /**
+         * Called on the main thread as the database is installed.
+         *
+         * @param percent percent installed, or {@link #NOT_INSTALLING} once finished
+         */
+        void onInstallProgress(int percent);
+    }
+
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+    private static final List<ProgressListener> sListeners = new ArrayList<>();
+    private static int sProgress = NOT_INSTALLING;
+
+    /**
+     * Adds a progress listener.
+     *
+     * @return current progress, or {@link #NOT_INSTALLING}
+     */
+    public static synchronized int addListener(ProgressListener listener) {
+        sListeners.add(listener);
+        return sProgress;
+    }
+
+    public static synchronized void removeListener(ProgressListener listener) {
+        sListeners.remove(listener);
+    }
+
+    private static synchronized void setProgress(final int percent) {
+        if (percent == sProgress)
+            return;
+        sProgress = percent;
+        sHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                List<ProgressListener> listeners;
+                synchronized (MinutesDbInstaller.class) {
+                    listeners = new ArrayList<>(sListeners);
+                }
+                for (ProgressListener listener : listeners)
+                    listener.onInstallProgress(percent);
+            }
+        });
+    }
+
+    /** Name of the delta asset that upgrades the database from one version to the next. */
+    public static String getDeltaName(int fromVersion) {
+        return C.DB_NAME + "_delta_" + fromVersion + "-" + (fromVersion + 1) + ".sql.gz";
+    }
+
+    /**
+     * Installs or upgrades the database if it is missing or from another {@link C#DB_VERSION}.
+     *
+     * @return true if the database was installed or upgraded
+     * @throws IOException if the asset can't be read or the database can't be written
+     */
+    public static boolean installIfNeeded(Context context) throws IOException {
+        File dbFile = context.getDatabasePath(C.DB_NAME);
+        int version = getVersion(dbFile);
+        if (version == C.DB_VERSION)
+            return false;
+        long start = System.currentTimeMillis();
+        setProgress(0);
+        try {
+            if (version > 0 && version < C.DB_VERSION && upgrade(context, dbFile, version)) {
+                Log.i(TAG, "Upgraded " + C.DB_NAME + " from version " + version + " to " +
+                        C.DB_VERSION + " in " + (System.currentTimeMillis() - start) + " ms");
+                return true;
+            }
+            install(context, dbFile);
+        } finally {
+            setProgress(NOT_INSTALLING);
+        }
+        Log.i(TAG, "Installed " + C.DB_NAME + " version " + C.DB_VERSION + " in " +
+                (System.currentTimeMillis() - start) + " ms");
+        return true;
+    }
+
+    // user_version of the installed database (0 if missing or unreadable)
+    private static int getVersion(File dbFile) {
+        if (! dbFile.exists())
+            return 0;
+        try {
+            SQLiteDatabase db = SQLiteDatabase.openDatabase(
+                    dbFile.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+            try {
+                return db.getVersion();
+            } finally {
+                db.close();
+            }
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Unable to read installed database", e);
+            return 0;
+        }
+    }
+
+    private static void install(Context context, File dbFile) throws IOException {
+        File dir = dbFile.getParentFile();
+        if (! dir.exists() && ! dir.mkdirs())
+            throw new IOException("Unable to create " + dir);
+        File tempFile = new File(dir, C.DB_NAME + ".install");
+        try {
+            copyAsset(context, tempFile);
+            verify(tempFile);
+            // Replace the old database (and any WAL left from it)
+            for (String suffix : new String[] {"", "-journal", "-wal", "-shm"}) {
+                File file = new File(dbFile.getPath() + suffix);
+                if (file.exists() && ! file.delete())
+                    throw new IOException("Unable to delete " + file);
+            }
+            if (! tempFile.renameTo(dbFile))
+                throw new IOException("Unable to rename " + tempFile + " to " + dbFile);
+        } finally {
+            if (tempFile.exists())
+                tempFile.delete();
+            new File(tempFile.getPath() + "-journal").delete();
+        }
+    }
+
+    // region Delta upgrades
+    //---------------------------------------------------------------------------------------------
+    // Applies a delta for each version, or returns false if one is missing or fails
+    private static boolean upgrade(Context context, File dbFile, int version) {
+        List<String> deltas = new ArrayList<>();
+        long length = 0;
+        try {
+            List<String> assets = Arrays.asList(context.getAssets().list(DELTA_DIR));
+            for (int v = version; v < C.DB_VERSION; v++) {
+                String name = getDeltaName(v);
+                if (! assets.contains(name)) {
+                    Log.i(TAG, "No delta from version " + v + "; installing " + C.DB_NAME);
+                    return false;
+                }
+                deltas.add(DELTA_DIR + "/" + name);
+                length += getAssetLength(context, DELTA_DIR + "/" + name);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read delta assets", e);
+            return false;
+        }
+        try {
+            SQLiteDatabase db = SQLiteDatabase.openDatabase(
+                    dbFile.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+            try {
+                db.beginTransaction();
+                try {
+                    long offset = 0;
+                    for (int i = 0; i < deltas.size(); i++)
+                        offset += applyDelta(context, db, deltas.get(i), version + i, offset, length);
+                    MinutesContract.dropDerivedTables(db);
+                    db.setVersion(C.DB_VERSION);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            } finally {
+                db.close();
+            }
+            return true;
+        } catch (IOException | SQLiteException e) {
+            // Nothing was committed
+            Log.e(TAG, "Unable to upgrade " + C.DB_NAME + " from version " + version, e);
+            return false;
+        }
+    }
+
+    /**
+     * Runs a delta's statements.
+     *
+     * @param offset compressed bytes of the deltas before this one (for progress)
+     * @param length compressed bytes of all deltas
+     * @return compressed size of this delta
+     */
+    private static long applyDelta(Context context, SQLiteDatabase db, String asset,
+                                   int fromVersion, long offset, long length) throws IOException {
+        InputStream stream = context.getAssets().open(asset);
+        try {
+            ProgressInputStream progress = new ProgressInputStream(stream, offset, length);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(progress, BUFFER_SIZE), "UTF-8"));
+            String header = reader.readLine();
+            String expected = DELTA_HEADER + fromVersion + " " + (fromVersion + 1);
+            if (! expected.equals(header))
+                throw new IOException("Bad delta header in " + asset + ": " + header);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (! line.isEmpty() && ! line.startsWith("--"))
+                    db.execSQL(line);
+            }
+            return progress.getRead();
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static long getAssetLength(Context context, String asset) throws IOException {
+        InputStream stream = context.getAssets().open(asset);
+        try {
+            return stream.available();
+        } finally {
+            stream.close();
+        }
+    }
+    //---------------------------------------------------------------------------------------------
+    // endregion Delta upgrades
+
+    // Decompresses the asset as it is read
+    private static void copyAsset(Context context, File file) throws IOException {
+        InputStream asset;
+        try {
+            asset = context.getAssets().open(ASSET);
+        } catch (FileNotFoundException e) {
+            throw new IOException("Missing asset " + ASSET, e);
+        }
+        try {
+            // available() is the asset's whole size, which is what progress is measured against
+            ProgressInputStream progress = new ProgressInputStream(asset, 0, asset.available());
+            // GZIPInputStream checks the CRC and length in the gzip trailer at the end
+            InputStream in = new GZIPInputStream(progress, BUFFER_SIZE);
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                copy(in, out);
+                out.flush();
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+        } finally {
+            asset.close();
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int length;
+        while ((length = in.read(buffer)) != -1)
+            out.write(buffer, 0, length);
+    }
+
+    // Checks the new database's structure and stamps it with DB_VERSION
+    private static void verify(File file) throws IOException {
+        try {
+            SQLiteDatabase db = SQLiteDatabase.openDatabase(
+                    file.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+            try {
+                Cursor cursor = db.rawQuery("PRAGMA quick_check", null);
+                try {
+                    String result = cursor.moveToFirst() ? cursor.getString(0) : null;
+                    if (! "ok".equals(result))
+                        throw new IOException("Database check failed: " + result);
+                } finally {
+                    cursor.close();
+                }
+                db.setVersion(C.DB_VERSION);
+            } finally {
+                db.close();
+            }
+        } catch (SQLiteException e) {
+            throw new IOException("Unable to open installed database", e);
+        }
+    }
+
+    // Reports progress as a compressed asset is read
+    private static class ProgressInputStream extends FilterInputStream {
+        // Bytes read from earlier assets, and all assets' length
+        private final long mOffset;
+        private final long mLength;
+        private long mRead;
+
+        ProgressInputStream(InputStream in, long offset, long length) {
+            super(in);
+            mOffset = offset;
+            mLength = length;
+        }
+
+        long getRead() {
+            return mRead;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1)
+                onRead(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int length = super.read(buffer, offset, count);
+            if (length > 0)
+                onRead(length);
+            return length;
+        }
+
+        private void onRead(int length) {
+            mRead += length;
+            if (mLength > 0)
+                setProgress((int) Math.min(99, (mOffset + mRead) * 100 / mLength));
+        }
+    }
+}
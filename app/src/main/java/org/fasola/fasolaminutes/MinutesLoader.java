@@ -10,9 +10,8 @@ import android.os.Bundle;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
-import android.util.Log;
-
-import static java.lang.System.nanoTime;
+import android.support.v4.os.CancellationSignal;
+import android.text.TextUtils;
 
 /**
  * A helper class that handles LoaderManager callbacks for a CursorLoader
@@ -29,11 +28,26 @@ interface _MinutesLoaderCallbacksInterface {
 public class MinutesLoader implements LoaderManager.LoaderCallbacks<Cursor>,
                                       Loader.OnLoadCompleteListener<Cursor>,
                                       _MinutesLoaderCallbacksInterface {
-    private static final boolean DEBUG_QUERIES = true && BuildConfig.DEBUG;
+    // Query priorities (lower numbers run first)
+    public static final int PRIORITY_LIST = 0;
+    public static final int PRIORITY_HEADER = 1;
+    public static final int PRIORITY_CHART = 2;
+    public static final int PRIORITY_PREFETCH = 3;
 
     public interface Callbacks extends _MinutesLoaderCallbacksInterface {
     }
 
+    /** Optional callbacks for extra work with a loaded cursor on the loader thread. */
+    public interface BackgroundCallbacks {
+        /**
+         * Called on the loader thread after the query has run.
+         *
+         * @param cursor loaded cursor
+         * @return cursor to deliver to onLoadFinished (e.g. a wrapper with extra data)
+         */
+        Cursor onLoadInBackground(Cursor cursor);
+    }
+
     // Simplified callbacks
     public static abstract class FinishedCallback implements _MinutesLoaderCallbacksInterface {
         @Override
@@ -44,6 +58,8 @@ public class MinutesLoader implements LoaderManager.LoaderCallbacks<Cursor>,
 
     SQL.Query mQuery;
     String[] mQueryArgs;
+    int mPriority = PRIORITY_LIST;
+    String mPageKey;
     _MinutesLoaderCallbacksInterface mCallbacks;
 
     public MinutesLoader(_MinutesLoaderCallbacksInterface callbacks) {
@@ -75,8 +91,10 @@ public class MinutesLoader implements LoaderManager.LoaderCallbacks<Cursor>,
         return new MinutesCursorLoader(this);
     }
 
+    // Runs queries on QueryExecutor instead of the AsyncTaskLoader's executor
     private static class MinutesCursorLoader extends CursorLoader {
         MinutesLoader mLoader;
+        QueryExecutor.Request mRequest;
 
         MinutesCursorLoader(MinutesLoader loader) {
             super(MinutesApplication.getContext());
@@ -88,30 +106,65 @@ public class MinutesLoader implements LoaderManager.LoaderCallbacks<Cursor>,
         public Cursor loadInBackground() {
             if (SQLiteDebugActivity.isDebug())
                 return null;
-            Thread.currentThread().setName("MinutesLoader: " + mLoader.getQuery().toString());
-            Cursor cursor = mLoader.onLoadInBackground(MinutesDb.getInstance());
-            // The query isn't executed until data is accessed in some way.
-            // Since the whole point of using a cursor loader is to do the heavy lifting in
-            // the background, we force the query to execute here.
-            if (! DEBUG_QUERIES)
-                cursor.getCount();
-            else {
-                long start = nanoTime();
-                Log.v("SQL", mLoader.getQuery().toString());
-                Log.v("SQL", "Query length: " + mLoader.getQuery().toString().length());
-                cursor.getCount();
-                Log.v("SQL", "query time (secs): " + (nanoTime() - start)/1000000000.);
+            QueryExecutor.Request request = QueryExecutor.getInstance().execute(
+                    mLoader.getQueryKey(), mLoader.getPriority(), new QueryExecutor.Job() {
+                        @Override
+                        public Cursor run(CancellationSignal signal) {
+                            return mLoader.runQuery(signal);
+                        }
+                    });
+            synchronized (this) {
+                mRequest = request;
+                if (isLoadInBackgroundCanceled())
+                    request.cancel();
+            }
+            try {
+                return mLoader.onCursorLoaded(request.get());
+            } finally {
+                synchronized (this) {
+                    mRequest = null;
+                }
             }
-            return cursor;
         }
+
+        @Override
+        public void cancelLoadInBackground() {
+            super.cancelLoadInBackground();
+            synchronized (this) {
+                if (mRequest != null)
+                    mRequest.cancel();
+            }
+        }
+    }
+
+    // Called on a QueryExecutor thread
+    private Cursor runQuery(CancellationSignal signal) {
+        Thread.currentThread().setName("MinutesLoader: " + getQuery().toString());
+        Cursor cursor = onLoadInBackground(MinutesDb.getInstance(), signal);
+        // The query isn't executed until data is accessed in some way.
+        // Since the whole point of using a cursor loader is to do the heavy lifting in
+        // the background, we force the query to execute here.
+        // (In debug builds this is timed by QueryMetrics.)
+        cursor.getCount();
+        return cursor;
+    }
+
+    // Called on the loader thread with this request's cursor
+    private Cursor onCursorLoaded(Cursor cursor) {
+        if (cursor != null && mCallbacks instanceof BackgroundCallbacks)
+            return ((BackgroundCallbacks) mCallbacks).onLoadInBackground(cursor);
+        return cursor;
     }
 
     /**
      * Override to provide custom loading behavior
+     * @param signal cancels the query when the load is canceled
      * @return Cursor
      */
-    protected Cursor onLoadInBackground(MinutesDb db) {
-        return db.query(mQuery != null ? mQuery : "", mQueryArgs);
+    protected Cursor onLoadInBackground(MinutesDb db, CancellationSignal signal) {
+        if (isPaged())
+            return new PagedCursor(db, mQuery, mQueryArgs, mPageKey, signal);
+        return db.query(mQuery != null ? mQuery : "", mQueryArgs, signal);
     }
 
     // Either override these using an anonymous subclass of MinutesLoader, or pass an
@@ -126,6 +179,10 @@ public class MinutesLoader implements LoaderManager.LoaderCallbacks<Cursor>,
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+        if (mHasPendingId && loader.getId() == mPendingId)
+            mHasPendingId = false;
+        if (isStale(loader))
+            return;
         // Reset cursor position to before the first row in case this is an automatic call
         // from initLoader (i.e. we are using an existing cursor)
         if (SQLiteDebugActivity.isDebug())
@@ -136,7 +193,62 @@ public class MinutesLoader implements LoaderManager.LoaderCallbacks<Cursor>,
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
-        mCallbacks.onLoaderReset();
+        if (! isStale(loader))
+            mCallbacks.onLoaderReset();
+    }
+
+    // Id of a loader started by initLoader() that hasn't delivered a cursor
+    private int mPendingId;
+    private boolean mHasPendingId = false;
+    // Id of the loader whose results are delivered (loaders for older queries are stale)
+    private int mCurrentId;
+    private boolean mHasCurrentId = false;
+
+    // Results from a LoaderManager loader for an older query
+    private boolean isStale(Loader<Cursor> loader) {
+        return mHasCurrentId && loader.getId() != mCurrentId;
+    }
+
+    private void setCurrentId(int id) {
+        mCurrentId = id;
+        mHasCurrentId = true;
+    }
+
+    /**
+     * Starts (or reuses) the loader for the current query.
+     *
+     * <p>A pending load for a previous query is destroyed, which cancels its query.
+     * e.g. while typing a search term, only the latest query is executed.
+     *
+     * @param manager LoaderManager of the Activity or Fragment
+     */
+    public void initLoader(LoaderManager manager) {
+        int id = getLoaderId();
+        if (mHasPendingId && mPendingId != id)
+            manager.destroyLoader(mPendingId);
+        // initLoader can call onLoadFinished immediately, so set this first
+        mPendingId = id;
+        mHasPendingId = true;
+        setCurrentId(id);
+        manager.initLoader(id, null, this);
+    }
+
+    /**
+     * Loads the current query with a fixed loader id, replacing the previous query's loader.
+     *
+     * <p>Unlike {@link #initLoader}, results aren't kept for each query, so this suits queries
+     * that change often (e.g. search-as-you-type).  A load in progress is canceled and its
+     * results are dropped.
+     *
+     * @param manager LoaderManager of the Activity or Fragment
+     * @param id loader id
+     */
+    public void restartLoader(LoaderManager manager, int id) {
+        if (mHasPendingId && mPendingId != id)
+            manager.destroyLoader(mPendingId);
+        mHasPendingId = false;
+        setCurrentId(id);
+        manager.restartLoader(id, null, this);
     }
 
     // For loading without LoaderManager (e.g. in a Service)
@@ -146,13 +258,27 @@ public class MinutesLoader implements LoaderManager.LoaderCallbacks<Cursor>,
         startLoading(this);
     }
 
+    /**
+     * Loads the query once, without a LoaderManager.
+     *
+     * <p>The cursor is closed (releasing its database lease) as soon as
+     * {@code callback.onLoadFinished} returns, so callbacks must copy out what they need and
+     * not keep the cursor.
+     *
+     * @param callback called on the main thread with the results
+     */
     public void startLoading(final _MinutesLoaderCallbacksInterface callback) {
         release();
         mLoader = (CursorLoader)onCreateLoader(1, null);
         mLoader.registerListener(1, new Loader.OnLoadCompleteListener<Cursor>() {
             @Override
             public void onLoadComplete(Loader<Cursor> loader, Cursor data) {
-                callback.onLoadFinished(data);
+                try {
+                    callback.onLoadFinished(data);
+                } finally {
+                    if (data != null)
+                        data.close();
+                }
                 // Assume this is a single-shot loader if it's called without a LoaderManager
                 mLoader.unregisterListener(this);
                 release();
@@ -180,8 +306,9 @@ public class MinutesLoader implements LoaderManager.LoaderCallbacks<Cursor>,
         return mQuery;
     }
 
+    // Queries are frozen so the SQL is only rendered once (loader id, logging, and the query)
     public void setQuery(SQL.Query query) {
-        mQuery = query;
+        mQuery = query != null ? query.freeze() : null;
     }
 
     public void setQuery(SQL.Query query, String... queryArgs) {
@@ -193,6 +320,54 @@ public class MinutesLoader implements LoaderManager.LoaderCallbacks<Cursor>,
         return mQuery != null;
     }
 
+    /** Returns a LoaderManager id derived from the query's fingerprint */
+    public int getLoaderId() {
+        long fingerprint = mQuery.fingerprint();
+        return (int)(fingerprint ^ (fingerprint >>> 32));
+    }
+
+    public int getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * Sets the priority of this loader's queries relative to other loaders.
+     *
+     * @param priority one of the PRIORITY constants
+     * @return this (for chaining)
+     */
+    public MinutesLoader setPriority(int priority) {
+        mPriority = priority;
+        return this;
+    }
+
+    /**
+     * Loads the query a page at a time with a {@link PagedCursor}.
+     *
+     * <p>Queries that can't be paged (see {@link SQL.Query#canPage()}) are loaded normally.
+     *
+     * @param keyColumn unique column that orders rows with the same ORDER BY values
+     *                  (null to load all rows)
+     * @return this (for chaining)
+     */
+    public MinutesLoader setPaging(String keyColumn) {
+        mPageKey = keyColumn;
+        return this;
+    }
+
+    private boolean isPaged() {
+        return mPageKey != null && mQuery != null && mQuery.canPage();
+    }
+
+    // Identical queries with identical args can share results
+    private String getQueryKey() {
+        // Shared results are copied into memory, which paging avoids
+        if (mQuery == null || isPaged())
+            return null;
+        String key = Long.toHexString(mQuery.fingerprint());
+        return mQueryArgs == null ? key : key + ":" + TextUtils.join("\u0000", mQueryArgs);
+    }
+
     public String[] getQueryArgs() {
         return mQueryArgs;
     }
@@ -157,14 +157,9 @@ public class NowPlayingActivity extends SimpleTabActivity {
             mLeadId = leadId;
             getArguments().putLong(EXTRA_ID, leadId);
             // List query
-            setQuery(SQL.select(C.Leader.id, C.Leader.fullName)
-                    .where(C.SongLeader.leadId, "=", leadId));
+            setQuery(DetailQueries.leadLeaders(leadId));
             // Song/Singing query
-            SQL.Query query =
-                    SQL.select(C.Song.id, C.Song.fullName)
-                    .select(C.Singing.id, C.Singing.name, C.Singing.location, C.Singing.startDate)
-                    .from(C.SongLeader)
-                    .where(C.SongLeader.leadId, "=", leadId);
+            SQL.Query query = DetailQueries.leadSongAndSinging(leadId);
             getLoaderManager().initLoader((int) leadId, null, new MinutesLoader(query) {
                 @Override
                 public void onLoadFinished(Cursor cursor) {
@@ -0,0 +1,506 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package org.fasola.fasolaminutes;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.DataSetObservable;
+import android.database.DataSetObserver;
+import android.database.MatrixCursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.os.CancellationSignal;
+import android.util.Pair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A cursor that loads a query a page at a time, for lists that are too long to keep in memory.
+ *
+ * <p>Pages are selected with keyset pagination: the query is ordered by its ORDER BY columns
+ * and a unique key column, and each page adds a condition for rows whose sort values are at or
+ * after the first row of the page (in HAVING if a sort column is an aggregate).  The boundary
+ * values are bound, so every page after the first uses the same statement.
+ *
+ * <p>When the cursor is created the query is run once with its sort values, which gives the
+ * first page, the page boundaries, the row count, runs of equal {@link SQL#INDEX_COLUMN}
+ * values for section indexers, and the recording count.
+ *
+ * <p>A few recent pages are kept in memory.  Pages next to the current row are prefetched on
+ * {@link QueryExecutor}.  Moving to a page that isn't loaded yet (e.g. after a fast-scroll jump)
+ * on the UI thread loads it in the background: until it lands the row is a placeholder with
+ * only the key and index columns, and data set observers are notified when it does.
+ */
+public class PagedCursor extends AbstractCursor {
+    public static final int PAGE_SIZE = 200;
+    private static final int CACHED_PAGES = 5;
+    private static final String KEY_PREFIX = "__page_key";
+    private static final Pattern AGGREGATE_PATTERN = Pattern.compile(
+            "\\b(count|sum|total|avg|min|max|group_concat)\\s*\\(", Pattern.CASE_INSENSITIVE);
+
+    private final MinutesDb mDb;
+    private final int mPageSize;
+    // The query ordered by the sort columns
+    private final SQL.Query mPageQuery;
+    private final String[] mQueryArgs;
+    private final Object[] mSortColumns;
+    private final boolean[] mSortDesc;
+    private final boolean mIsHaving;
+    private final String[] mColumnNames;
+    // Results of the scan
+    private int mCount;
+    private final List<Object[]> mBoundaries = new ArrayList<>();
+    private int mKeyColumn = -1;
+    private long[] mKeys; // null unless every key is an integer
+    private int mIndexColumn = -1;
+    private final List<String> mRunValues = new ArrayList<>();
+    private int[] mRunStarts = new int[16];
+    private int mRecordingCount;
+    // Loaded pages, least recently used first (guarded by mPages)
+    private final Map<Integer, Cursor> mPages = new LinkedHashMap<Integer, Cursor>(CACHED_PAGES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Cursor> eldest) {
+            // Never close the page that the cursor is on
+            if (size() <= CACHED_PAGES || eldest.getValue() == mPage)
+                return false;
+            eldest.getValue().close();
+            return true;
+        }
+    };
+    // Pages that are being loaded, and the ones that the UI is waiting for (guarded by mPages)
+    private final Map<Integer, QueryExecutor.Request> mLoading = new HashMap<>();
+    private final Set<Integer> mAwaited = new HashSet<>();
+    private Cursor mPage; // null for a placeholder row
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final DataSetObservable mPageObservable = new DataSetObservable();
+
+    /**
+     * Runs the query and keeps the first page (call on a background thread).
+     *
+     * @param db database
+     * @param query query to page (see {@link SQL.Query#canPage()})
+     * @param queryArgs query args
+     * @param keyColumn alias of a unique column that orders rows with the same ORDER BY values
+     * @param signal cancels the scan
+     */
+    public PagedCursor(MinutesDb db, SQL.Query query, String[] queryArgs, String keyColumn,
+                       CancellationSignal signal) {
+        mDb = db;
+        mPageSize = PAGE_SIZE;
+        mQueryArgs = queryArgs;
+        List<Pair<Object, String>> order = query.getOrderColumns();
+        Object keyExpr = query.getColumn(keyColumn);
+        if (keyExpr == null)
+            keyExpr = keyColumn;
+        mSortColumns = new Object[order.size() + 1];
+        mSortDesc = new boolean[mSortColumns.length];
+        boolean isHaving = false;
+        for (int i = 0; i < order.size(); i++) {
+            mSortColumns[i] = order.get(i).first;
+            mSortDesc[i] = order.get(i).second.equalsIgnoreCase("DESC");
+            isHaving |= isAggregate(mSortColumns[i]);
+        }
+        mSortColumns[order.size()] = keyExpr;
+        mIsHaving = isHaving;
+        mPageQuery = query.copy().order(keyExpr, "ASC").freeze();
+        // The scan also selects the sort values, after the query's own columns
+        SQL.Query scan = mPageQuery.copy();
+        for (int i = 0; i < mSortColumns.length; i++)
+            scan.select(mSortColumns[i]).as(KEY_PREFIX + i);
+        Cursor cursor = mDb.query(scan, mQueryArgs, signal);
+        try {
+            String[] names = cursor.getColumnNames();
+            mColumnNames = Arrays.copyOf(names, names.length - mSortColumns.length);
+            mKeyColumn = Arrays.asList(mColumnNames).indexOf(keyColumn);
+            mPages.put(0, scan(cursor, signal));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Returns the PagedCursor that a cursor wraps, or {@code null}. */
+    public static PagedCursor unwrap(Cursor cursor) {
+        while (cursor instanceof CursorWrapper)
+            cursor = ((CursorWrapper) cursor).getWrappedCursor();
+        return cursor instanceof PagedCursor ? (PagedCursor) cursor : null;
+    }
+
+    // Aggregates can only be compared in HAVING (subqueries are evaluated per row)
+    private static boolean isAggregate(Object column) {
+        String sql = column.toString();
+        return ! sql.toUpperCase().contains("(SELECT") && AGGREGATE_PATTERN.matcher(sql).find();
+    }
+
+    // region Scan
+    //---------------------------------------------------------------------------------------------
+    // Reads every row, and returns the first page
+    private Cursor scan(Cursor cursor, CancellationSignal signal) {
+        int nCols = mColumnNames.length;
+        MatrixCursor first = new MatrixCursor(mColumnNames, mPageSize);
+        List<String> names = Arrays.asList(mColumnNames);
+        mIndexColumn = names.indexOf(SQL.INDEX_COLUMN);
+        int audioCol = names.indexOf(CursorListFragment.AUDIO_COLUMN);
+        mKeys = mKeyColumn != -1 ? new long[Math.max(cursor.getCount(), 0)] : null;
+        String last = null;
+        int pos = 0;
+        while (cursor.moveToNext()) {
+            if (pos < mPageSize)
+                first.addRow(readValues(cursor, 0, nCols));
+            if (pos % mPageSize == 0) {
+                if (signal != null)
+                    signal.throwIfCanceled();
+                mBoundaries.add(readValues(cursor, nCols, mSortColumns.length));
+            }
+            if (mKeys != null) {
+                if (cursor.getType(mKeyColumn) == Cursor.FIELD_TYPE_INTEGER)
+                    mKeys[pos] = cursor.getLong(mKeyColumn);
+                else
+                    mKeys = null;
+            }
+            if (mIndexColumn != -1) {
+                String value = cursor.getString(mIndexColumn);
+                if (value == null)
+                    value = "";
+                if (! value.equals(last)) {
+                    last = value;
+                    addRun(pos, value);
+                }
+            }
+            if (audioCol != -1 && CursorListFragment.isRecordingUrl(cursor.getString(audioCol)))
+                ++mRecordingCount;
+            ++pos;
+        }
+        mCount = pos;
+        return first;
+    }
+
+    private static Object[] readValues(Cursor cursor, int start, int count) {
+        Object[] values = new Object[count];
+        for (int i = 0; i < count; i++) {
+            int col = start + i;
+            switch (cursor.getType(col)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    values[i] = null;
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    values[i] = cursor.getLong(col);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    values[i] = cursor.getDouble(col);
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    values[i] = cursor.getBlob(col);
+                    break;
+                default:
+                    values[i] = cursor.getString(col);
+                    break;
+            }
+        }
+        return values;
+    }
+
+    private void addRun(int position, String value) {
+        int run = mRunValues.size();
+        if (run == mRunStarts.length)
+            mRunStarts = Arrays.copyOf(mRunStarts, run * 2);
+        mRunStarts[run] = position;
+        mRunValues.add(value);
+    }
+
+    /**
+     * Gets the number of runs of equal values in the {@link SQL#INDEX_COLUMN}.
+     *
+     * @param column column index
+     * @return number of runs, or -1 if {@code column} is not the index column
+     */
+    public int getRunCount(int column) {
+        return column == mIndexColumn ? mRunValues.size() : -1;
+    }
+
+    /** Returns the first position of a run. */
+    public int getRunStart(int run) {
+        return mRunStarts[run];
+    }
+
+    /** Returns the value of a run (null values are returned as {@code ""}). */
+    public String getRunValue(int run) {
+        return mRunValues.get(run);
+    }
+
+    /** Returns the number of recordings in {@link CursorListFragment#AUDIO_COLUMN}. */
+    public int getRecordingCount() {
+        return mRecordingCount;
+    }
+
+    /**
+     * Finds a row by its key without loading pages.
+     *
+     * @param column column name
+     * @param value value to search for
+     * @return position of the first matching row, or -1 if there is none or {@code column}
+     *         is not an integer key column
+     */
+    public int findKey(String column, Object value) {
+        if (mKeys == null || ! column.equals(mColumnNames[mKeyColumn]))
+            return -1;
+        long key;
+        try {
+            key = Long.parseLong(value.toString());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        for (int i = 0; i < mCount; i++) {
+            if (mKeys[i] == key)
+                return i;
+        }
+        return -1;
+    }
+    //---------------------------------------------------------------------------------------------
+    // endregion Scan
+
+    // region Pages
+    //---------------------------------------------------------------------------------------------
+    private Cursor queryPage(int page, CancellationSignal signal) {
+        SQL.Query query = mPageQuery.copy()
+                .atOrAfter(mSortColumns, mSortDesc, mBoundaries.get(page), mIsHaving)
+                .limit(mPageSize);
+        Cursor cursor = mDb.query(query, mQueryArgs, signal);
+        cursor.getCount(); // Fill the cursor window
+        return cursor;
+    }
+
+    private int getPageCount() {
+        return (mCount + mPageSize - 1) / mPageSize;
+    }
+
+    // Adds a loaded page, or closes it if it was already loaded
+    private Cursor putPage(int page, Cursor cursor) {
+        synchronized (mPages) {
+            Cursor existing = mPages.get(page);
+            if (existing != null || isClosed()) {
+                cursor.close();
+                return existing;
+            }
+            mPages.put(page, cursor);
+            return cursor;
+        }
+    }
+
+    // Prefetches the next or previous page when the position is near the end of a page
+    private void prefetch(int page, int offset) {
+        if (offset >= mPageSize - mPageSize / 4)
+            loadPage(page + 1, MinutesLoader.PRIORITY_PREFETCH);
+        else if (offset < mPageSize / 4)
+            loadPage(page - 1, MinutesLoader.PRIORITY_PREFETCH);
+    }
+
+    // Loads a page on QueryExecutor (a prefetch of the same page is moved up to this priority)
+    private void loadPage(final int page, int priority) {
+        if (page < 0 || page >= getPageCount())
+            return;
+        synchronized (mPages) {
+            if (isClosed() || mPages.containsKey(page))
+                return;
+            if (mLoading.containsKey(page) && priority >= MinutesLoader.PRIORITY_PREFETCH)
+                return;
+            String key = "page:" + System.identityHashCode(this) + ":" + page;
+            mLoading.put(page, QueryExecutor.getInstance().execute(key, priority, new QueryExecutor.Job() {
+                @Override
+                public Cursor run(CancellationSignal signal) {
+                    boolean isLoaded = false;
+                    try {
+                        isLoaded = putPage(page, queryPage(page, signal)) != null;
+                    } finally {
+                        onPageLoaded(page, isLoaded);
+                    }
+                    return null;
+                }
+            }));
+        }
+    }
+
+    // Tells the UI that a page it was waiting for has landed
+    private void onPageLoaded(int page, boolean isLoaded) {
+        synchronized (mPages) {
+            mLoading.remove(page);
+            if (! mAwaited.remove(page) || ! isLoaded)
+                return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (! isClosed())
+                    mPageObservable.notifyChanged();
+            }
+        });
+    }
+    //---------------------------------------------------------------------------------------------
+    // endregion Pages
+
+    // region Cursor
+    //---------------------------------------------------------------------------------------------
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        int page = newPosition / mPageSize;
+        int offset = newPosition % mPageSize;
+        Cursor cursor;
+        synchronized (mPages) {
+            cursor = mPages.get(page);
+            if (cursor == null && Looper.myLooper() == Looper.getMainLooper()) {
+                // Show a placeholder until the page lands
+                mPage = null;
+                mAwaited.add(page);
+                loadPage(page, MinutesLoader.PRIORITY_LIST);
+                return true;
+            }
+        }
+        if (cursor == null)
+            cursor = putPage(page, queryPage(page, null));
+        if (cursor == null || ! cursor.moveToPosition(offset))
+            return false;
+        synchronized (mPages) {
+            mPage = cursor;
+        }
+        prefetch(page, offset);
+        return true;
+    }
+
+    // Returns the page cursor for this row, or null for a placeholder
+    private Cursor getRow() {
+        checkPosition();
+        if (mPage == null) {
+            // The page may have landed since the cursor moved here
+            synchronized (mPages) {
+                Cursor cursor = mPages.get(mPos / mPageSize);
+                if (cursor != null && cursor.moveToPosition(mPos % mPageSize))
+                    mPage = cursor;
+            }
+        }
+        return mPage;
+    }
+
+    // Placeholder value: the key and index columns are known from the scan
+    private Object getPlaceholder(int column) {
+        if (column == mKeyColumn && mKeys != null)
+            return mKeys[mPos];
+        if (column == mIndexColumn) {
+            int run = Arrays.binarySearch(mRunStarts, 0, mRunValues.size(), mPos);
+            return mRunValues.get(run >= 0 ? run : -run - 2);
+        }
+        return null;
+    }
+
+    @Override
+    public String getString(int column) {
+        Cursor row = getRow();
+        if (row != null)
+            return row.getString(column);
+        Object value = getPlaceholder(column);
+        return value != null ? value.toString() : null;
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        Cursor row = getRow();
+        if (row != null)
+            return row.getLong(column);
+        Object value = getPlaceholder(column);
+        return value instanceof Long ? (Long) value : 0;
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        Cursor row = getRow();
+        return row != null ? row.getDouble(column) : getLong(column);
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        Cursor row = getRow();
+        return row != null ? row.getBlob(column) : null;
+    }
+
+    @Override
+    public int getType(int column) {
+        Cursor row = getRow();
+        if (row != null)
+            return row.getType(column);
+        Object value = getPlaceholder(column);
+        if (value == null)
+            return Cursor.FIELD_TYPE_NULL;
+        return value instanceof Long ? Cursor.FIELD_TYPE_INTEGER : Cursor.FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        Cursor row = getRow();
+        return row != null ? row.isNull(column) : getPlaceholder(column) == null;
+    }
+
+    // Observers are also told when a page that was shown as placeholders lands
+    @Override
+    public void registerDataSetObserver(DataSetObserver observer) {
+        super.registerDataSetObserver(observer);
+        mPageObservable.registerObserver(observer);
+    }
+
+    @Override
+    public void unregisterDataSetObserver(DataSetObserver observer) {
+        super.unregisterDataSetObserver(observer);
+        mPageObservable.unregisterObserver(observer);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        synchronized (mPages) {
+            for (QueryExecutor.Request request : mLoading.values())
+                request.cancel();
+            mLoading.clear();
+            mAwaited.clear();
+            for (Cursor cursor : mPages.values())
+                cursor.close();
+            mPages.clear();
+            mPage = null;
+        }
+    }
+    //---------------------------------------------------------------------------------------------
+    // endregion Cursor
+}
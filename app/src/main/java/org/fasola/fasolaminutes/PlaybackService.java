@@ -35,6 +35,7 @@ import android.widget.MediaController;
 import android.widget.RemoteViews;
 import android.widget.Toast;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -54,6 +55,7 @@ public class PlaybackService extends Service
     private static final String TAG = "PlaybackService";
     private static final int ERROR_LIMIT = 100;
     private static final int ERROR_DELAY_MS = 500;
+    private static final long AUDIO_CACHE_SIZE = 200 * 1024 * 1024;
 
     /** Enqueue songs */
     public static final String ACTION_ENQUEUE_MEDIA = "org.fasola.fasolaminutes.media.ENQUEUE";
@@ -97,6 +99,10 @@ public class PlaybackService extends Service
     };
 
     MediaPlayer mMediaPlayer;
+    // Standby player for the next song in the playlist (gapless playback)
+    MediaPlayer mNextPlayer;
+    Playlist.Song mNextSong;
+    boolean mIsNextPrepared;
     Control mControl;
     boolean mIsPrepared;
     boolean mIsLoading;
@@ -111,6 +117,7 @@ public class PlaybackService extends Service
     private static final int NOTIFICATION_ID = 1;
     private static final String CHANNEL_ID = "org.fasola.fasolaminutes.RECORDINGS_CHANNEL";
     AudioManager mAudioManager;
+    AudioCache mAudioCache;
 
     MediaSessionCompat mMediaSession;
 
@@ -137,6 +144,12 @@ public class PlaybackService extends Service
         mNotificationManager = NotificationManagerCompat.from(this);
         mConnectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
         mAudioManager = (AudioManager)getSystemService(Context.AUDIO_SERVICE);
+        mAudioCache = new AudioCache(new File(getCacheDir(), "audio"), AUDIO_CACHE_SIZE);
+        try {
+            mAudioCache.start();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to start audio cache; streaming directly", e);
+        }
         mObserver.registerBroadcastReceiver(getApplicationContext());
         mObserver.registerPlaylistObserver();
         ComponentName receiver = new ComponentName(getPackageName(), MediaButtonReceiver.class.getName());
@@ -209,6 +222,7 @@ public class PlaybackService extends Service
     @Override
     public void onDestroy() {
         stop();
+        mAudioCache.stop();
         mObserver.unregister();
         mInstance = null;
     }
@@ -266,7 +280,9 @@ public class PlaybackService extends Service
         else {
             if (Playlist.getInstance().getCurrent() == null)
                 Playlist.getInstance().moveToFirst();
-            prepare();
+            // The song will start once it is prepared
+            if (! isLoadingCurrent())
+                prepare();
         }
         updateNotification();
         updateMediaSession();
@@ -277,6 +293,7 @@ public class PlaybackService extends Service
         mShouldPlay = false;
         if (isPrepared())
             ensurePlayer().pause();
+        savePosition();
         updateNotification();
         updateMediaSession();
         LocalBroadcastManager.getInstance(this).sendBroadcast(new Intent(BROADCAST_PAUSED));
@@ -287,10 +304,12 @@ public class PlaybackService extends Service
      * This is not a MediaPlayerControl override
      */
     public void stop() {
+        savePosition();
         mSong = null;
         mAudioManager.abandonAudioFocus(this);
         mMediaSession.setActive(false);
         mMediaSession.release();
+        releaseNextPlayer();
         if (mMediaPlayer != null) {
             mMediaPlayer.release();
             mMediaPlayer = null;
@@ -318,6 +337,7 @@ public class PlaybackService extends Service
     public void seekTo(int i) {
         if (isPrepared()) {
             ensurePlayer().seekTo(i);
+            PlaylistStore.getInstance(this).setPosition(mSong, i);
             updateNotification();
             updateMediaSession();
         }
@@ -367,12 +387,27 @@ public class PlaybackService extends Service
     /** Updates the current song from the playlist position. */
     public void updateSong() {
         mSong = Playlist.getInstance().getCurrent();
-        ensurePlayer();
-        if (mMediaPlayer.isPlaying())
-            mMediaPlayer.stop();
-        mMediaPlayer.reset();
-        mIsPrepared = false;
-        mIsLoading = false;
+        if (mSong != null && mSong == mNextSong) {
+            // Use the standby player, which is either prepared or loading
+            if (mMediaPlayer != null)
+                mMediaPlayer.release();
+            mMediaPlayer = mNextPlayer;
+            mIsPrepared = mIsNextPrepared;
+            mIsLoading = ! mIsNextPrepared;
+            mNextPlayer = null;
+            mNextSong = null;
+            mIsNextPrepared = false;
+            if (mIsPrepared)
+                prepareNext();
+        }
+        else {
+            ensurePlayer();
+            if (mMediaPlayer.isPlaying())
+                mMediaPlayer.stop();
+            mMediaPlayer.reset();
+            mIsPrepared = false;
+            mIsLoading = false;
+        }
         mIsRemoved = false;
         updateNotification();
         updateMediaSession();
@@ -391,11 +426,20 @@ public class PlaybackService extends Service
         updateSong();
         if (mSong == null)
             return false;
+        // Standby player was swapped in by updateSong()
+        if (mIsPrepared) {
+            onPrepared(mMediaPlayer);
+            return true;
+        }
+        else if (mIsLoading) {
+            LocalBroadcastManager.getInstance(this).sendBroadcast(new Intent(BROADCAST_LOADING));
+            return true;
+        }
         // Prepare player
         LocalBroadcastManager.getInstance(this).sendBroadcast(new Intent(BROADCAST_LOADING));
         mIsLoading = true;
         try {
-            mMediaPlayer.setDataSource(mSong.url);
+            mMediaPlayer.setDataSource(getDataSource(mSong.url));
         } catch (IOException | IllegalStateException e) {
             // TODO: something useful... a broadcast?
             Log.e(TAG, "Exception with url: " + mSong.url);
@@ -458,17 +502,93 @@ public class PlaybackService extends Service
      * @return mMediaPlayer for chaining
      */
     private MediaPlayer ensurePlayer() {
-        if (mMediaPlayer == null) {
-            mMediaPlayer = new MediaPlayer();
-            mMediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
-            mMediaPlayer.setOnPreparedListener(this);
-            mMediaPlayer.setOnCompletionListener(this);
-            mMediaPlayer.setOnErrorListener(this);
-            mMediaPlayer.setOnInfoListener(this);
-        }
+        if (mMediaPlayer == null)
+            mMediaPlayer = createPlayer();
         return mMediaPlayer;
     }
 
+    /** Saves the playback position with the playlist. */
+    private void savePosition() {
+        if (mSong != null && isPrepared())
+            PlaylistStore.getInstance(this).setPosition(mSong, getCurrentPosition());
+    }
+
+    /** Returns a downloaded recording's path, or the cached url. */
+    private String getDataSource(String url) {
+        File file = SingingDownloader.getInstance(this).getLocalFile(url);
+        if (file != null)
+            return file.getPath();
+        return mAudioCache.getUrl(url);
+    }
+
+    private MediaPlayer createPlayer() {
+        MediaPlayer player = new MediaPlayer();
+        player.setAudioStreamType(AudioManager.STREAM_MUSIC);
+        player.setOnPreparedListener(this);
+        player.setOnCompletionListener(this);
+        player.setOnErrorListener(this);
+        player.setOnInfoListener(this);
+        return player;
+    }
+
+    /** Is the current song (from the playlist) already being prepared? */
+    private boolean isLoadingCurrent() {
+        return mIsLoading && ! mIsPrepared && mSong != null &&
+               mSong == Playlist.getInstance().getCurrent();
+    }
+
+    /**
+     * Prepares a standby player for the next song in the playlist (gapless playback)
+     *
+     * <p>The standby player is only prepared once the current song is prepared, and is
+     * replaced if the next song changes (e.g. the playlist is reordered).
+     *
+     * @see #updateSong()
+     */
+    private void prepareNext() {
+        Playlist playlist = Playlist.getInstance();
+        Playlist.Song next = null;
+        if (mIsPrepared && playlist.hasNext() && ConnectionStatus.canPlay(this))
+            next = playlist.get(playlist.getPosition() + 1);
+        if (next == mNextSong)
+            return;
+        releaseNextPlayer();
+        if (next == null)
+            return;
+        mNextSong = next;
+        mNextPlayer = createPlayer();
+        try {
+            mNextPlayer.setDataSource(getDataSource(next.url));
+            mNextPlayer.prepareAsync();
+        } catch (IOException | IllegalStateException e) {
+            Log.e(TAG, "Exception with next url: " + next.url);
+            releaseNextPlayer();
+        }
+    }
+
+    /** Releases the standby player. */
+    private void releaseNextPlayer() {
+        if (mNextPlayer != null) {
+            setNextMediaPlayer(null);
+            mNextPlayer.release();
+            mNextPlayer = null;
+        }
+        mNextSong = null;
+        mIsNextPrepared = false;
+    }
+
+    /** Sets the player that starts when the current song completes (API 16+). */
+    private void setNextMediaPlayer(MediaPlayer next) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN ||
+                mMediaPlayer == null || ! mIsPrepared)
+            return;
+        try {
+            mMediaPlayer.setNextMediaPlayer(next);
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            Log.e(TAG, "Unable to set next player");
+        }
+    }
+
     /** Creates a new notification or returns an existing notification
      *
      * @return {@link Notification} that controls playback
@@ -655,6 +775,19 @@ public class PlaybackService extends Service
                 mIsRemoved = true;
                 pause();
             }
+            updateNextSong();
+        }
+
+        @Override
+        public void onCursorChanged() {
+            updateNextSong();
+        }
+
+        // Replace the standby player if the next song has changed (e.g. Playlist.move)
+        // Skip this while moving to another song; updateSong() swaps in the standby player
+        private void updateNextSong() {
+            if (mSong != null && mSong == Playlist.getInstance().getCurrent())
+                prepareNext();
         }
 
         // Pause playback when headset is unplugged or when wifi is unavailable
@@ -690,19 +823,36 @@ public class PlaybackService extends Service
     //---------------------------------------------------------------------------------------------
     @Override
     public void onPrepared(MediaPlayer mp) {
+        if (mp == mNextPlayer) {
+            Log.v(TAG, "Next song prepared");
+            mIsNextPrepared = true;
+            setNextMediaPlayer(mNextPlayer);
+            return;
+        }
         Log.v(TAG, "Prepared; starting playback");
         mIsPrepared = true;
         mIsLoading = false;
         mErrorCount = 0;
         if (mSong != null)
             mSong.status = Playlist.Song.STATUS_OK;
+        // Resume a playlist restored from a previous process
+        int restoredPosition = PlaylistStore.getInstance(this).takeRestoredPosition(mSong);
+        if (restoredPosition > 0)
+            mMediaPlayer.seekTo(restoredPosition);
         LocalBroadcastManager.getInstance(this).sendBroadcast(new Intent(BROADCAST_PREPARED));
         if (mShouldPlay)
             start();
+        // Load the next song, or chain an existing standby player to this one
+        prepareNext();
+        if (mIsNextPrepared)
+            setNextMediaPlayer(mNextPlayer);
     }
 
     @Override
     public void onCompletion(MediaPlayer mp) {
+        if (mp != mMediaPlayer)
+            return;
+        // If the standby player was set with setNextMediaPlayer, it has already started
         Log.v(TAG, "Complete");
         mIsPrepared = false;
         LocalBroadcastManager.getInstance(this).sendBroadcast(new Intent(BROADCAST_COMPLETED));
@@ -717,6 +867,12 @@ public class PlaybackService extends Service
 
     @Override
     public boolean onError(MediaPlayer mp, int what, int extra) {
+        if (mp == mNextPlayer) {
+            // Try again once this song is playing
+            Log.e(TAG, "Next song error: " + String.valueOf(what));
+            releaseNextPlayer();
+            return true;
+        }
         if (! isConnected()) {
             pause();
             return true;
@@ -745,6 +901,8 @@ public class PlaybackService extends Service
 
     @Override
     public boolean onInfo(MediaPlayer mp, int what, int extra) {
+        if (mp != mMediaPlayer)
+            return false;
         // Send broadcasts based on buffering state
         if (what == MediaPlayer.MEDIA_INFO_BUFFERING_START) {
             mIsLoading = true;
@@ -965,12 +1123,7 @@ public class PlaybackService extends Service
      */
     public static void playSinging(final Context context, final String action, long singingId) {
         // Query for songs
-        SQL.Query query = C.SongLeader.select(C.SongLeader.leadId)
-                            .select(C.SongLeader.audioUrl).as(CursorListFragment.AUDIO_COLUMN)
-                            .where(C.SongLeader.singingId, "=", singingId)
-                                .and(C.SongLeader.audioUrl, "IS NOT", "NULL")
-                            .group(C.SongLeader.leadId)
-                            .order(C.SongLeader.singingOrder, "ASC");
+        SQL.Query query = DetailQueries.singingRecordings(singingId);
         // Start query and play when finished
         MinutesLoader loader = new MinutesLoader(query) {
             @Override
@@ -94,18 +94,7 @@ public class Playlist extends ArrayList<Playlist.Song> {
      * @return {@link SQL.Query}
      */
     public static SQL.Query getSongQuery(Object column, Object... args) {
-        return SQL.select(
-                C.SongLeader.songId,
-                C.SongLeader.leadId,
-                C.Song.fullName,
-                C.Leader.allNames,
-                C.Singing.name,
-                C.Singing.startDate,
-                C.Singing.year,
-                C.SongLeader.audioUrl)
-            .from(C.SongLeader)
-            .where(column, "IN", args) // This makes for a verbose but efficient query
-            .group(C.SongLeader.leadId);
+        return DetailQueries.playlistSongs(column, args);
     }
 
     /** Observer base class */
@@ -0,0 +1,224 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package org.fasola.fasolaminutes;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Saves the {@link Playlist} so it can be restored after the process is killed.
+ *
+ * <p>The saved state is the list of lead ids, the cursor position, and the seek offset in the
+ * current song.  Changes are batched and written on a background thread shortly after the last
+ * change; {@link #restore()} rebuilds the songs with a single query.
+ */
+class PlaylistStore extends Playlist.Observer {
+    private static final String TAG = "PlaylistStore";
+    private static final String FILE_NAME = "playlist.dat";
+    private static final int VERSION = 1;
+    private static final int SAVE_DELAY_MS = 1000;
+
+    private static PlaylistStore sInstance;
+
+    public static synchronized PlaylistStore getInstance(Context context) {
+        if (sInstance == null)
+            sInstance = new PlaylistStore(context.getApplicationContext());
+        return sInstance;
+    }
+
+    private final File mFile;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    // Seek offset in the current song (main thread)
+    private long mSeekLeadId = -1;
+    private int mSeekMs;
+    // Seek offset to apply once the restored song is prepared
+    private long mRestoredLeadId = -1;
+    private int mRestoredSeekMs;
+
+    private PlaylistStore(Context context) {
+        mFile = new File(context.getFilesDir(), FILE_NAME);
+        Playlist.getInstance().registerObserver(this);
+    }
+
+    @Override
+    public void onChanged() {
+        save();
+    }
+
+    /**
+     * Records the seek offset in a song and saves.
+     *
+     * @param song current song
+     * @param positionMs playback position
+     */
+    public void setPosition(Playlist.Song song, int positionMs) {
+        if (song == null)
+            return;
+        mSeekLeadId = song.leadId;
+        mSeekMs = positionMs;
+        save();
+    }
+
+    /**
+     * Returns the saved seek offset for a restored song (only once).
+     *
+     * @param song song that was just prepared
+     * @return offset in ms, or 0
+     */
+    public int takeRestoredPosition(Playlist.Song song) {
+        if (song == null || song.leadId != mRestoredLeadId)
+            return 0;
+        mRestoredLeadId = -1;
+        return mRestoredSeekMs;
+    }
+
+    /** Saves the playlist after a short delay, replacing any pending save. */
+    public void save() {
+        mHandler.removeCallbacks(mSaveRunnable);
+        mHandler.postDelayed(mSaveRunnable, SAVE_DELAY_MS);
+    }
+
+    /** Saves the playlist now (e.g. when the app is going into the background). */
+    public void flush() {
+        mHandler.removeCallbacks(mSaveRunnable);
+        mSaveRunnable.run();
+    }
+
+    // Snapshot the playlist on the main thread and write it on the executor
+    private final Runnable mSaveRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Playlist playlist = Playlist.getInstance();
+            final long[] leadIds = new long[playlist.size()];
+            for (int i = 0; i < leadIds.length; i++)
+                leadIds[i] = playlist.get(i).leadId;
+            final int pos = playlist.getPosition();
+            Playlist.Song current = playlist.getCurrent();
+            PlaybackService service = PlaybackService.getInstance();
+            if (current != null && service != null && service.isPrepared() && service.getSong() == current) {
+                mSeekLeadId = current.leadId;
+                mSeekMs = service.getCurrentPosition();
+            }
+            final int seekMs = current != null && current.leadId == mSeekLeadId ? mSeekMs : 0;
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    write(leadIds, pos, seekMs);
+                }
+            });
+        }
+    };
+
+    private void write(long[] leadIds, int pos, int seekMs) {
+        // Write to a temp file and rename so a partial write never replaces the last good save
+        File tmp = new File(mFile.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(VERSION);
+                out.writeInt(pos);
+                out.writeInt(seekMs);
+                out.writeInt(leadIds.length);
+                for (long leadId : leadIds)
+                    out.writeLong(leadId);
+            } finally {
+                out.close();
+            }
+            if (! tmp.renameTo(mFile))
+                Log.e(TAG, "Unable to rename " + tmp);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to save playlist", e);
+        }
+    }
+
+    /** Restores the saved playlist (async) if the playlist is still empty. */
+    public void restore() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Playlist.Song> songs = new ArrayList<>();
+                final int pos, seekMs;
+                try {
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+                    try {
+                        if (in.readInt() != VERSION)
+                            return;
+                        pos = in.readInt();
+                        seekMs = in.readInt();
+                        Long[] leadIds = new Long[in.readInt()];
+                        for (int i = 0; i < leadIds.length; i++)
+                            leadIds[i] = in.readLong();
+                        loadSongs(leadIds, songs);
+                    } finally {
+                        in.close();
+                    }
+                } catch (FileNotFoundException e) {
+                    return;
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to restore playlist", e);
+                    return;
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Playlist playlist = Playlist.getInstance();
+                        if (songs.isEmpty() || ! playlist.isEmpty())
+                            return;
+                        playlist.replaceWith(songs);
+                        playlist.moveToPosition(Math.min(pos, songs.size() - 1));
+                        Playlist.Song current = playlist.getCurrent();
+                        if (current != null) {
+                            mRestoredLeadId = mSeekLeadId = current.leadId;
+                            mRestoredSeekMs = mSeekMs = seekMs;
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    // Queries all songs at once and puts them in playlist order
+    private static void loadSongs(Long[] leadIds, List<Playlist.Song> songs) {
+        if (leadIds.length == 0)
+            return;
+        Map<Long, Playlist.Song> songMap = new HashMap<>(leadIds.length);
+        Cursor cursor = MinutesDb.getInstance().query(Playlist.getSongQuery(C.SongLeader.leadId, (Object[]) leadIds));
+        try {
+            while (cursor.moveToNext()) {
+                Playlist.Song song = new Playlist.Song(cursor);
+                songMap.put(song.leadId, song);
+            }
+        } finally {
+            cursor.close();
+        }
+        // Skip leads that are no longer in the database
+        for (Long leadId : leadIds) {
+            Playlist.Song song = songMap.get(leadId);
+            if (song != null)
+                songs.add(song);
+        }
+    }
+}
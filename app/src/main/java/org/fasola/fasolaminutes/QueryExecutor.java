@@ -0,0 +1,253 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package org.fasola.fasolaminutes;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Process;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs MinutesLoader queries on a small pool of background threads.
+ *
+ * <p>Queued queries run in priority order (lowest first), then in the order they were submitted.
+ *
+ * <p>Identical queries (same key) that are waiting or running at the same time are only
+ * executed once; each request gets its own cursor.
+ *
+ * <p>A canceled query is removed from the queue, or interrupted with a
+ * {@link CancellationSignal} if it is running and no other request is waiting on it.
+ */
+class QueryExecutor {
+    private static final int THREAD_COUNT = 2;
+    private static final int KEEP_ALIVE_SECS = 30;
+
+    /** Work done by a query (e.g. execute the query and fill the cursor window). */
+    public interface Job {
+        Cursor run(CancellationSignal signal);
+    }
+
+    private static final QueryExecutor sInstance = new QueryExecutor();
+
+    public static QueryExecutor getInstance() {
+        return sInstance;
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+    // Tasks that can still be joined by an identical query, by key
+    private final Map<String, Task> mTasks = new HashMap<>();
+    private long mSequence = 0;
+
+    private QueryExecutor() {
+        mExecutor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT,
+                KEEP_ALIVE_SECS, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        }, "QueryExecutor");
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues a query, or joins an identical query that has not finished.
+     *
+     * @param key identifies identical queries (null to never share results)
+     * @param priority lower numbers run first
+     * @param job work to do if the query is not already queued
+     * @return request used to wait for or cancel the query
+     */
+    public synchronized Request execute(String key, int priority, Job job) {
+        Task task = key != null ? mTasks.get(key) : null;
+        if (task == null) {
+            task = new Task(key, priority, job);
+            if (key != null)
+                mTasks.put(key, task);
+            mExecutor.execute(task);
+        }
+        else if (priority < task.mPriority && mExecutor.remove(task)) {
+            // Requeue with the higher priority
+            task.mPriority = priority;
+            mExecutor.execute(task);
+        }
+        task.mWaiters++;
+        return new Request(task);
+    }
+
+    /** A pending query result for a single caller. */
+    public class Request {
+        private final Task mTask;
+        private boolean mCanceled;
+        private boolean mTaken;
+
+        private Request(Task task) {
+            mTask = task;
+        }
+
+        /**
+         * Waits for the query to finish.
+         *
+         * @return a cursor owned by the caller
+         * @throws OperationCanceledException if the request was canceled
+         */
+        public Cursor get() {
+            synchronized (QueryExecutor.this) {
+                while (! mTask.mIsDone && ! mCanceled) {
+                    try {
+                        QueryExecutor.this.wait();
+                    } catch (InterruptedException e) {
+                        cancel();
+                    }
+                }
+                if (mCanceled)
+                    throw new OperationCanceledException();
+                mTaken = true;
+                if (mTask.mException != null)
+                    throw mTask.mException;
+                return mTask.mResults.poll();
+            }
+        }
+
+        /** Cancels the request (may be called from any thread). */
+        public void cancel() {
+            synchronized (QueryExecutor.this) {
+                if (mCanceled || mTaken)
+                    return;
+                mCanceled = true;
+                if (mTask.mIsDone) {
+                    // Close the cursor this request would have received
+                    Cursor cursor = mTask.mResults.poll();
+                    if (cursor != null)
+                        cursor.close();
+                }
+                else if (--mTask.mWaiters == 0) {
+                    // Nobody is waiting for this query anymore
+                    if (mTask.mKey != null && mTasks.get(mTask.mKey) == mTask)
+                        mTasks.remove(mTask.mKey);
+                    if (! mExecutor.remove(mTask))
+                        mTask.mSignal.cancel();
+                }
+                QueryExecutor.this.notifyAll();
+            }
+        }
+    }
+
+    private class Task implements Runnable, Comparable<Task> {
+        final String mKey;
+        final Job mJob;
+        final long mSequence;
+        final CancellationSignal mSignal = new CancellationSignal();
+        int mPriority;
+        // Guarded by QueryExecutor.this
+        int mWaiters;
+        boolean mIsDone;
+        RuntimeException mException;
+        final Queue<Cursor> mResults = new ArrayDeque<>();
+
+        Task(String key, int priority, Job job) {
+            mKey = key;
+            mPriority = priority;
+            mJob = job;
+            mSequence = QueryExecutor.this.mSequence++;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (mPriority != other.mPriority)
+                return mPriority < other.mPriority ? -1 : 1;
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+
+        @Override
+        public void run() {
+            Cursor cursor = null;
+            RuntimeException exception = null;
+            if (! mSignal.isCanceled()) {
+                try {
+                    cursor = mJob.run(mSignal);
+                } catch (RuntimeException e) {
+                    // The framework's OperationCanceledException is only available on API 16+
+                    if (! mSignal.isCanceled())
+                        exception = e;
+                }
+            }
+            int waiters;
+            synchronized (QueryExecutor.this) {
+                // Identical queries can no longer join this one
+                if (mKey != null && mTasks.get(mKey) == this)
+                    mTasks.remove(mKey);
+                waiters = mWaiters;
+            }
+            // Each additional waiter gets a copy instead of running the query again
+            Queue<Cursor> results = new ArrayDeque<>();
+            if (cursor != null && waiters > 0) {
+                for (int i = 1; i < waiters; i++)
+                    results.add(copyCursor(cursor));
+                cursor.moveToPosition(-1);
+                results.add(cursor);
+            }
+            else if (cursor != null) {
+                cursor.close();
+            }
+            synchronized (QueryExecutor.this) {
+                // Close results for requests that were canceled while copying
+                while (results.size() > mWaiters)
+                    results.poll().close();
+                mResults.addAll(results);
+                mException = exception;
+                mIsDone = true;
+                QueryExecutor.this.notifyAll();
+            }
+        }
+    }
+
+    // Copies all rows of a cursor into memory
+    private static Cursor copyCursor(Cursor cursor) {
+        MatrixCursor copy = new MatrixCursor(cursor.getColumnNames(), cursor.getCount());
+        int columnCount = cursor.getColumnCount();
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            MatrixCursor.RowBuilder row = copy.newRow();
+            for (int i = 0; i < columnCount; i++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_NULL:
+                        row.add(null);
+                        break;
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row.add(cursor.getLong(i));
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        row.add(cursor.getDouble(i));
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        row.add(cursor.getBlob(i));
+                        break;
+                    default:
+                        row.add(cursor.getString(i));
+                        break;
+                }
+            }
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package org.fasola.fasolaminutes;
+
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteQuery;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Timing, row counts and query plans for each query (debug builds only).
+ *
+ * <p>Queries are grouped by their parameterized SQL, so a list's query counts as one query
+ * whatever its values.  For each one this records:
+ * <ul><li>execution time: running the query to count its rows and fill the first
+ *         {@code CursorWindow} (the first {@code getCount()})
+ * <li>row count
+ * <li>window fill time: refilling the {@code CursorWindow} while scrolling past the first one
+ * <li>{@code EXPLAIN QUERY PLAN} output (once), with full table scans flagged
+ * </ul>
+ *
+ * <p>Shown in {@link SQLiteDebugActivity}, and dumped with {@link #toJson()}.
+ */
+public class QueryMetrics {
+    public static final boolean ENABLED = BuildConfig.DEBUG;
+
+    private static QueryMetrics sInstance;
+
+    public static synchronized QueryMetrics getInstance() {
+        if (sInstance == null)
+            sInstance = new QueryMetrics();
+        return sInstance;
+    }
+
+    // Entries by parameterized SQL, in the order first seen
+    private final Map<String, Entry> mEntries = new LinkedHashMap<>();
+
+    private QueryMetrics() {
+    }
+
+    /**
+     * Makes a cursor factory that records metrics for a query.
+     *
+     * @param sql parameterized SQL
+     * @param args bind args
+     * @return factory for {@link SQLiteDatabase#rawQueryWithFactory}
+     */
+    public SQLiteDatabase.CursorFactory newCursorFactory(final String sql, final String[] args) {
+        return new SQLiteDatabase.CursorFactory() {
+            @Override
+            public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver driver, String editTable,
+                                    SQLiteQuery query) {
+                return new MeasuredCursor(driver, editTable, query, sql, args);
+            }
+        };
+    }
+
+    // Records execution and window fill times
+    private class MeasuredCursor extends SQLiteCursor {
+        private final String mSql;
+        private final String[] mArgs;
+        private boolean mIsCounted;
+
+        MeasuredCursor(SQLiteCursorDriver driver, String editTable, SQLiteQuery query,
+                       String sql, String[] args) {
+            super(driver, editTable, query);
+            mSql = sql;
+            mArgs = args;
+        }
+
+        @Override
+        public int getCount() {
+            if (mIsCounted)
+                return super.getCount();
+            long start = System.nanoTime();
+            int count = super.getCount();
+            long elapsed = System.nanoTime() - start;
+            mIsCounted = true;
+            recordExecution(getDatabase(), mSql, mArgs, elapsed, count);
+            return count;
+        }
+
+        @Override
+        public boolean onMove(int oldPosition, int newPosition) {
+            // Same test SQLiteCursor uses to decide to fill the window
+            CursorWindow window = getWindow();
+            if (window != null && newPosition >= window.getStartPosition() &&
+                    newPosition < window.getStartPosition() + window.getNumRows())
+                return super.onMove(oldPosition, newPosition);
+            long start = System.nanoTime();
+            boolean result = super.onMove(oldPosition, newPosition);
+            recordWindowFill(mSql, System.nanoTime() - start);
+            return result;
+        }
+    }
+
+    // region Recording
+    //---------------------------------------------------------------------------------------------
+    private void recordExecution(SQLiteDatabase db, String sql, String[] args, long nanos, int rows) {
+        boolean needsPlan;
+        synchronized (this) {
+            Entry entry = getEntry(sql);
+            entry.mArgs = args;
+            entry.mTime.add(nanos / 1000);
+            entry.mRows.add(rows);
+            needsPlan = entry.mPlan == null;
+            if (needsPlan)
+                entry.mPlan = new ArrayList<>(); // Only explain once
+        }
+        if (needsPlan) {
+            List<String> plan = explain(db, sql, args);
+            synchronized (this) {
+                getEntry(sql).setPlan(plan);
+            }
+        }
+    }
+
+    private synchronized void recordWindowFill(String sql, long nanos) {
+        getEntry(sql).mWindowFill.add(nanos / 1000);
+    }
+
+    private Entry getEntry(String sql) {
+        Entry entry = mEntries.get(sql);
+        if (entry == null) {
+            entry = new Entry(sql);
+            mEntries.put(sql, entry);
+        }
+        return entry;
+    }
+
+    // Gets the EXPLAIN QUERY PLAN detail lines
+    private static List<String> explain(SQLiteDatabase db, String sql, String[] args) {
+        List<String> plan = new ArrayList<>();
+        try {
+            Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+            try {
+                // Column names have changed between SQLite versions, but detail is always last
+                int detail = cursor.getColumnIndex("detail");
+                if (detail == -1)
+                    detail = cursor.getColumnCount() - 1;
+                while (cursor.moveToNext())
+                    plan.add(cursor.getString(detail));
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLiteException e) {
+            plan.add("Unable to explain: " + e.getMessage());
+        }
+        return plan;
+    }
+
+    /** Forgets all metrics. */
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+    //---------------------------------------------------------------------------------------------
+    // endregion Recording
+
+    /**
+     * Gets metrics for each query.
+     *
+     * @return copies of the entries, by total execution time (highest first)
+     */
+    public synchronized List<Entry> getEntries() {
+        List<Entry> entries = new ArrayList<>();
+        for (Entry entry : mEntries.values())
+            entries.add(entry.copy());
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                long lhsTotal = lhs.mTime.getSum() + lhs.mWindowFill.getSum();
+                long rhsTotal = rhs.mTime.getSum() + rhs.mWindowFill.getSum();
+                return lhsTotal < rhsTotal ? 1 : (lhsTotal > rhsTotal ? -1 : 0);
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * Dumps metrics for each query.
+     *
+     * @return {@code {"queries": [...]}}, with entries as in {@link #getEntries()}
+     */
+    public JSONObject toJson() throws JSONException {
+        JSONArray queries = new JSONArray();
+        for (Entry entry : getEntries())
+            queries.put(entry.toJson());
+        return new JSONObject().put("queries", queries);
+    }
+
+    /** Metrics for one parameterized query. */
+    public static class Entry {
+        // Table name from a plan line that scans a whole table (not an index, virtual table
+        // or subquery), e.g. "SCAN TABLE song_leader_joins" or "SCAN song_leader_joins"
+        private static final Pattern FULL_SCAN = Pattern.compile(
+                "^SCAN (?:TABLE )?(?!SUBQUERY\\b|CONSTANT ROW\\b|\\()(\\S+)(?!.*\\b(?:USING|VIRTUAL TABLE)\\b)");
+
+        private final String mSql;
+        private String[] mArgs;
+        private final Histogram mTime;
+        private final Histogram mRows;
+        private final Histogram mWindowFill;
+        private List<String> mPlan;
+        private List<String> mFullScans = new ArrayList<>();
+
+        Entry(String sql) {
+            mSql = sql;
+            mTime = new Histogram();
+            mRows = new Histogram();
+            mWindowFill = new Histogram();
+        }
+
+        private Entry(Entry other) {
+            mSql = other.mSql;
+            mArgs = other.mArgs;
+            mTime = other.mTime.copy();
+            mRows = other.mRows.copy();
+            mWindowFill = other.mWindowFill.copy();
+            mPlan = other.mPlan;
+            mFullScans = other.mFullScans;
+        }
+
+        Entry copy() {
+            return new Entry(this);
+        }
+
+        void setPlan(List<String> plan) {
+            mPlan = Collections.unmodifiableList(plan);
+            List<String> fullScans = new ArrayList<>();
+            for (String line : plan) {
+                Matcher matcher = FULL_SCAN.matcher(line);
+                if (matcher.find())
+                    fullScans.add(matcher.group(1));
+            }
+            mFullScans = Collections.unmodifiableList(fullScans);
+        }
+
+        /** Parameterized SQL. */
+        public String getSql() {
+            return mSql;
+        }
+
+        /** Bind args from the last execution. */
+        public String[] getArgs() {
+            return mArgs != null ? mArgs : new String[0];
+        }
+
+        /** Hash of the parameterized SQL. */
+        public long getFingerprint() {
+            return SQL.Query.fingerprint(mSql);
+        }
+
+        /** Execution time in microseconds. */
+        public Histogram getTime() {
+            return mTime;
+        }
+
+        public Histogram getRows() {
+            return mRows;
+        }
+
+        /** Window fill time in microseconds. */
+        public Histogram getWindowFill() {
+            return mWindowFill;
+        }
+
+        /** Query plan lines (empty until explained). */
+        public List<String> getPlan() {
+            return mPlan != null ? mPlan : Collections.<String>emptyList();
+        }
+
+        /** Tables that the plan scans without an index. */
+        public List<String> getFullScans() {
+            return mFullScans;
+        }
+
+        JSONObject toJson() throws JSONException {
+            return new JSONObject()
+                    .put("fingerprint", Long.toHexString(getFingerprint()))
+                    .put("sql", mSql)
+                    .put("args", new JSONArray(Arrays.asList(getArgs())))
+                    .put("time_us", mTime.toJson())
+                    .put("rows", mRows.toJson())
+                    .put("window_fill_us", mWindowFill.toJson())
+                    .put("plan", new JSONArray(getPlan()))
+                    .put("full_scans", new JSONArray(mFullScans));
+        }
+    }
+
+    /**
+     * Counts values in power of two buckets, for approximate percentiles.
+     *
+     * <p>Bucket {@code i} holds values less than {@code 2^i} (and at least {@code 2^(i-1)}).
+     */
+    public static class Histogram {
+        private static final int BUCKETS = 40;
+
+        private final int[] mBuckets;
+        private int mCount;
+        private long mSum;
+        private long mMin = Long.MAX_VALUE;
+        private long mMax;
+
+        Histogram() {
+            mBuckets = new int[BUCKETS];
+        }
+
+        private Histogram(Histogram other) {
+            mBuckets = other.mBuckets.clone();
+            mCount = other.mCount;
+            mSum = other.mSum;
+            mMin = other.mMin;
+            mMax = other.mMax;
+        }
+
+        Histogram copy() {
+            return new Histogram(this);
+        }
+
+        void add(long value) {
+            value = Math.max(0, value);
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+            mBuckets[bucket]++;
+            mCount++;
+            mSum += value;
+            mMin = Math.min(mMin, value);
+            mMax = Math.max(mMax, value);
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        public long getSum() {
+            return mSum;
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        /**
+         * Estimates a percentile from the buckets.
+         *
+         * @param percentile from 0 to 100
+         * @return top of the bucket holding the percentile (at most the max value)
+         */
+        public long getPercentile(double percentile) {
+            if (mCount == 0)
+                return 0;
+            long rank = (long) Math.ceil(mCount * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mBuckets[i];
+                if (seen >= Math.max(1, rank))
+                    return Math.max(mMin, Math.min(mMax, (1L << i) - 1));
+            }
+            return mMax;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject().put("count", mCount);
+            if (mCount == 0)
+                return json;
+            JSONArray buckets = new JSONArray();
+            for (int i = 0; i < BUCKETS; i++) {
+                if (mBuckets[i] > 0)
+                    buckets.put(new JSONObject().put("lt", 1L << i).put("count", mBuckets[i]));
+            }
+            return json.put("sum", mSum)
+                       .put("min", mMin)
+                       .put("max", mMax)
+                       .put("p50", getPercentile(50))
+                       .put("p90", getPercentile(90))
+                       .put("p99", getPercentile(99))
+                       .put("buckets", buckets);
+        }
+    }
+}
@@ -7,12 +7,12 @@ package org.fasola.fasolaminutes;
 
 import android.database.Cursor;
 import android.database.DatabaseUtils;
-import android.database.sqlite.SQLiteDatabase;
 import android.text.TextUtils;
 import android.util.Pair;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -52,19 +52,49 @@ public class SQL {
         boolean isLeft;
     }
 
-    private static class JoinMap extends HashMap<String, Map<String, JoinEntry>> {
+    /**
+     * A query rendered with {@code ?} placeholders in place of literal WHERE/HAVING values.
+     *
+     * <p>Queries that differ only by value share the same SQL text, so SQLite can reuse
+     * the compiled statement.
+     *
+     * @see Query#toStatement
+     */
+    public static class Statement {
+        public final String sql;
+        public final String[] args;
+
+        Statement(String sql, String[] args) {
+            this.sql = sql;
+            this.args = args;
+        }
+
+        public String toString() {
+            return sql;
+        }
+    }
+
+    // Graph of tables (nodes) and the JOIN ON clauses between them (edges)
+    // Linked maps keep the search order (and so the join order) stable
+    private static class JoinMap extends LinkedHashMap<String, Map<String, JoinEntry>> {
         public JoinEntry put(Object t1, Object t2, String text, boolean isLeft) {
             String key1 = t1.toString();
             String key2 = t2.toString();
             Map<String, JoinEntry> map = get(key1);
             if (map == null) {
-                map = new HashMap<>();
+                map = new LinkedHashMap<>();
                 super.put(key1, map);
             }
             return map.put(key2, new JoinEntry(text, isLeft));
         }
     }
 
+    // Shortest path through the JoinMap between two tables
+    private static class JoinPlan {
+        List<String> path = new ArrayList<>(); // Tables to join, ending with the target table
+        boolean isAmbiguous; // More than one shortest path exists
+    }
+
     /**
      * Base class for SQL table contracts
      *
@@ -77,6 +107,8 @@ public class SQL {
         public Column id;
         protected Map<String, Column> _columns; // Make escaped column key to Column
         protected static JoinMap joinMap = new JoinMap();
+        // Cached join plans: start table -> target table -> plan
+        private static final Map<String, Map<String, JoinPlan>> joinPlans = new HashMap<>();
         private static final int MAX_KEY_LENGTH = 20;
 
         protected BaseTable(String tableName) {
@@ -130,6 +162,15 @@ public class SQL {
          * @return The query as a new column
          */
         public Column subQuery(Column col) {
+            return column(makeSubQuery(col));
+        }
+
+        /**
+         * Make a correlated subquery column without adding it to this table
+         * @param col {@link Column} single column from a related table
+         * @return The query as a new column
+         */
+        public Column makeSubQuery(Column col) {
             // Pretend that this is a normal query that joins to this table, then pull off
             // the JOIN ON clause and turn it into a WHERE clause for the subuery
             Query query = col.getTable().select(col).as("col").join(col.getTable(), this);
@@ -139,7 +180,7 @@ public class SQL {
             String whereClause = thisJoin.substring(thisJoin.indexOf(" ON ") + 4);
             query.whereList.add(new Query.QueryStringBuilder().append(whereClause));
             query.joins.remove(TABLE_NAME);
-            return subQuery(query.toString());
+            return Column.SubQuery(this, query.toString());
         }
 
         // Create a stored query as a column
@@ -176,8 +217,77 @@ public class SQL {
         }
 
         public static void join(BaseTable t1, BaseTable t2, String text, boolean isLeft) {
-            joinMap.put(t1, t2, text, isLeft);
-            joinMap.put(t2, t1, text, isLeft);
+            synchronized (joinPlans) {
+                joinMap.put(t1, t2, text, isLeft);
+                joinMap.put(t2, t1, text, isLeft);
+                joinPlans.clear();
+            }
+        }
+
+        /**
+         * Precomputes join plans between every pair of tables.
+         *
+         * <p>Call once all joins have been added.  Plans are otherwise computed the first
+         * time they are needed.
+         */
+        public static void buildJoinPlans() {
+            synchronized (joinPlans) {
+                joinPlans.clear();
+                for (String table : joinMap.keySet())
+                    joinPlans.put(table, findJoinPlans(table));
+            }
+        }
+
+        // Get the shortest JoinPlan between two tables, or null if there is no path
+        protected static JoinPlan getJoinPlan(Object t1, Object t2) {
+            synchronized (joinPlans) {
+                Map<String, JoinPlan> plans = joinPlans.get(t1.toString());
+                if (plans == null) {
+                    plans = findJoinPlans(t1.toString());
+                    joinPlans.put(t1.toString(), plans);
+                }
+                return plans.get(t2.toString());
+            }
+        }
+
+        // Breadth-first search from a table to every table reachable through joins
+        private static Map<String, JoinPlan> findJoinPlans(String start) {
+            Map<String, Integer> depths = new HashMap<>();
+            Map<String, String> parents = new HashMap<>();
+            Map<String, Integer> pathCounts = new HashMap<>(); // Number of shortest paths (max 2)
+            ArrayDeque<String> queue = new ArrayDeque<>();
+            depths.put(start, 0);
+            pathCounts.put(start, 1);
+            queue.add(start);
+            while (! queue.isEmpty()) {
+                String table = queue.remove();
+                Map<String, JoinEntry> neighbors = joinMap.get(table);
+                if (neighbors == null)
+                    continue;
+                int depth = depths.get(table) + 1;
+                for (String next : neighbors.keySet()) {
+                    Integer nextDepth = depths.get(next);
+                    if (nextDepth == null) {
+                        depths.put(next, depth);
+                        parents.put(next, table);
+                        pathCounts.put(next, pathCounts.get(table));
+                        queue.add(next);
+                    }
+                    else if (nextDepth == depth) {
+                        pathCounts.put(next, Math.min(2, pathCounts.get(next) + pathCounts.get(table)));
+                    }
+                }
+            }
+            // Walk back through parents to make the plans
+            Map<String, JoinPlan> plans = new HashMap<>();
+            for (String table : parents.keySet()) {
+                JoinPlan plan = new JoinPlan();
+                for (String t = table; ! t.equals(start); t = parents.get(t))
+                    plan.path.add(0, t);
+                plan.isAmbiguous = pathCounts.get(table) > 1;
+                plans.put(table, plan);
+            }
+            return plans;
         }
 
         // Get the JoinEntry used to join two tables
@@ -209,8 +319,8 @@ public class SQL {
         // Query wrappers
         //---------------
 
-        protected SQLiteDatabase getDb() {
-            // Override to provide an SQLiteDatabase for queries
+        protected Cursor runQuery(Query query, String... args) {
+            // Override to run DAO queries on a database
             return null;
         }
 
@@ -262,8 +372,12 @@ public class SQL {
                 query.select(col);
             query.from(this).whereEq(field).group(this.id);
             // Query
-            Cursor cursor = getDb().rawQuery(query.toString(), new String[] {value.toString()});
-            return fromCursor(cursor);
+            Cursor cursor = runQuery(query, value.toString());
+            try {
+                return fromCursor(cursor);
+            } finally {
+                cursor.close();
+            }
         }
 
         // Return a new BaseTable object that functions as a DAO
@@ -493,6 +607,9 @@ public class SQL {
 
     @SuppressWarnings("SameParameterValue")
     public static class Query {
+        // SQLITE_MAX_VARIABLE_NUMBER on older devices
+        private static final int MAX_BIND_ARGS = 999;
+
         // Query elements
         protected String queryType;
         protected boolean isDistinct;
@@ -505,11 +622,18 @@ public class SQL {
         protected List<QueryStringBuilder> whereList = new ArrayList<>();
         protected List<QueryStringBuilder> lastList; // last where/having list to use for and and or
         protected QueryStringBuilder strOrder = new QueryStringBuilder(" ORDER BY");
+        protected List<Pair<Object, String>> orderColumns = new ArrayList<>(); // Column, ASC/DESC
         protected Object limit;
         protected Object offset;
 
         protected List<Query> union;
 
+        // Rendered query, cached until the next change
+        private QueryStringBuilder mRendered;
+        private String mText;
+        private long mFingerprint;
+        private boolean mIsFrozen;
+
         protected Query(String type, Object... args) {
             queryType = type;
             select(args);
@@ -529,11 +653,83 @@ public class SQL {
             havingList = new ArrayList<>();
             for (QueryStringBuilder q : other.havingList)
                 havingList.add(new QueryStringBuilder(q));
-            lastList = other.lastList;
+            lastList = other.lastList == other.havingList ? havingList : whereList;
             strOrder = new QueryStringBuilder(other.strOrder);
+            orderColumns = new ArrayList<>(other.orderColumns);
             limit = other.limit;
             offset = other.offset;
-            union = other.union; // Shouldn't need to change the other queries in the union
+            // The other queries in the union are frozen, so they can be shared
+            if (other.union != null)
+                union = new ArrayList<>(other.union);
+            // The copy renders the same until it is changed
+            mRendered = other.mRendered;
+            mText = other.mText;
+            mFingerprint = other.mFingerprint;
+        }
+
+        // Frozen queries
+        // --------------
+
+        /**
+         * Returns a frozen (immutable) form of this query.
+         *
+         * <p>Frozen queries are rendered once, so {@link #toString}, {@link #toStatement}
+         * and {@link #fingerprint} are cheap to call repeatedly.  Any change throws
+         * {@code IllegalStateException}; use {@link #copy} to get a mutable query.
+         *
+         * @return this query if it is already frozen, otherwise a frozen copy
+         */
+        public Query freeze() {
+            if (mIsFrozen)
+                return this;
+            Query query = copy();
+            query.render();
+            query.mIsFrozen = true;
+            return query;
+        }
+
+        public boolean isFrozen() {
+            return mIsFrozen;
+        }
+
+        /**
+         * Returns a 64-bit hash of the rendered query (including values).
+         *
+         * <p>Queries that render the same SQL have the same fingerprint.
+         */
+        public long fingerprint() {
+            render();
+            return mFingerprint;
+        }
+
+        // Called before every change: drop the cached rendering
+        protected Query modify() {
+            if (mIsFrozen)
+                throw new IllegalStateException("Frozen queries can't be changed; use copy()");
+            mRendered = null;
+            mText = null;
+            return this;
+        }
+
+        // Render and cache the query
+        private QueryStringBuilder render() {
+            if (mRendered == null) {
+                QueryStringBuilder q = build();
+                mText = q.toString();
+                mFingerprint = fingerprint(mText);
+                mRendered = q;
+            }
+            return mRendered;
+        }
+
+        // 64-bit FNV-1a (QueryMetrics uses this for parameterized SQL too)
+        static long fingerprint(String text) {
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < text.length(); i++) {
+                hash ^= text.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            return hash;
         }
 
         // SELECT
@@ -542,6 +738,7 @@ public class SQL {
         // Adds an automatic alias for every column (Column.key or "column[0-n]")
         // Default to FROM the table of the first select argument
         public Query select(Object... cols) {
+            modify();
             for (Object col : cols) {
                 String alias = "column" + selectColumns.size();
                 if (col instanceof Column) {
@@ -560,6 +757,7 @@ public class SQL {
         }
 
         public Query distinct(boolean distinct) {
+            modify();
             isDistinct = distinct;
             return this;
         }
@@ -569,6 +767,7 @@ public class SQL {
         }
 
         public Query as(String alias) {
+            modify();
             // Update the last alias
             int idx = selectColumns.size() - 1;
             Pair<Object, String> pair = selectColumns.get(idx);
@@ -588,16 +787,27 @@ public class SQL {
 
         // Does this query already have a section index column?
         public boolean hasSectionIndex() {
+            return hasColumn(INDEX_COLUMN);
+        }
+
+        // Does this query select a column with this alias?
+        public boolean hasColumn(String alias) {
+            return getColumn(alias) != null;
+        }
+
+        /** Returns the column or expression selected with this alias, or {@code null}. */
+        public Object getColumn(String alias) {
             for (Pair<Object, String> col : selectColumns) {
-                if (col.second.equals(INDEX_COLUMN))
-                    return true;
+                if (col.second.equals(alias))
+                    return col.first;
             }
-            return false;
+            return null;
         }
 
         // FROM
         // ----
         public Query from(BaseTable table) {
+            modify();
             fromTable = table;
             return this;
         }
@@ -607,6 +817,7 @@ public class SQL {
 
         // Join using defined relationships
         public Query join(BaseTable t1, BaseTable t2) {
+            modify();
             return _join(t1, t2, false);
         }
 
@@ -615,6 +826,7 @@ public class SQL {
         }
 
         public Query leftJoin(BaseTable t1, BaseTable t2) {
+            modify();
             return _join(t1, t2, true);
         }
 
@@ -624,57 +836,51 @@ public class SQL {
 
         // Join on specified columns
         public Query join(Object table, Column on1, Column on2) {
+            modify();
             return _join(table, on1 + " = " + on2, false);
         }
 
         public Query leftJoin(Object table, Column on1, Column on2) {
+            modify();
             return _join(table, on1 + " = " + on2, true);
         }
 
-        // Search for a columns to complete this join
+        // Join along the shortest path from t1 or any table that is already joined
         protected Query _join(BaseTable t1, BaseTable t2, boolean isLeft) {
             // Table already joined
             if (joins.containsKey(t2.toString()))
                 return this;
-            // Simple join exists
-            JoinEntry entry = BaseTable.getJoin(t1, t2);
-            if (entry != null)
-                return _join(t2, entry.text, entry.isLeft || isLeft);
-            // Look for a simple join from already joined tables
-            for (String joinTable : joins.keySet()) {
-                entry = BaseTable.getJoin(joinTable, t2);
-                if (entry != null)
-                    return _join(t2, entry.text, entry.isLeft || isLeft);
-            }
-            // Look for many : many join
-            String joinTable = "";
-            Map<String, JoinEntry> map = BaseTable.joinMap.get(t1.TABLE_NAME);
-            if (map == null)
-                throw new JoinException(t1, t2);
-            for (String intermediate : map.keySet()) {
-                if (BaseTable.getJoin(intermediate, t2) != null) {
-                    // Require ambiguous many : many joins to be resolved explicitly
-                    // e.g. select(...).join()
-                    if (joinTable.isEmpty())
-                        joinTable = intermediate;
-                    else
-                        throw new JoinException(
-                                "Multiple join paths exist between " + t1 + " and " + t2 + ". " +
-                                "Ambiguity can be resolved by join()'ing an intermediate table");
+            // Find the shortest plan, preferring t1, then tables in the order they were joined
+            List<String> sources = new ArrayList<>();
+            sources.add(t1.toString());
+            sources.addAll(joins.keySet());
+            String start = null;
+            JoinPlan plan = null;
+            for (String source : sources) {
+                JoinPlan other = BaseTable.getJoinPlan(source, t2);
+                if (other == null)
+                    continue;
+                if (plan == null || other.path.size() < plan.path.size() ||
+                        (plan.isAmbiguous && ! other.isAmbiguous && other.path.size() == plan.path.size())) {
+                    start = source;
+                    plan = other;
                 }
             }
-            if (joinTable.isEmpty())
-                throw new JoinException(t1, t2);
-            // Join to the intermediate table
-            JoinEntry firstJoin = BaseTable.getJoin(t1, joinTable);
-            if (firstJoin == null)
-                throw new JoinException(t1, t2);
-            _join(joinTable, firstJoin.text, firstJoin.isLeft || isLeft);
-            // Join to the second table
-            JoinEntry secondJoin = BaseTable.getJoin(joinTable, t2);
-            if (secondJoin == null)
+            if (plan == null)
                 throw new JoinException(t1, t2);
-            _join(t2, secondJoin.text, secondJoin.isLeft || isLeft);
+            // Require ambiguous many : many joins to be resolved explicitly
+            // e.g. select(...).join()
+            if (plan.isAmbiguous)
+                throw new JoinException(
+                        "Multiple join paths exist between " + t1 + " and " + t2 + ". " +
+                        "Ambiguity can be resolved by join()'ing an intermediate table");
+            // Join each table along the path
+            String previous = start;
+            for (String table : plan.path) {
+                JoinEntry entry = BaseTable.getJoin(previous, table);
+                _join(table, entry.text, entry.isLeft || isLeft);
+                previous = table;
+            }
             return this;
         }
 
@@ -698,20 +904,24 @@ public class SQL {
         // and(), or() operate on whichever where() or having() was used most recently
 
         public Query where(Object col, Object oper, Object val) {
+            modify();
             lastList = whereList;
             return _whereHaving(col, oper, val);
         }
 
         public Query having(Object col, Object oper, Object val) {
+            modify();
             lastList = havingList;
             return _whereHaving(col, oper, val);
         }
 
         public Query and(Object col, Object oper, Object val) {
+            modify();
             return _addWhereHaving(" AND", col, oper, val);
         }
 
         public Query or(Object col, Object oper, Object val) {
+            modify();
             return _addWhereHaving(" OR", col, oper, val);
         }
 
@@ -723,6 +933,29 @@ public class SQL {
             return this;
         }
 
+        // Append an escaped value, recording it as a bind arg for toStatement()
+        private void _appendValue(QueryStringBuilder q, Object val) {
+            if (val instanceof Number) {
+                _appendNumber(q, (Number) val);
+                return;
+            }
+            String escaped = _escapeWhereHaving(val);
+            if (escaped.equals("?"))
+                q.appendArg();
+            else if (! (val instanceof Column) && escaped.startsWith("'"))
+                q.appendBind(escaped, val.toString());
+            else
+                q.append(escaped);
+        }
+
+        // Bind args are text, so numbers are cast back: comparing text to a number only works
+        // against a column with numeric affinity, which untyped and derived columns don't have.
+        private static void _appendNumber(QueryStringBuilder q, Number val) {
+            boolean isReal = val instanceof Double || val instanceof Float;
+            q.append("CAST(").appendBind(val.toString(), val.toString())
+             .append(isReal ? " AS REAL)" : " AS INTEGER)");
+        }
+
         private String _escapeWhereHaving(Object val) {
             if (val == null) {
                 return "NULL";
@@ -753,18 +986,21 @@ public class SQL {
                 oper = "=";
             if (val == null)
                 val = "?";
-            else if (oper.toString().toUpperCase().equals("IN") && val.getClass().isArray()) {
+            q.append(bool, " ", col, oper).append(" ");
+            if (oper.toString().toUpperCase().equals("IN") && val.getClass().isArray()) {
                 // Treat val as an array of objects to be escaped
                 Object[] valArray = (Object[]) val;
-                String[] escapedVals = new String[valArray.length];
-                for (int i = 0; i < valArray.length; i++)
-                    escapedVals[i] = _escapeWhereHaving(valArray[i].toString());
-                val = "(" + TextUtils.join(",", escapedVals) + ")";
+                q.append("(");
+                for (int i = 0; i < valArray.length; i++) {
+                    if (i > 0)
+                        q.append(",");
+                    _appendValue(q, valArray[i]);
+                }
+                q.append(")");
             }
             else {
-                val = _escapeWhereHaving(val);
+                _appendValue(q, val);
             }
-            q.append(bool, " ", col, oper, val);
             // Add join
             addJoinColumn(col);
             return this;
@@ -773,6 +1009,7 @@ public class SQL {
         // GROUP BY, ORDER BY, LIMIT
         // -------------------------
         public Query group(Object... cols) {
+            modify();
             if (! strGroup.isEmpty())
                 strGroup.append(",");
             strGroup.append(" ").appendDelim(", ", cols);
@@ -789,6 +1026,7 @@ public class SQL {
         }
 
         public Query order(Object... args) {
+            modify();
             for (int i = 0; i < args.length; i+=2) {
                 if (! strOrder.isEmpty())
                     strOrder.append(", ");
@@ -798,35 +1036,137 @@ public class SQL {
                 strOrder.append(args[i]).append(" ");
                 addJoinColumn(args[i]);
                 // ASC/DESC.  Assume ASC if there are an odd number of args
-                if (args.length > i+1)
-                    strOrder.append(args[i+1]);
-                else
-                    strOrder.append("ASC");
+                String dir = args.length > i+1 ? args[i+1].toString() : "ASC";
+                strOrder.append(dir);
+                orderColumns.add(Pair.create(args[i], dir));
+            }
+            return this;
+        }
+
+        /** Returns the ORDER BY columns and their directions (ASC/DESC). */
+        public List<Pair<Object, String>> getOrderColumns() {
+            return Collections.unmodifiableList(orderColumns);
+        }
+
+        /** Removes the ORDER BY clause. */
+        public Query clearOrder() {
+            modify();
+            strOrder = new QueryStringBuilder(" ORDER BY");
+            orderColumns.clear();
+            return this;
+        }
+
+        /**
+         * Can this query be used as a subquery without changing its rows?
+         *
+         * <p>Used for paging, which adds a condition, ORDER BY and LIMIT to the query.
+         */
+        public boolean canPage() {
+            return union == null && limit == null && offset == null && ! isDistinct;
+        }
+
+        /**
+         * Adds a condition for rows that sort at or after a row (keyset paging).
+         *
+         * <p>NULLs sort first in ascending order, as in SQLite.  Values are bound, and numbers
+         * are cast back to numbers since bound values are text, so the SQL only changes with
+         * which values are NULL.
+         *
+         * @param columns sort columns, most significant first
+         * @param desc which columns sort in descending order
+         * @param values sort values of the first row to include (null, Long, Double or String)
+         * @param isHaving adds to HAVING (for aggregate sort columns) instead of WHERE
+         * @return this (for chaining)
+         */
+        public Query atOrAfter(Object[] columns, boolean[] desc, Object[] values, boolean isHaving) {
+            modify();
+            lastList = isHaving ? havingList : whereList;
+            QueryStringBuilder q = new QueryStringBuilder();
+            // A plain range on the first column lets an index skip to the row
+            if (! desc[0] && values[0] != null) {
+                q.append(columns[0] + " >= ");
+                _appendKeyValue(q, values[0]);
+                q.append(" AND ");
             }
+            _appendAtOrAfter(q, columns, desc, values, 0);
+            lastList.add(q);
+            for (Object col : columns)
+                addJoinColumn(col);
             return this;
         }
 
+        private static void _appendAtOrAfter(QueryStringBuilder q, Object[] columns, boolean[] desc,
+                                             Object[] values, int i) {
+            Object col = columns[i];
+            Object val = values[i];
+            if (i == columns.length - 1) {
+                // At or after the value
+                if (val == null) {
+                    q.append(desc[i] ? col + " IS NULL" : "1");
+                }
+                else {
+                    q.append(desc[i] ? "(" + col + " <= " : col + " >= ");
+                    _appendKeyValue(q, val);
+                    if (desc[i])
+                        q.append(" OR " + col + " IS NULL)");
+                }
+                return;
+            }
+            // After the value, or equal and at or after the next column's value
+            q.append("(");
+            if (val == null) {
+                if (! desc[i])
+                    q.append(col + " IS NOT NULL OR ");
+                q.append("(" + col + " IS NULL AND ");
+            }
+            else {
+                q.append(desc[i] ? "(" + col + " < " : col + " > ");
+                _appendKeyValue(q, val);
+                q.append(desc[i] ? " OR " + col + " IS NULL) OR (" + col + " = " : " OR (" + col + " = ");
+                _appendKeyValue(q, val);
+                q.append(" AND ");
+            }
+            _appendAtOrAfter(q, columns, desc, values, i + 1);
+            q.append("))");
+        }
+
+        private static void _appendKeyValue(QueryStringBuilder q, Object val) {
+            if (val instanceof Number) {
+                _appendNumber(q, (Number) val);
+            }
+            else {
+                q.appendBind(DatabaseUtils.sqlEscapeString(val.toString()), val.toString());
+            }
+        }
+
         public Query limit(Object limit) {
+            modify();
             this.limit = limit;
             return this;
         }
 
         public Query limit(Object offset, Object limit) {
+            modify();
             this.offset = offset;
             this.limit = limit;
             return this;
         }
 
         public Query offset(Object offset) {
+            modify();
             this.offset = offset;
             return this;
         }
 
         // Union
+        // The other queries are frozen (copied if needed), so changing them afterwards can't
+        // leave this query's cached rendering stale
         public Query union(Query... other) {
+            modify();
             if (union == null)
                 union = new ArrayList<>();
-            union.addAll(Arrays.asList(other));
+            for (Query query : other)
+                union.add(query.freeze());
             return this;
         }
 
@@ -837,6 +1177,43 @@ public class SQL {
 
         // Assemble the query
         public String toString() {
+            render();
+            return mText;
+        }
+
+        /**
+         * Assembles the query with literal WHERE/HAVING values replaced by {@code ?}.
+         *
+         * <p>Bind args are returned in placeholder order, with {@code queryArgs} substituted
+         * for the query's own {@code ?} placeholders (e.g. from {@link #whereEq}).
+         *
+         * @param queryArgs args for existing {@code ?} placeholders
+         * @return {@link Statement} with parameterized SQL and bind args
+         */
+        public Statement toStatement(String... queryArgs) {
+            QueryStringBuilder q = render();
+            int nArgs = queryArgs == null ? 0 : queryArgs.length;
+            // Long IN lists (e.g. a restored playlist) would exceed SQLite's bind arg limit
+            if (q.mBinds.size() > MAX_BIND_ARGS)
+                return new Statement(mText, queryArgs);
+            String[] args = new String[q.mBinds.size()];
+            int argIdx = 0;
+            for (int i = 0; i < args.length; i++) {
+                Object bind = q.mBinds.get(i);
+                if (bind != QueryStringBuilder.QUERY_ARG)
+                    args[i] = (String) bind;
+                else if (argIdx < nArgs)
+                    args[i] = queryArgs[argIdx++];
+                else
+                    return new Statement(mText, queryArgs);
+            }
+            // Placeholders outside of WHERE/HAVING can't be matched up with args
+            if (argIdx != nArgs)
+                return new Statement(mText, queryArgs);
+            return new Statement(q.getTemplate(), args);
+        }
+
+        protected QueryStringBuilder build() {
             QueryStringBuilder q = new QueryStringBuilder("SELECT");
             if (isDistinct)
                 q.append(" DISTINCT");
@@ -872,7 +1249,7 @@ public class SQL {
             // Union
             if (union != null)
                 for (Query other : union)
-                    q.append(" UNION ").append(other.toString());
+                    q.append(" UNION ").append(other.render());
             // Order By
             q.append(strOrder);
             // Limit/offset
@@ -880,7 +1257,7 @@ public class SQL {
                 q.append(" LIMIT ").append(limit);
             if (offset != null)
                 q.append(" OFFSET ").append(offset);
-            return q.toString();
+            return q;
         }
 
         // Process where or having list
@@ -901,26 +1278,65 @@ public class SQL {
         }
 
         // Helper class that provides better append methods
+        // Keeps a parallel parameterized copy of the text for toStatement()
         private static class QueryStringBuilder {
+            // Marks a ? placeholder that is filled by the caller's query args
+            static final Object QUERY_ARG = new Object();
+
             public StringBuilder q;
             public boolean mHasValue;
+            StringBuilder mTemplate;
+            List<Object> mBinds = new ArrayList<>();
 
             QueryStringBuilder() {
                 q = new StringBuilder();
+                mTemplate = new StringBuilder();
             }
             QueryStringBuilder(String initial) {
                 q = new StringBuilder(initial);
+                mTemplate = new StringBuilder(initial);
             }
 
             protected QueryStringBuilder(QueryStringBuilder other) {
                 q = new StringBuilder(other.q.toString());
+                mTemplate = new StringBuilder(other.mTemplate.toString());
+                mBinds.addAll(other.mBinds);
                 mHasValue = other.mHasValue;
             }
 
             // append overloads
             public QueryStringBuilder append(Object str) {
                 mHasValue = true;
-                q.append(str.toString());
+                if (str instanceof QueryStringBuilder) {
+                    QueryStringBuilder other = (QueryStringBuilder) str;
+                    if (other.mHasValue) {
+                        q.append(other.q);
+                        mTemplate.append(other.mTemplate);
+                        mBinds.addAll(other.mBinds);
+                    }
+                    return this;
+                }
+                String text = str.toString();
+                q.append(text);
+                mTemplate.append(text);
+                return this;
+            }
+
+            // Append a literal value that is replaced by ? in the template
+            public QueryStringBuilder appendBind(String literal, String value) {
+                mHasValue = true;
+                q.append(literal);
+                mTemplate.append('?');
+                mBinds.add(value);
+                return this;
+            }
+
+            // Append a ? placeholder for one of the caller's query args
+            public QueryStringBuilder appendArg() {
+                mHasValue = true;
+                q.append('?');
+                mTemplate.append('?');
+                mBinds.add(QUERY_ARG);
                 return this;
             }
 
@@ -943,6 +1359,10 @@ public class SQL {
             public String toString() {
                 return mHasValue ? q.toString() : "";
             }
+
+            public String getTemplate() {
+                return mHasValue ? mTemplate.toString() : "";
+            }
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,196 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package org.fasola.fasolaminutes;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-memory copy of search results, used to narrow the results when the search term is extended.
+ *
+ * <p>Queries opt in by selecting the searched text as {@link #MATCH_COLUMN} (full text search) or
+ * {@link #LIKE_COLUMN} ({@code LIKE '%term%'}), with columns separated by {@code char(31)}.  Since
+ * "mike ri" matches a subset of what "mike r" matches, the rows for the longer term can be found
+ * by testing each row of the shorter term's results the same way SQLite would.
+ */
+class SearchSnapshot {
+    /** Text searched with {@link C.SearchTable#whereMatch}. */
+    public static final String MATCH_COLUMN = "__search_match";
+    /** Text searched with LIKE. */
+    public static final String LIKE_COLUMN = "__search_like";
+    private static final int MAX_ROWS = 1000;
+    private static final String COLUMN_SEPARATOR = "\u001f";
+
+    private final String[] mColumnNames;
+    private final List<Object[]> mRows = new ArrayList<>();
+    private final boolean mIsMatch;
+    // Per row and column: tokens (full text search) or lowercase text (LIKE)
+    private final List<String[][]> mTokens = new ArrayList<>();
+    private final List<String[]> mText = new ArrayList<>();
+    // Term these are the results for (set once the results are delivered)
+    private String mSearchTerm;
+
+    /**
+     * Copies a search result (called on the loader thread).
+     *
+     * @param cursor loaded cursor
+     * @return a snapshot, or null if the query didn't select search text or has too many rows
+     */
+    public static SearchSnapshot create(Cursor cursor) {
+        int textCol = cursor.getColumnIndex(MATCH_COLUMN);
+        boolean isMatch = textCol != -1;
+        if (! isMatch)
+            textCol = cursor.getColumnIndex(LIKE_COLUMN);
+        if (textCol == -1 || cursor.getCount() > MAX_ROWS)
+            return null;
+        SearchSnapshot snapshot = new SearchSnapshot(cursor.getColumnNames(), isMatch);
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext())
+            snapshot.addRow(cursor, textCol);
+        return snapshot;
+    }
+
+    private SearchSnapshot(String[] columnNames, boolean isMatch) {
+        mColumnNames = columnNames;
+        mIsMatch = isMatch;
+    }
+
+    private void addRow(Cursor cursor, int textCol) {
+        Object[] row = new Object[mColumnNames.length];
+        for (int i = 0; i < row.length; i++) {
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL: row[i] = null; break;
+                case Cursor.FIELD_TYPE_INTEGER: row[i] = cursor.getLong(i); break;
+                case Cursor.FIELD_TYPE_FLOAT: row[i] = cursor.getDouble(i); break;
+                case Cursor.FIELD_TYPE_BLOB: row[i] = cursor.getBlob(i); break;
+                default: row[i] = cursor.getString(i); break;
+            }
+        }
+        mRows.add(row);
+        String[] columns = String.valueOf(row[textCol]).split(COLUMN_SEPARATOR, -1);
+        if (mIsMatch) {
+            String[][] tokens = new String[columns.length][];
+            for (int i = 0; i < columns.length; i++)
+                tokens[i] = tokenize(columns[i]);
+            mTokens.add(tokens);
+        }
+        else {
+            for (int i = 0; i < columns.length; i++)
+                columns[i] = lowerAscii(columns[i]);
+            mText.add(columns);
+        }
+    }
+
+    /** Sets the search term that these are the results for. */
+    public void setSearchTerm(String searchTerm) {
+        mSearchTerm = searchTerm;
+    }
+
+    /**
+     * Can the results for a new search term be found in these results?
+     *
+     * @param searchTerm new search term
+     * @return true if the new term matches a subset of this snapshot's term
+     */
+    public boolean canNarrow(String searchTerm) {
+        if (mSearchTerm == null)
+            return false;
+        if (mIsMatch) {
+            // "ab c*" is a subset of "ab*"
+            String base = C.SearchTable.getPhraseText(mSearchTerm);
+            String phrase = C.SearchTable.getPhraseText(searchTerm);
+            return ! base.isEmpty() && phrase.startsWith(base);
+        }
+        // LIKE wildcards can't be matched here
+        if (searchTerm.contains("%") || searchTerm.contains("_"))
+            return false;
+        return lowerAscii(searchTerm).contains(lowerAscii(mSearchTerm));
+    }
+
+    /**
+     * Finds the rows that match a new search term.
+     *
+     * @param searchTerm a term that {@link #canNarrow} this snapshot
+     * @return matching rows in the same order
+     */
+    public Cursor narrow(String searchTerm) {
+        MatrixCursor cursor = new MatrixCursor(mColumnNames);
+        if (mIsMatch) {
+            String[] phrase = tokenize(C.SearchTable.getPhraseText(searchTerm));
+            for (int i = 0; i < mRows.size(); i++) {
+                if (matchesPhrase(mTokens.get(i), phrase))
+                    cursor.addRow(mRows.get(i));
+            }
+        }
+        else {
+            String term = lowerAscii(searchTerm);
+            for (int i = 0; i < mRows.size(); i++) {
+                for (String text : mText.get(i)) {
+                    if (text.contains(term)) {
+                        cursor.addRow(mRows.get(i));
+                        break;
+                    }
+                }
+            }
+        }
+        return cursor;
+    }
+
+    // region Matching
+    //---------------------------------------------------------------------------------------------
+    // Phrase with the last word as a prefix, in any one column
+    private static boolean matchesPhrase(String[][] columns, String[] phrase) {
+        if (phrase.length == 0)
+            return false;
+        int last = phrase.length - 1;
+        for (String[] tokens : columns) {
+            for (int start = 0; start + last < tokens.length; start++) {
+                int i = 0;
+                while (i < last && tokens[start + i].equals(phrase[i]))
+                    i++;
+                if (i == last && tokens[start + last].startsWith(phrase[last]))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    // Same as the FTS "simple" tokenizer: ASCII letters and digits and all non-ASCII characters
+    // are part of words, and only ASCII is lowercased
+    private static String[] tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean isWord = i < text.length() && isWordChar(text.charAt(i));
+            if (isWord && start == -1)
+                start = i;
+            else if (! isWord && start != -1) {
+                tokens.add(lowerAscii(text.substring(start, i)));
+                start = -1;
+            }
+        }
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    private static boolean isWordChar(char c) {
+        return c >= 0x80 || (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    // SQLite only folds case for ASCII characters
+    private static String lowerAscii(String text) {
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] >= 'A' && chars[i] <= 'Z')
+                chars[i] += 'a' - 'A';
+        }
+        return new String(chars);
+    }
+    //---------------------------------------------------------------------------------------------
+    // endregion Matching
+}
@@ -12,12 +12,16 @@ import android.support.v4.app.DialogFragment;
 import android.support.v4.app.Fragment;
 import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.ListView;
 import android.widget.TextView;
+import android.widget.Toast;
 
 
 public class SingingActivity extends SimpleTabActivity {
@@ -31,7 +35,7 @@ public class SingingActivity extends SimpleTabActivity {
         setHelpResource(R.string.help_singing_activity);
         // Query
         long id = getIntent().getLongExtra(CursorListFragment.EXTRA_ID, -1);
-        SQL.Query query = C.Singing.select(C.Singing.name).whereEq(C.Singing.id);
+        SQL.Query query = DetailQueries.singingName();
         getSupportLoaderManager().initLoader(1, null, new MinutesLoader(query, String.valueOf(id)) {
             @Override
             public void onLoadFinished(Cursor cursor) {
@@ -39,7 +43,7 @@ public class SingingActivity extends SimpleTabActivity {
                 if (singing != null)
                     setTitle(singing.name.getString());
             }
-        });
+        }.setPriority(MinutesLoader.PRIORITY_HEADER));
     }
 
     public static class SingingSongListFragment extends CursorStickyListFragment
@@ -66,9 +70,7 @@ public class SingingActivity extends SimpleTabActivity {
             ((TextView) view.findViewById(android.R.id.empty)).setText("");
             mId = getActivity().getIntent().getLongExtra(EXTRA_ID, -1);
             // Singing info query
-            SQL.Query query = C.Singing.select(C.Singing.name, C.Singing.location, C.Singing.startDate,
-                                               C.Singing.songCount, C.Singing.leaderCount, C.Singing.isDenson)
-                                        .whereEq(C.Singing.id);
+            SQL.Query query = DetailQueries.singingInfo();
             getLoaderManager().initLoader(1, null, new MinutesLoader(query, String.valueOf(mId)) {
                 @Override
                 public void onLoadFinished(Cursor cursor) {
@@ -97,43 +99,10 @@ public class SingingActivity extends SimpleTabActivity {
                         }
                     }
                 }
-            });
+            }.setPriority(MinutesLoader.PRIORITY_HEADER));
             updateQuery();
         }
 
-        /** The normal query */
-        private SQL.Query standardQuery() {
-            return SQL.select(
-                    C.Song.id,
-                    C.Song.fullName,
-                    C.Leader.allNames)
-                .select(C.SongLeader.leadId).as(EXTRA_LEAD_ID)
-                .select(C.Leader.id.func("group_concat")).as("__leaderIds")
-                .select(C.SongLeader.audioUrl).as(CursorListFragment.AUDIO_COLUMN)
-                .from(C.SongLeader)
-                .where(C.SongLeader.singingId, "=", mId)
-                .group(C.SongLeader.leadId);
-        }
-
-        /** A query that separates leaders into parts */
-        private SQL.Query leaderQuery() {
-            return SQL.select(
-                    C.Song.id,
-                    C.Song.fullName,
-                    C.Leader.fullName +
-                        " || ' ' || " +
-                        C.SongLeader.coleaders.format(
-                            "CASE WHEN {column} IS NOT NULL" +
-                                " THEN '(with ' || {column} || ')'" +
-                                " ELSE '' " +
-                            " END"))
-                .select(C.SongLeader.leadId).as(EXTRA_LEAD_ID)
-                    .select(C.Leader.id).as("__leaderIds")
-                .select(C.SongLeader.audioUrl).as(CursorListFragment.AUDIO_COLUMN)
-                .from(C.SongLeader)
-                .where(C.SongLeader.singingId, "=", mId);
-        }
-
         @Override
         public SQL.Query onUpdateQuery() {
             // Order
@@ -141,15 +110,14 @@ public class SingingActivity extends SimpleTabActivity {
                 case R.id.menu_singing_song_sort_leader:
                     showHeaders(true);
                     setAlphabetIndexer();
-                    return leaderQuery().sectionIndex(C.Leader.lastName)
-                                .order(C.Leader.lastName, "ASC", C.Leader.fullName, "ASC");
+                    return ListQueries.singingSongsByLeader(mId);
                 case R.id.menu_singing_song_sort_page:
                     showHeaders(false);
-                    return standardQuery().order(C.Song.pageSort, "ASC");
+                    return ListQueries.singingSongsByPage(mId);
                 case R.id.menu_singing_song_sort_order:
                 default:
                     showHeaders(false);
-                    return standardQuery().order(C.SongLeader.singingOrder, "ASC");
+                    return ListQueries.singingSongsByOrder(mId);
             }
         }
 
@@ -157,13 +125,38 @@ public class SingingActivity extends SimpleTabActivity {
         public SQL.Query onUpdateSearch(SQL.Query query, String searchTerm) {
             switch (getSortId()) {
                 case R.id.menu_singing_song_sort_leader:
-                    return query.where(C.Leader.fullName, "LIKE", "%" + searchTerm + "%")
-                                .or(C.Song.fullName, "LIKE", "%" + searchTerm + "%");
+                    return ListQueries.singingSongByLeaderSearch(query, searchTerm);
                 default:
-                    // having since Leader.allNames is a group_concat
-                    return query.having(C.Leader.allNames, "LIKE", "%" + searchTerm + "%")
-                                .or(C.Song.fullName, "LIKE", "%" + searchTerm + "%");
+                    return ListQueries.singingSongSearch(query, searchTerm);
+            }
+        }
+
+        // Download recordings menu item
+        @Override
+        public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
+            super.onCreateOptionsMenu(menu, inflater);
+            if (mHasRecordingMenu)
+                menu.add(Menu.NONE, R.id.download_songs, Menu.NONE, R.string.download_songs);
+        }
+
+        @Override
+        public void onPrepareOptionsMenu(Menu menu) {
+            super.onPrepareOptionsMenu(menu);
+            MenuItem item = menu.findItem(R.id.download_songs);
+            if (item != null)
+                item.setVisible(mRecordingCount > 0);
+        }
+
+        @Override
+        public boolean onOptionsItemSelected(MenuItem item) {
+            if (item.getItemId() == R.id.download_songs) {
+                SingingDownloader.getInstance(getActivity()).downloadSinging(mId);
+                Toast.makeText(getActivity(), getResources().getQuantityString(
+                        R.plurals.downloading_songs, mRecordingCount, mRecordingCount),
+                        Toast.LENGTH_SHORT).show();
+                return true;
             }
+            return super.onOptionsItemSelected(item);
         }
 
         @Override
@@ -283,7 +276,7 @@ public class SingingActivity extends SimpleTabActivity {
         public void onViewCreated(final View view, Bundle savedInstanceState) {
             super.onViewCreated(view, savedInstanceState);
             long id = getActivity().getIntent().getLongExtra(CursorListFragment.EXTRA_ID, -1);
-            SQL.Query query = C.Singing.select(C.Singing.fullText).whereEq(C.Singing.id);
+            SQL.Query query = DetailQueries.singingText();
             getLoaderManager().initLoader(1, null, new MinutesLoader(query, String.valueOf(id)) {
                 @Override
                 public void onLoadFinished(Cursor cursor) {
@@ -0,0 +1,352 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package org.fasola.fasolaminutes;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads all recordings for a singing for offline playback.
+ *
+ * <p>Recordings are saved under the app's files dir and listed in a manifest database, which is
+ * kept separate from the minutes database so it survives database upgrades.  Downloads run a few
+ * at a time, resume with range requests, and are validated by length (and Content-MD5 if the
+ * server sends it) before they are used.
+ *
+ * <p>{@link #getLocalFile(String)} returns the downloaded file for a recording url.
+ */
+public class SingingDownloader {
+    private static final String TAG = "SingingDownloader";
+    private static final int THREAD_COUNT = 3;
+    private static final int RETRY_COUNT = 3;
+    private static final int TIMEOUT_MS = 15000;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final String PART_SUFFIX = ".part";
+    private static final Pattern CONTENT_RANGE_PATTERN = Pattern.compile("bytes (\\d+)-\\d+/(\\d+)");
+    // Content-Range of a 416 response: the full length
+    private static final Pattern UNSATISFIED_RANGE_PATTERN = Pattern.compile("bytes \\*/(\\d+)");
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    // Manifest status
+    public static final int STATUS_PENDING = 0;
+    public static final int STATUS_COMPLETE = 1;
+    public static final int STATUS_FAILED = 2;
+
+    private static SingingDownloader sInstance;
+
+    public static synchronized SingingDownloader getInstance(Context context) {
+        if (sInstance == null)
+            sInstance = new SingingDownloader(context.getApplicationContext());
+        return sInstance;
+    }
+
+    private final File mDir;
+    private final ManifestHelper mManifest;
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(THREAD_COUNT);
+    // Completed downloads: url -> file
+    private final Map<String, File> mFiles = new ConcurrentHashMap<>();
+    // Urls that are queued or downloading
+    private final Set<String> mActive = new HashSet<>();
+
+    private SingingDownloader(Context context) {
+        mDir = new File(context.getFilesDir(), "recordings");
+        mManifest = new ManifestHelper(context);
+        // Load completed downloads that are still on disk
+        Cursor cursor = mManifest.getReadableDatabase().rawQuery(
+                "SELECT url, file, length FROM downloads WHERE status = ?",
+                new String[] {String.valueOf(STATUS_COMPLETE)});
+        try {
+            while (cursor.moveToNext()) {
+                File file = new File(mDir, cursor.getString(1));
+                if (file.length() == cursor.getLong(2))
+                    mFiles.put(cursor.getString(0), file);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Returns the downloaded file for a recording url, or {@code null}. */
+    public File getLocalFile(String url) {
+        File file = url != null ? mFiles.get(url) : null;
+        if (file != null && ! file.exists()) {
+            mFiles.remove(url);
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Downloads all recordings for a singing (async).
+     *
+     * @param singingId {@link C.SingingDAO#id}
+     */
+    public void downloadSinging(final long singingId) {
+        SQL.Query query = C.SongLeader.select(C.SongLeader.audioUrl)
+                            .where(C.SongLeader.singingId, "=", singingId)
+                                .and(C.SongLeader.audioUrl, "IS NOT", "NULL")
+                            .group(C.SongLeader.audioUrl);
+        new MinutesLoader(query) {
+            @Override
+            public void onLoadFinished(Cursor cursor) {
+                // Only urls the lists count as recordings (not empty or recording counts)
+                final List<String> urls = new ArrayList<>();
+                try {
+                    while (cursor.moveToNext()) {
+                        String url = cursor.getString(0);
+                        if (CursorListFragment.isRecordingUrl(url))
+                            urls.add(url);
+                    }
+                } finally {
+                    cursor.close();
+                }
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        addToManifest(singingId, urls);
+                        for (String url : urls)
+                            download(url);
+                    }
+                });
+            }
+        }.setPriority(MinutesLoader.PRIORITY_PREFETCH).startLoading();
+    }
+
+    private void addToManifest(long singingId, List<String> urls) {
+        SQLiteDatabase db = mManifest.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (String url : urls) {
+                ContentValues values = new ContentValues();
+                values.put("url", url);
+                values.put("singing_id", singingId);
+                values.put("file", AudioCache.getKey(url));
+                values.put("status", STATUS_PENDING);
+                db.insertWithOnConflict("downloads", null, values, SQLiteDatabase.CONFLICT_IGNORE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Queues a single recording
+    private void download(final String url) {
+        synchronized (mActive) {
+            if (! mActive.add(url))
+                return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < RETRY_COUNT; i++) {
+                        try {
+                            downloadFile(url);
+                            return;
+                        } catch (IOException e) {
+                            Log.w(TAG, "Download failed (" + (i + 1) + "): " + url, e);
+                        }
+                    }
+                    setStatus(url, STATUS_FAILED, null);
+                } finally {
+                    synchronized (mActive) {
+                        mActive.remove(url);
+                    }
+                }
+            }
+        });
+    }
+
+    private void downloadFile(String url) throws IOException {
+        File file = new File(mDir, AudioCache.getKey(url));
+        // Already downloaded and intact
+        String expectedSha1 = getSha1(url);
+        if (file.exists() && expectedSha1 != null && expectedSha1.equals(sha1(file))) {
+            mFiles.put(url, file);
+            return;
+        }
+        if (! mDir.isDirectory() && ! mDir.mkdirs())
+            throw new IOException("Unable to create " + mDir);
+        File part = new File(mDir, file.getName() + PART_SUFFIX);
+        long offset = part.length();
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setConnectTimeout(TIMEOUT_MS);
+        conn.setReadTimeout(TIMEOUT_MS);
+        if (offset > 0)
+            conn.setRequestProperty("Range", "bytes=" + offset + "-");
+        try {
+            int code = conn.getResponseCode();
+            long total;
+            String contentRange = String.valueOf(conn.getHeaderField("Content-Range"));
+            Matcher m = CONTENT_RANGE_PATTERN.matcher(contentRange);
+            if (code == HttpURLConnection.HTTP_PARTIAL && m.matches() && Long.parseLong(m.group(1)) == offset) {
+                total = Long.parseLong(m.group(2));
+            }
+            else if (code == HttpURLConnection.HTTP_OK) {
+                // Range not supported: start over
+                offset = 0;
+                total = conn.getContentLength();
+            }
+            else if (offset > 0 && (code == HTTP_RANGE_NOT_SATISFIABLE || code == HttpURLConnection.HTTP_PARTIAL)) {
+                m = UNSATISFIED_RANGE_PATTERN.matcher(contentRange);
+                if (code == HTTP_RANGE_NOT_SATISFIABLE && m.matches() && Long.parseLong(m.group(1)) == offset) {
+                    // The part is complete (e.g. the process died before it was renamed)
+                    complete(url, part, file);
+                    return;
+                }
+                // The part doesn't match the recording: start over
+                Log.w(TAG, "Unexpected range (HTTP " + code + ", " + contentRange + "), restarting: " + url);
+                conn.disconnect();
+                if (! part.delete())
+                    throw new IOException("Unable to delete " + part);
+                downloadFile(url);
+                return;
+            }
+            else {
+                throw new IOException("HTTP " + code);
+            }
+            // Append to the partial file
+            InputStream in = conn.getInputStream();
+            FileOutputStream out = new FileOutputStream(part, offset > 0);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int count;
+                while ((count = in.read(buffer)) > 0)
+                    out.write(buffer, 0, count);
+            } finally {
+                out.close();
+                in.close();
+            }
+            // Validate
+            if (total >= 0 && part.length() != total)
+                throw new IOException("Expected " + total + " bytes, got " + part.length());
+            String md5 = conn.getHeaderField("Content-MD5");
+            if (md5 != null && offset == 0 && ! md5.equals(base64(digest(part, "MD5")))) {
+                part.delete();
+                throw new IOException("Content-MD5 mismatch");
+            }
+        } finally {
+            conn.disconnect();
+        }
+        complete(url, part, file);
+    }
+
+    // Moves a validated part into place
+    private void complete(String url, File part, File file) throws IOException {
+        if (! part.renameTo(file))
+            throw new IOException("Unable to rename " + part);
+        setStatus(url, STATUS_COMPLETE, file);
+        mFiles.put(url, file);
+    }
+
+    private void setStatus(String url, int status, File file) {
+        ContentValues values = new ContentValues();
+        values.put("status", status);
+        if (file != null) {
+            values.put("length", file.length());
+            values.put("sha1", sha1(file));
+        }
+        mManifest.getWritableDatabase().update("downloads", values, "url = ?", new String[] {url});
+    }
+
+    private String getSha1(String url) {
+        Cursor cursor = mManifest.getReadableDatabase().rawQuery(
+                "SELECT sha1 FROM downloads WHERE url = ?", new String[] {url});
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // region Checksums
+    //---------------------------------------------------------------------------------------------
+    private static String sha1(File file) {
+        byte[] digest = digest(file, "SHA-1");
+        if (digest == null)
+            return null;
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest)
+            hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+
+    private static byte[] digest(File file, String algorithm) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(algorithm);
+            InputStream in = new FileInputStream(file);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int count;
+                while ((count = in.read(buffer)) > 0)
+                    digest.update(buffer, 0, count);
+            } finally {
+                in.close();
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            Log.e(TAG, "Unable to compute " + algorithm + " for " + file, e);
+            return null;
+        }
+    }
+
+    private static String base64(byte[] bytes) {
+        return bytes != null ? android.util.Base64.encodeToString(bytes, android.util.Base64.NO_WRAP) : "";
+    }
+    //---------------------------------------------------------------------------------------------
+    // endregion Checksums
+
+    // Manifest of downloaded recordings
+    private static class ManifestHelper extends SQLiteOpenHelper {
+        private static final String DB_NAME = "downloads.db";
+        private static final int DB_VERSION = 1;
+
+        ManifestHelper(Context context) {
+            super(context, DB_NAME, null, DB_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE downloads (" +
+                    "url TEXT PRIMARY KEY, " +
+                    "singing_id INTEGER, " +
+                    "file TEXT NOT NULL, " +
+                    "length INTEGER, " +
+                    "sha1 TEXT, " +
+                    "status INTEGER NOT NULL)");
+            db.execSQL("CREATE INDEX downloads_singing_id ON downloads (singing_id)");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
@@ -42,7 +42,7 @@ public class SongActivity extends SimpleTabActivity {
         setHelpResource(R.string.help_song_activity);
         // Query for main data
         long id = getIntent().getLongExtra(CursorListFragment.EXTRA_ID, -1);
-        SQL.Query query = C.Song.select(C.Song.fullName).whereEq(C.Song.id);
+        SQL.Query query = DetailQueries.songName();
         getSupportLoaderManager().initLoader(1, null, new MinutesLoader(query, String.valueOf(id)) {
             @Override
             public void onLoadFinished(Cursor cursor) {
@@ -51,7 +51,7 @@ public class SongActivity extends SimpleTabActivity {
                     setTitle(song.fullName.getString());
                 }
             }
-        });
+        }.setPriority(MinutesLoader.PRIORITY_HEADER));
     }
 
     public interface SongFragment {
@@ -69,12 +69,7 @@ public class SongActivity extends SimpleTabActivity {
 
         public void setSongId(long songId) {
             getArguments().putLong(EXTRA_ID, songId);
-            SQL.Query query = C.Leader.selectList(C.Leader.fullName,
-                                C.LeaderStats.leadCount)
-                            .whereEq(C.LeaderStats.songId)
-                            .order(C.LeaderStats.leadCount, "DESC", C.Leader.lastName, "ASC")
-                    .limit(20);
-            setQuery(query, String.valueOf(songId));
+            setQuery(DetailQueries.songTopLeaders(), String.valueOf(songId));
         }
     }
 
@@ -93,9 +88,7 @@ public class SongActivity extends SimpleTabActivity {
 
         public void setSongId(long songId) {
             getArguments().putLong(CursorListFragment.EXTRA_ID, songId);
-            SQL.Query query = C.Song.select(C.Song.lyrics, C.Song.poet, C.Song.composer,
-                                            C.Song.key, C.Song.time, C.Song.meter)
-                                    .whereEq(C.Song.id);
+            SQL.Query query = DetailQueries.songWords();
             getLoaderManager().restartLoader(1, null, new MinutesLoader(query, String.valueOf(songId)) {
                 @Override
                 public void onLoadFinished(Cursor cursor) {
@@ -166,8 +159,7 @@ public class SongActivity extends SimpleTabActivity {
             super.onViewCreated(view, savedInstanceState);
             long id = getSongId();
             // Stats summary
-            SQL.Query query = C.Song.select(C.Song.leaderCount, C.Song.leadCount, C.Song.coleadCount)
-                                    .whereEq(C.Song.id);
+            SQL.Query query = DetailQueries.songStats();
             getLoaderManager().initLoader(1, null, new MinutesLoader(query, String.valueOf(id)) {
                 @Override
                 public void onLoadFinished(Cursor cursor) {
@@ -183,7 +175,7 @@ public class SongActivity extends SimpleTabActivity {
                                 timesLed + ", by " + leaders + " (" + coleads + ")");
                     }
                 }
-            });
+            }.setPriority(MinutesLoader.PRIORITY_HEADER));
             // Chart
             updateChart();
         }
@@ -195,18 +187,12 @@ public class SongActivity extends SimpleTabActivity {
         private SQL.Query getChartQuery() {
             switch (mGraphSettingId) {
                 case R.id.menu_graph_percent_leads:
-                    return C.SongStats.select(C.SongStats.year, C.SongStats.leadPercent)
-                        .whereEq(C.SongStats.songId)
-                        .order(C.SongStats.year, "ASC");
+                    return DetailQueries.songChartPercent();
                 case R.id.menu_graph_song_rank:
-                    return C.SongStats.select(C.SongStats.year, C.SongStats.rank)
-                        .whereEq(C.SongStats.songId)
-                        .order(C.SongStats.year, "ASC");
+                    return DetailQueries.songChartRank();
                 case R.id.menu_graph_leads_per_year:
                 default:
-                    return C.SongStats.select(C.SongStats.year, C.SongStats.leadCount)
-                        .whereEq(C.SongStats.songId)
-                        .order(C.SongStats.year, "ASC");
+                    return DetailQueries.songChartLeads();
             }
         }
 
@@ -272,7 +258,7 @@ public class SongActivity extends SimpleTabActivity {
                     // Update chart title
                     chartTitle.setText(mGraphTitle);
                 }
-            });
+            }.setPriority(MinutesLoader.PRIORITY_CHART));
         }
 
         @Override
@@ -308,9 +294,7 @@ public class SongActivity extends SimpleTabActivity {
             setItemLayout(R.layout.list_item_song);
             setIntentActivity(SongActivity.class);
             long id = getArguments().getLong(EXTRA_ID, -1);
-            setQuery(SQL.select(C.Song.id, C.Song.number, C.Song.fullTitle)
-                        .join(C.SongNeighbor, C.Song.id, C.SongNeighbor.toId)
-                        .where(C.SongNeighbor.fromId, "=", id));
+            setQuery(DetailQueries.songNeighbors(id));
         }
     }
 
@@ -321,15 +305,7 @@ public class SongActivity extends SimpleTabActivity {
             setItemLayout(R.layout.list_item_singing);
             setRangeIndexer();
             long id = getArguments().getLong(EXTRA_ID, -1);
-            setQuery(SQL.select(C.SongLeader.id,
-                    C.Leader.allNames,
-                    C.Singing.year + " || ' ' || " + C.Singing.name,
-                    C.Singing.location)
-                    .select(C.SongLeader.audioUrl).as(CursorListFragment.AUDIO_COLUMN)
-                    .sectionIndex(C.Singing.year)
-                    .group(C.SongLeader.leadId)
-                    .where(C.SongLeader.songId, "=", id)
-                    .and(C.SongLeader.audioUrl, "IS NOT", "NULL"));
+            setQuery(DetailQueries.songRecordings(id));
         }
     }
 }
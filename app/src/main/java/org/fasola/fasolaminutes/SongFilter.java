@@ -0,0 +1,339 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package org.fasola.fasolaminutes;
+
+import android.database.Cursor;
+import android.os.Bundle;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Resolves {@link SongFilterActivity} filters in memory.
+ *
+ * <p>Songs are loaded once, and each checkbox gets a precomputed set of matching songs (one bit
+ * per song).  A combination of filters is resolved with AND/OR on those sets and passed to the
+ * song query as a list of ids, so changing a filter doesn't scan the text columns again.
+ */
+class SongFilter {
+    // Checkboxes that are OR'ed together
+    private static final int[] ORIENTATION_IDS = {R.id.page_full, R.id.page_top, R.id.page_bottom};
+    private static final int[] TIME_IDS = {R.id.time_2_2, R.id.time_4_4, R.id.time_2_4,
+            R.id.time_3_2, R.id.time_3_4, R.id.time_6_4, R.id.time_6_8};
+    private static final int[] KEY_IDS = {R.id.key_a, R.id.key_b_flat, R.id.key_b, R.id.key_c,
+            R.id.key_d_flat, R.id.key_d, R.id.key_e_flat, R.id.key_e, R.id.key_f, R.id.key_f_sharp,
+            R.id.key_g, R.id.key_a_flat};
+    // Pairs of checkboxes that filter only if one is checked
+    private static final int[][] EITHER_IDS = {
+            {R.id.page_left, R.id.page_right},
+            {R.id.time_single, R.id.time_multiple},
+            {R.id.key_single, R.id.key_multiple},
+            {R.id.key_major, R.id.key_minor}};
+    // Each group is one filter, and filters are AND'ed together
+    private static final int[][] GROUPS = {ORIENTATION_IDS, TIME_IDS, KEY_IDS,
+            EITHER_IDS[0], EITHER_IDS[1], EITHER_IDS[2], EITHER_IDS[3]};
+    private static final int EITHER_START = 3;
+
+    /** Receives the filter index once it has loaded. */
+    public interface Callback {
+        /** Called on the UI thread. */
+        void onSongFilterLoaded(SongFilter filter);
+    }
+
+    private static SongFilter sInstance;
+    // UI thread only
+    private static Preloader sPreloader;
+    private static final List<Callback> sCallbacks = new ArrayList<>();
+
+    /**
+     * Gets the filter index without waiting for it (call on the UI thread).
+     *
+     * @param callback called once the index has loaded, if it isn't loaded yet
+     * @return the filter index, or {@code null} if it is still loading
+     */
+    public static SongFilter getInstance(Callback callback) {
+        synchronized (SongFilter.class) {
+            if (sInstance != null)
+                return sInstance;
+        }
+        if (! sCallbacks.contains(callback))
+            sCallbacks.add(callback);
+        preload();
+        return null;
+    }
+
+    /** Stops a callback from being called (e.g. when its view is destroyed). */
+    public static void removeCallback(Callback callback) {
+        sCallbacks.remove(callback);
+    }
+
+    /** Loads songs in the background so the first filter doesn't have to wait. */
+    public static void preload() {
+        synchronized (SongFilter.class) {
+            if (sInstance != null)
+                return;
+        }
+        if (sPreloader == null) {
+            sPreloader = new Preloader();
+            sPreloader.startLoading();
+        }
+    }
+
+    // Builds the index on the loader thread, then calls the callbacks
+    private static class Preloader extends MinutesLoader implements MinutesLoader.BackgroundCallbacks {
+        Preloader() {
+            super(SongFilter.getQuery());
+            setPriority(MinutesLoader.PRIORITY_PREFETCH);
+        }
+
+        @Override
+        public Cursor onLoadInBackground(Cursor cursor) {
+            SongFilter filter = new SongFilter(cursor);
+            synchronized (SongFilter.class) {
+                if (sInstance == null)
+                    sInstance = filter;
+            }
+            return cursor;
+        }
+
+        // The index was built in onLoadInBackground, so the cursor isn't needed here.
+        // startLoading() closes it when this returns.
+        @Override
+        public void onLoadFinished(Cursor cursor) {
+            sPreloader = null;
+            SongFilter filter;
+            synchronized (SongFilter.class) {
+                filter = sInstance;
+            }
+            // If the load failed, the next getInstance(Callback) tries again
+            if (filter == null)
+                return;
+            List<Callback> callbacks = new ArrayList<>(sCallbacks);
+            sCallbacks.clear();
+            for (Callback callback : callbacks)
+                callback.onSongFilterLoaded(filter);
+        }
+    }
+
+    private static SQL.Query getQuery() {
+        return DetailQueries.songFilter();
+    }
+
+    private final int mSongCount;
+    private final long[] mIds;
+    private final int[] mPages;
+    private final BitSet mHasPage = new BitSet();
+    // Songs that match each checkbox id
+    private final SparseArray<BitSet> mSets = new SparseArray<>();
+
+    private SongFilter(Cursor cursor) {
+        mSongCount = cursor.getCount();
+        mIds = new long[mSongCount];
+        mPages = new int[mSongCount];
+        cursor.moveToPosition(-1);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            mIds[i] = cursor.getLong(0);
+            if (! cursor.isNull(1)) {
+                mPages[i] = cursor.getInt(1);
+                mHasPage.set(i);
+                set(mPages[i] % 2 == 0 ? R.id.page_left : R.id.page_right, i);
+            }
+            String time = cursor.getString(2);
+            if (time != null) {
+                // Same matches as LIKE '%3/4%', which ignores case
+                addMatches(i, time, TIME_IDS, "2/2", "4/4", "2/4", "3/2", "3/4", "6/4", "6/8");
+                set(time.contains(",") ? R.id.time_multiple : R.id.time_single, i);
+            }
+            String keys = cursor.getString(3);
+            if (keys != null) {
+                // Same matches as ' ' || Keys || ' ' LIKE '% Bb %'
+                String padded = " " + keys.toLowerCase(Locale.US) + " ";
+                for (int k = 0; k < KEY_IDS.length; k++) {
+                    for (String key : getKeyNames(KEY_IDS[k])) {
+                        if (padded.contains(" " + key.toLowerCase(Locale.US) + " "))
+                            set(KEY_IDS[k], i);
+                    }
+                }
+                boolean isMultiple = keys.contains(",");
+                set(isMultiple ? R.id.key_multiple : R.id.key_single, i);
+                // The only songs with key changes go between major and minor of the same key
+                boolean isMinor = padded.contains("min");
+                if (isMinor || isMultiple)
+                    set(R.id.key_minor, i);
+                if (! isMinor || isMultiple)
+                    set(R.id.key_major, i);
+            }
+            String orientation = cursor.getString(4);
+            if ("full".equals(orientation))
+                set(R.id.page_full, i);
+            else if ("top".equals(orientation))
+                set(R.id.page_top, i);
+            else if ("bottom".equals(orientation))
+                set(R.id.page_bottom, i);
+        }
+    }
+
+    // Key names in the Keys column for a key checkbox
+    private static String[] getKeyNames(int id) {
+        switch (id) {
+            case R.id.key_a: return new String[] {"A"};
+            case R.id.key_b_flat: return new String[] {"A#", "Bb"};
+            case R.id.key_b: return new String[] {"B"};
+            case R.id.key_c: return new String[] {"C"};
+            case R.id.key_d_flat: return new String[] {"C#", "Db"};
+            case R.id.key_d: return new String[] {"D"};
+            case R.id.key_e_flat: return new String[] {"D#", "Eb"};
+            case R.id.key_e: return new String[] {"E"};
+            case R.id.key_f: return new String[] {"F"};
+            case R.id.key_f_sharp: return new String[] {"F#", "Gb"};
+            case R.id.key_g: return new String[] {"G"};
+            case R.id.key_a_flat: return new String[] {"G#", "Ab"};
+            default: return new String[0];
+        }
+    }
+
+    private void addMatches(int song, String value, int[] ids, String... patterns) {
+        String lower = value.toLowerCase(Locale.US);
+        for (int i = 0; i < ids.length; i++) {
+            if (lower.contains(patterns[i].toLowerCase(Locale.US)))
+                set(ids[i], song);
+        }
+    }
+
+    private void set(int id, int song) {
+        BitSet set = mSets.get(id);
+        if (set == null) {
+            set = new BitSet(mSongCount);
+            mSets.put(id, set);
+        }
+        set.set(song);
+    }
+
+    private BitSet get(int id) {
+        BitSet set = mSets.get(id);
+        return set != null ? set : new BitSet();
+    }
+
+    // Songs that match each group of filters: null if the group doesn't filter, with the page
+    // range last
+    private BitSet[] getGroupSets(Bundle filters) {
+        BitSet[] sets = new BitSet[GROUPS.length + 1];
+        if (filters == null)
+            return sets;
+        // Checkboxes
+        List<Integer> checkboxIds = filters.getIntegerArrayList(SongFilterActivity.CHECKBOXES);
+        if (checkboxIds != null && ! checkboxIds.isEmpty()) {
+            Set<Integer> checkboxes = new HashSet<>(checkboxIds);
+            for (int g = 0; g < GROUPS.length; g++) {
+                int[] ids = GROUPS[g];
+                if (g >= EITHER_START) {
+                    boolean first = checkboxes.contains(ids[0]);
+                    if (first ^ checkboxes.contains(ids[1])) // XOR: no filter needed if both are checked
+                        sets[g] = get(first ? ids[0] : ids[1]);
+                    continue;
+                }
+                // Songs that match any checked checkbox
+                for (int id : ids) {
+                    if (checkboxes.contains(id)) {
+                        if (sets[g] == null)
+                            sets[g] = new BitSet(mSongCount);
+                        sets[g].or(get(id));
+                    }
+                }
+            }
+        }
+        // Page range
+        int [] pageRange = filters.getIntArray(SongFilterActivity.PAGE_RANGE);
+        if (pageRange != null && pageRange.length == 2) {
+            BitSet pages = (BitSet) mHasPage.clone();
+            for (int i = pages.nextSetBit(0); i >= 0; i = pages.nextSetBit(i + 1)) {
+                if (mPages[i] < pageRange[0] || mPages[i] > pageRange[1])
+                    pages.clear(i);
+            }
+            sets[GROUPS.length] = pages;
+        }
+        return sets;
+    }
+
+    /**
+     * Finds songs that match the filters.
+     *
+     * @param filters filter state from {@link SongFilterActivity#saveBundle()}
+     * @return matching songs (a bit per song)
+     */
+    public BitSet match(Bundle filters) {
+        BitSet result = new BitSet(mSongCount);
+        result.set(0, mSongCount);
+        for (BitSet set : getGroupSets(filters))
+            result = and(result, set);
+        return result;
+    }
+
+    /**
+     * Counts the songs each checkbox would match, given the filters in the other groups.
+     *
+     * <p>Checkboxes in a group are OR'ed, so a checkbox's count ignores the rest of its own group.
+     * Each group is left out of a running intersection (prefix and suffix), so every count is a
+     * single AND and cardinality on the precomputed sets.
+     *
+     * @param filters filter state from {@link SongFilterActivity#saveBundle()}
+     * @return count by checkbox id
+     */
+    public SparseIntArray getCounts(Bundle filters) {
+        BitSet[] sets = getGroupSets(filters);
+        BitSet all = new BitSet(mSongCount);
+        all.set(0, mSongCount);
+        // before[g] = sets[0] & ... & sets[g - 1]
+        BitSet[] before = new BitSet[sets.length];
+        before[0] = all;
+        for (int g = 1; g < sets.length; g++)
+            before[g] = and(before[g - 1], sets[g - 1]);
+        // Walk back with after = sets[g + 1] & ... & sets[n - 1]
+        SparseIntArray counts = new SparseIntArray();
+        BitSet after = all;
+        for (int g = sets.length - 1; g >= 0; g--) {
+            if (g < GROUPS.length) {
+                BitSet others = and(before[g], after);
+                for (int id : GROUPS[g])
+                    counts.put(id, and(others, get(id)).cardinality());
+            }
+            after = and(after, sets[g]);
+        }
+        return counts;
+    }
+
+    // Returns a & b without modifying either (b == null means no filter)
+    private static BitSet and(BitSet a, BitSet b) {
+        if (b == null)
+            return a;
+        BitSet result = (BitSet) a.clone();
+        result.and(b);
+        return result;
+    }
+
+    /**
+     * Gets ids of songs that match the filters.
+     *
+     * @param filters filter state from {@link SongFilterActivity#saveBundle()}
+     * @return song ids, or {@code null} if every song matches
+     */
+    public Long[] getSongIds(Bundle filters) {
+        BitSet songs = match(filters);
+        if (songs.cardinality() == mSongCount)
+            return null;
+        Long[] ids = new Long[songs.cardinality()];
+        int n = 0;
+        for (int i = songs.nextSetBit(0); i >= 0; i = songs.nextSetBit(i + 1))
+            ids[n++] = mIds[i];
+        return ids;
+    }
+}
@@ -3,10 +3,17 @@ package org.fasola.fasolaminutes;
 import android.content.Intent;
 import android.os.Build;
 import android.os.Bundle;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.TextUtils;
+import android.text.style.RelativeSizeSpan;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.widget.CheckBox;
+import android.widget.CompoundButton;
 
 import org.florescu.android.rangeseekbar.RangeSeekBar;
 
@@ -49,6 +56,11 @@ public class SongFilterActivity extends BaseActivity {
         R.id.page_top,
     };
 
+    // Checkbox text without the count
+    private final SparseArray<CharSequence> mLabels = new SparseArray<>();
+    // Skip count updates while setting many checkboxes at once
+    private boolean mIsLoading;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -64,6 +76,25 @@ public class SongFilterActivity extends BaseActivity {
             findViewById(R.id.page_orientation_layout).setClipToOutline(true);
             findViewById(R.id.page_left_right_layout).setClipToOutline(true);
         }
+        // Update counts when the filters change
+        for (int id : CHECKBOX_IDS) {
+            CheckBox checkBox = (CheckBox) findViewById(id);
+            mLabels.put(id, checkBox.getText());
+            checkBox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+                @Override
+                public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                    updateCounts();
+                }
+            });
+        }
+        @SuppressWarnings("unchecked")
+        RangeSeekBar<Integer> pageRange = (RangeSeekBar<Integer>) findViewById(R.id.page_number);
+        pageRange.setOnRangeSeekBarChangeListener(new RangeSeekBar.OnRangeSeekBarChangeListener<Integer>() {
+            @Override
+            public void onRangeSeekBarValuesChanged(RangeSeekBar<?> bar, Integer minValue, Integer maxValue) {
+                updateCounts();
+            }
+        });
         // Set the initial state
         loadBundle(savedInstanceState != null ?
             savedInstanceState.getBundle(EXTRA_FILTER_PARCEL) :
@@ -88,13 +119,18 @@ public class SongFilterActivity extends BaseActivity {
     }
 
     private void clear() {
+        boolean wasLoading = mIsLoading;
+        mIsLoading = true;
         for (int id : CHECKBOX_IDS)
             ((CheckBox) findViewById(id)).setChecked(false);
         RangeSeekBar pageRange = (RangeSeekBar) findViewById(R.id.page_number);
         pageRange.resetSelectedValues();
+        mIsLoading = wasLoading;
+        updateCounts();
     }
 
     private void loadBundle(Bundle state) {
+        mIsLoading = true;
         clear();
         if (state != null) {
             // restore checkboxes
@@ -112,6 +148,48 @@ public class SongFilterActivity extends BaseActivity {
                 pageRange.setSelectedMaxValue(pages[1]);
             }
         }
+        mIsLoading = false;
+        updateCounts();
+    }
+
+    @Override
+    protected void onDestroy() {
+        SongFilter.removeCallback(mFilterCallback);
+        super.onDestroy();
+    }
+
+    // Shows the counts once the song index has loaded
+    private final SongFilter.Callback mFilterCallback = new SongFilter.Callback() {
+        @Override
+        public void onSongFilterLoaded(SongFilter filter) {
+            if (! isFinishing())
+                updateCounts();
+        }
+    };
+
+    /**
+     * Shows the number of songs each checkbox would match given the other filters, and the
+     * total number of matching songs in the subtitle.
+     *
+     * <p>Counts aren't shown until the song index has loaded.
+     */
+    private void updateCounts() {
+        if (mIsLoading)
+            return;
+        SongFilter filter = SongFilter.getInstance(mFilterCallback);
+        if (filter == null)
+            return;
+        Bundle state = saveBundle();
+        SparseIntArray counts = filter.getCounts(state);
+        for (int id : CHECKBOX_IDS) {
+            SpannableString count = new SpannableString(String.valueOf(counts.get(id)));
+            count.setSpan(new RelativeSizeSpan(0.7f), 0, count.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            ((CheckBox) findViewById(id)).setText(TextUtils.concat(mLabels.get(id), "\n", count));
+        }
+        if (getActionBar() != null) {
+            int total = filter.match(state).cardinality();
+            getActionBar().setSubtitle(getResources().getQuantityString(R.plurals.songsLed, total, total));
+        }
     }
 
     public Bundle saveBundle() {
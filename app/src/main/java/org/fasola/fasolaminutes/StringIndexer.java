@@ -8,16 +8,28 @@ package org.fasola.fasolaminutes;
 import android.database.Cursor;
 import android.support.annotation.NonNull;
 
+import java.text.CollationKey;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * An indexer that uses a full string instead of just the first letter.
+ *
+ * <p>Section lookups use the {@link LetterIndexer} tables, so scrolling does not compare strings.
+ * Sections are compared using precomputed {@link CollationKey}s while the tables are built.
  */
 public class StringIndexer extends LetterIndexer {
     protected java.text.Collator mCollator;
+    // Collation keys for sorted sections, or section indices for unsorted sections
+    private CollationKey[] mKeys;
+    private Map<String, Integer> mSectionMap;
+    // Most recent word and its key (words are compared to several sections in a row)
+    private String mLastWord;
+    private CollationKey mLastKey;
 
     /**
      * Creates a StringIndexer using specified strings.
@@ -48,9 +60,10 @@ public class StringIndexer extends LetterIndexer {
         mIsSorted = true;
         String[] sections = getStringSections();
         if (sections.length > 1) {
-            int sortCheck = mCollator.compare(sections[0], sections[1]);
+            CollationKey[] keys = getKeys();
+            int sortCheck = keys[0].compareTo(keys[1]);
             for (int i=2; i<sections.length; ++i) {
-                if (mCollator.compare(sections[i-1], sections[i]) != sortCheck) {
+                if (keys[i-1].compareTo(keys[i]) != sortCheck) {
                     mIsSorted = false;
                     break;
                 }
@@ -61,6 +74,7 @@ public class StringIndexer extends LetterIndexer {
                 List<String> sectionReverser = Arrays.asList(sections);
                 Collections.reverse(sectionReverser);
                 sectionReverser.toArray(sections);
+                mKeys = null;
             }
         }
     }
@@ -70,18 +84,43 @@ public class StringIndexer extends LetterIndexer {
         return (String[])getSections();
     }
 
+    @Override
+    protected void setSections(String[] sections) {
+        super.setSections(sections);
+        mKeys = null;
+        mSectionMap = null;
+    }
+
+    // Collation keys for each section, computed once
+    private CollationKey[] getKeys() {
+        if (mKeys == null) {
+            String[] sections = getStringSections();
+            mKeys = new CollationKey[sections.length];
+            for (int i = 0; i < sections.length; i++)
+                mKeys[i] = mCollator.getCollationKey(sections[i]);
+        }
+        return mKeys;
+    }
+
     /** Override this function instead of {@link #compare(String, String)} */
     protected int compare(String word, int index) {
         if (mIsSorted) {
-            String word2 = getStringSections()[index];
-            return mCollator.compare(word, word2);
+            if (! word.equals(mLastWord)) {
+                mLastWord = word;
+                mLastKey = mCollator.getCollationKey(word);
+            }
+            return mLastKey.compareTo(getKeys()[index]);
         }
         else {
-            String[] sections = getStringSections();
-            for (int i=0; i<sections.length; ++i) {
-                if (sections[i].equals(word))
-                    return i - index;
+            if (mSectionMap == null) {
+                String[] sections = getStringSections();
+                mSectionMap = new HashMap<>(sections.length);
+                for (int i = sections.length - 1; i >= 0; --i)
+                    mSectionMap.put(sections[i], i);
             }
+            Integer i = mSectionMap.get(word);
+            if (i != null)
+                return i - index;
         }
         return 1;
     }
@@ -92,6 +131,51 @@ public class StringIndexer extends LetterIndexer {
         return compare(word, index.codePointAt(0)) * (mIsDesc ? -1 : 1);
     }
 
+    // region Section search
+    //---------------------------------------------------------------------------------------------
+    @Override
+    public void setCursor(Cursor cursor) {
+        super.setCursor(cursor);
+        // Sections may have been reversed
+        mKeys = null;
+        mSectionMap = null;
+    }
+
+    // Finds the section matching a word (0 if not found, like AlphabetIndexer)
+    @Override
+    protected int findSection(String word) {
+        // Binary search (sections run the opposite way through the alphabet once reversed)
+        int section = binarySearch(word, 1);
+        if (section < 0)
+            section = binarySearch(word, -1);
+        if (section >= 0) {
+            // Use the first matching section, as AlphabetIndexer does
+            while (section > 0 && compare(word, Character.toString(mAlphabet.charAt(section - 1))) == 0)
+                --section;
+            return section;
+        }
+        // Fall back to a linear search if sections are not in order
+        return super.findSection(word);
+    }
+
+    private int binarySearch(String word, int direction) {
+        int low = 0;
+        int high = mAlphabet.length() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int diff = compare(word, Character.toString(mAlphabet.charAt(mid))) * direction;
+            if (diff == 0)
+                return mid;
+            else if (diff < 0)
+                high = mid - 1;
+            else
+                low = mid + 1;
+        }
+        return -1;
+    }
+    //---------------------------------------------------------------------------------------------
+    // endregion Section search
+
     /**
      * Makes section labels using all strings in the cursor.
      *
@@ -100,11 +184,23 @@ public class StringIndexer extends LetterIndexer {
      * @return section labels
      */
     protected static String[] makeSections(@NonNull Cursor cursor, int sortedIndexColumn) {
-        if (! cursor.moveToFirst())
-            return new String[0];
         // Find all strings
         String last = "";
         ArrayList<String> sections = new ArrayList<>();
+        PagedCursor paged = PagedCursor.unwrap(cursor);
+        int runCount = paged != null ? paged.getRunCount(sortedIndexColumn) : -1;
+        if (runCount != -1) {
+            for (int i = 0; i < runCount; i++) {
+                String current = paged.getRunValue(i);
+                if (! current.equals(last)) {
+                    last = current;
+                    sections.add(current);
+                }
+            }
+            return sections.toArray(new String[sections.size()]);
+        }
+        if (! cursor.moveToFirst())
+            return new String[0];
         do {
             String current = cursor.getString(sortedIndexColumn);
             if (! current.equals(last)) {
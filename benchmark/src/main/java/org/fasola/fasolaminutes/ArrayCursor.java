@@ -0,0 +1,139 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package org.fasola.fasolaminutes;
+
+import android.database.Cursor;
+import android.database.DataSetObserver;
+
+/** Read-only cursor over columns of strings in memory, standing in for a loaded SQLite cursor. */
+class ArrayCursor implements Cursor {
+    private final String[] mColumnNames;
+    private final String[][] mColumns; // [column][row]
+    private final int mCount;
+    private int mPos = -1;
+    private boolean mIsClosed;
+
+    /**
+     * Creates a cursor.
+     *
+     * @param columnNames column names
+     * @param columns values by column, then row (all the same length)
+     */
+    public ArrayCursor(String[] columnNames, String[]... columns) {
+        mColumnNames = columnNames;
+        mColumns = columns;
+        mCount = columns.length > 0 ? columns[0].length : 0;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public int getPosition() {
+        return mPos;
+    }
+
+    @Override
+    public boolean moveToPosition(int position) {
+        if (position >= mCount) {
+            mPos = mCount;
+            return false;
+        }
+        if (position < 0) {
+            mPos = -1;
+            return false;
+        }
+        mPos = position;
+        return true;
+    }
+
+    @Override
+    public boolean moveToFirst() {
+        return moveToPosition(0);
+    }
+
+    @Override
+    public boolean moveToLast() {
+        return moveToPosition(mCount - 1);
+    }
+
+    @Override
+    public boolean moveToNext() {
+        return moveToPosition(mPos + 1);
+    }
+
+    @Override
+    public boolean isBeforeFirst() {
+        return mCount == 0 || mPos == -1;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return mColumnNames.length;
+    }
+
+    @Override
+    public int getColumnIndex(String columnName) {
+        for (int i = 0; i < mColumnNames.length; i++) {
+            if (mColumnNames[i].equalsIgnoreCase(columnName))
+                return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public String getColumnName(int columnIndex) {
+        return mColumnNames[columnIndex];
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        return mColumns[columnIndex][mPos];
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return (int) getLong(columnIndex);
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        String value = getString(columnIndex);
+        return value == null ? 0 : Long.parseLong(value);
+    }
+
+    @Override
+    public double getDouble(int columnIndex) {
+        String value = getString(columnIndex);
+        return value == null ? 0 : Double.parseDouble(value);
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        return getString(columnIndex) == null;
+    }
+
+    // The data never changes
+    @Override
+    public void registerDataSetObserver(DataSetObserver observer) {
+    }
+
+    @Override
+    public void unregisterDataSetObserver(DataSetObserver observer) {
+    }
+
+    @Override
+    public boolean isClosed() {
+        return mIsClosed;
+    }
+
+    @Override
+    public void close() {
+        mIsClosed = true;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package org.fasola.fasolaminutes;
+
+/**
+ * The activities' lookups by id (headers, stats, charts and small lists), by name.
+ *
+ * <p>The queries come from {@link DetailQueries}, as the activities build them.  Queries that
+ * use {@link SQL.Query#whereEq} take the id as a query arg ({@link #getArgs}).
+ */
+final class DetailWorkload {
+    // LeaderActivity
+    static final String LEADER_NAME = "leader_name";
+    static final String LEADER_STATS = "leader_stats";
+    static final String LEADER_CHART = "leader_chart";
+    // SongActivity
+    static final String SONG_NAME = "song_name";
+    static final String SONG_TOP_LEADERS = "song_top_leaders";
+    static final String SONG_WORDS = "song_words";
+    static final String SONG_STATS = "song_stats";
+    static final String SONG_CHART_PERCENT = "song_chart_percent";
+    static final String SONG_CHART_RANK = "song_chart_rank";
+    static final String SONG_CHART_LEADS = "song_chart_leads";
+    static final String SONG_NEIGHBORS = "song_neighbors";
+    static final String SONG_RECORDINGS = "song_recordings";
+    // SingingActivity
+    static final String SINGING_NAME = "singing_name";
+    static final String SINGING_INFO = "singing_info";
+    static final String SINGING_TEXT = "singing_text";
+    // NowPlayingActivity
+    static final String LEAD_LEADERS = "lead_leaders";
+    static final String LEAD_SONG_SINGING = "lead_song_singing";
+    // Playlist, PlaybackService, SongFilter and MainActivity
+    static final String PLAYLIST_SONGS = "playlist_songs";
+    static final String SINGING_RECORDINGS = "singing_recordings";
+    static final String SONG_FILTER = "song_filter";
+    static final String RANDOM_SINGING = "random_singing";
+
+    static final String[] NAMES = {
+        LEADER_NAME, LEADER_STATS, LEADER_CHART,
+        SONG_NAME, SONG_TOP_LEADERS, SONG_WORDS, SONG_STATS,
+        SONG_CHART_PERCENT, SONG_CHART_RANK, SONG_CHART_LEADS, SONG_NEIGHBORS, SONG_RECORDINGS,
+        SINGING_NAME, SINGING_INFO, SINGING_TEXT,
+        LEAD_LEADERS, LEAD_SONG_SINGING,
+        PLAYLIST_SONGS, SINGING_RECORDINGS, SONG_FILTER, RANDOM_SINGING
+    };
+
+    // Ids the activities get from their intent
+    private static final long ID = 1234;
+    // Lead ids from a restored playlist (PlaylistStore.restore())
+    private static final Long[] PLAYLIST_LEAD_IDS = {101L, 2002L, 30003L};
+
+    private DetailWorkload() {}
+
+    /**
+     * Builds a query as the activity does.
+     *
+     * @param name query name
+     * @return new query
+     */
+    static SQL.Query build(String name) {
+        switch (name) {
+            case LEADER_NAME:
+                return DetailQueries.leaderName();
+            case LEADER_STATS:
+                return DetailQueries.leaderStats();
+            case LEADER_CHART:
+                return DetailQueries.leaderChart();
+            case SONG_NAME:
+                return DetailQueries.songName();
+            case SONG_TOP_LEADERS:
+                return DetailQueries.songTopLeaders();
+            case SONG_WORDS:
+                return DetailQueries.songWords();
+            case SONG_STATS:
+                return DetailQueries.songStats();
+            case SONG_CHART_PERCENT:
+                return DetailQueries.songChartPercent();
+            case SONG_CHART_RANK:
+                return DetailQueries.songChartRank();
+            case SONG_CHART_LEADS:
+                return DetailQueries.songChartLeads();
+            case SONG_NEIGHBORS:
+                return DetailQueries.songNeighbors(ID);
+            case SONG_RECORDINGS:
+                return DetailQueries.songRecordings(ID);
+            case SINGING_NAME:
+                return DetailQueries.singingName();
+            case SINGING_INFO:
+                return DetailQueries.singingInfo();
+            case SINGING_TEXT:
+                return DetailQueries.singingText();
+            case LEAD_LEADERS:
+                return DetailQueries.leadLeaders(ID);
+            case LEAD_SONG_SINGING:
+                return DetailQueries.leadSongAndSinging(ID);
+            case PLAYLIST_SONGS:
+                return DetailQueries.playlistSongs(C.SongLeader.leadId, (Object[]) PLAYLIST_LEAD_IDS);
+            case SINGING_RECORDINGS:
+                return DetailQueries.singingRecordings(ID);
+            case SONG_FILTER:
+                return DetailQueries.songFilter();
+            case RANDOM_SINGING:
+                return DetailQueries.randomSinging();
+            default:
+                throw new IllegalArgumentException("Unknown query: " + name);
+        }
+    }
+
+    /** Query args for the query's {@code ?} placeholders. */
+    static String[] getArgs(String name) {
+        switch (name) {
+            case LEADER_NAME:
+            case LEADER_STATS:
+            case LEADER_CHART:
+            case SONG_NAME:
+            case SONG_TOP_LEADERS:
+            case SONG_WORDS:
+            case SONG_STATS:
+            case SONG_CHART_PERCENT:
+            case SONG_CHART_RANK:
+            case SONG_CHART_LEADS:
+            case SINGING_NAME:
+            case SINGING_INFO:
+            case SINGING_TEXT:
+                return new String[] {String.valueOf(ID)};
+            default:
+                return new String[0];
+        }
+    }
+}
@@ -0,0 +1,493 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package org.fasola.fasolaminutes;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs {@code EXPLAIN QUERY PLAN} for each of the app's queries against a minutes.db, and
+ * suggests indexes for the ones that scan whole tables or sort with temporary B-trees.
+ *
+ * <p>The workload is every {@link ListWorkload} query (with and without a search) and every
+ * {@link DetailWorkload} lookup.  The database is copied, and the derived tables and
+ * {@link MinutesContract#INDEXES} are created as on a device, so the plans are the ones the
+ * app gets after an install.
+ *
+ * <p>Suggestions are found by trying each index that could help (single columns the query
+ * uses, and those columns followed by an ORDER BY or GROUP BY column), keeping whichever
+ * fixes the most queries, and repeating until nothing helps.
+ *
+ * <p>The report has no timings or paths, so reports from two releases can be diffed.
+ *
+ * <pre>IndexAdvisor minutes.db [report.txt]</pre>
+ */
+public class IndexAdvisor {
+    private static final String SEARCH_TERM = "mike r";
+    // Same as QueryMetrics.Entry.FULL_SCAN
+    private static final Pattern FULL_SCAN = Pattern.compile(
+            "^SCAN (?:TABLE )?(?!SUBQUERY\\b|CONSTANT ROW\\b|\\()(\\S+)(?!.*\\b(?:USING|VIRTUAL TABLE)\\b)");
+    private static final Pattern TEMP_BTREE = Pattern.compile("^USE TEMP B-TREE FOR ");
+    private static final Pattern AUTOMATIC_INDEX = Pattern.compile("\\bAUTOMATIC (?:COVERING |PARTIAL )*INDEX\\b");
+    // Any scan of a table, including scans of a whole index (which only help if they avoid a sort)
+    private static final Pattern SCAN = Pattern.compile(
+            "^SCAN (?:TABLE )?(?!SUBQUERY\\b|CONSTANT ROW\\b|\\()(\\S+)(?!.*\\bVIRTUAL TABLE\\b)");
+    // Table names (and aliases) after FROM and JOIN, and qualified column names
+    private static final Pattern TABLE_REF = Pattern.compile(
+            "\\b(?:FROM|JOIN)\\s+(\\w+)(?:\\s+(?:AS\\s+)?(\\w+))?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern COLUMN_REF = Pattern.compile("\\b(\\w+)\\.(\\w+)\\b");
+    private static final Pattern SORT_CLAUSE = Pattern.compile(
+            "\\b(?:ORDER|GROUP) BY\\b", Pattern.CASE_INSENSITIVE);
+    private static final Set<String> KEYWORDS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    static {
+        KEYWORDS.addAll(Arrays.asList("WHERE", "JOIN", "LEFT", "INNER", "CROSS", "ON", "GROUP",
+                "ORDER", "LIMIT", "HAVING", "UNION", "AS"));
+    }
+
+    // A query and its plan
+    private static class WorkloadQuery {
+        final String name;
+        final String sql;
+        final String[] args;
+        List<String> plan;
+        int issues;
+
+        WorkloadQuery(String name, SQL.Statement statement) {
+            this.name = name;
+            this.sql = statement.sql;
+            this.args = statement.args;
+        }
+    }
+
+    private final JdbcDatabase mDb;
+    private final List<WorkloadQuery> mQueries = new ArrayList<>();
+    // Columns of each ordinary table (not virtual tables or their shadow tables)
+    private final Map<String, Set<String>> mColumns = new HashMap<>();
+    // INTEGER PRIMARY KEY columns, which are the rowid and never need an index
+    private final Map<String, String> mRowIds = new HashMap<>();
+
+    private IndexAdvisor(JdbcDatabase db) {
+        mDb = db;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: IndexAdvisor minutes.db [report.txt]");
+            System.exit(2);
+        }
+        File source = new File(args[0]);
+        File copy = File.createTempFile("index_advisor", ".db");
+        try {
+            Files.copy(source.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Connection connection = DriverManager.getConnection("jdbc:sqlite:" + copy.getPath());
+            try {
+                JdbcDatabase db = new JdbcDatabase(connection);
+                MinutesContract.createDerivedTables(db);
+                IndexAdvisor advisor = new IndexAdvisor(db);
+                PrintWriter out = args.length > 1 ?
+                        new PrintWriter(new OutputStreamWriter(new FileOutputStream(args[1]), "UTF-8")) :
+                        new PrintWriter(System.out);
+                try {
+                    advisor.run(source.getName(), out);
+                } finally {
+                    out.flush();
+                    if (args.length > 1)
+                        out.close();
+                }
+            } finally {
+                connection.close();
+            }
+        } finally {
+            copy.delete();
+        }
+    }
+
+    private void run(String dbName, PrintWriter out) throws SQLException, IOException {
+        loadTables();
+        loadWorkload();
+        explainAll();
+
+        out.println("# Index report for " + dbName);
+        out.println();
+        out.println("SQLite " + queryString("SELECT sqlite_version()") + ", DB_VERSION " + C.DB_VERSION);
+        int scans = 0, sorts = 0, automatic = 0;
+        for (WorkloadQuery query : mQueries) {
+            if (hasLine(query, FULL_SCAN))
+                scans++;
+            if (hasLine(query, TEMP_BTREE))
+                sorts++;
+            if (hasLine(query, AUTOMATIC_INDEX))
+                automatic++;
+        }
+        out.println(mQueries.size() + " queries, " + scans + " with full scans, " +
+                    sorts + " with temp B-trees, " + automatic + " with automatic indexes");
+
+        // Plans with MinutesContract.INDEXES
+        out.println();
+        out.println("## Queries");
+        for (WorkloadQuery query : mQueries) {
+            out.println();
+            String issues = describeIssues(query);
+            out.println("### " + query.name + (issues.isEmpty() ? "" : " [" + issues + "]"));
+            out.println(query.sql);
+            if (query.args.length > 0)
+                out.println("args: " + Arrays.toString(query.args));
+            for (String line : query.plan)
+                out.println("    " + line);
+        }
+
+        out.println();
+        out.println("## Unused indexes in MinutesContract.INDEXES");
+        out.println();
+        boolean anyUnused = false;
+        for (String[] index : MinutesContract.INDEXES) {
+            String name = getIndexName(index);
+            if (! isIndexUsed(name)) {
+                out.println(name);
+                anyUnused = true;
+            }
+        }
+        if (! anyUnused)
+            out.println("(none)");
+
+        out.println();
+        out.println("## Suggested indexes");
+        out.println();
+        out.println("Add these to MinutesContract.INDEXES:");
+        out.println();
+        List<String> suggestions = suggest(out);
+        if (suggestions.isEmpty())
+            out.println("(none)");
+    }
+
+    // region Workload
+    //---------------------------------------------------------------------------------------------
+    private void loadWorkload() {
+        for (String name : ListWorkload.NAMES) {
+            SQL.Query query = ListWorkload.build(name);
+            mQueries.add(new WorkloadQuery(name, query.toStatement()));
+            SQL.Query search = ListWorkload.search(name, query.copy(), SEARCH_TERM);
+            mQueries.add(new WorkloadQuery(name + " (search)", search.toStatement()));
+        }
+        for (String name : DetailWorkload.NAMES) {
+            SQL.Query query = DetailWorkload.build(name);
+            mQueries.add(new WorkloadQuery(name, query.toStatement(DetailWorkload.getArgs(name))));
+        }
+    }
+
+    private void loadTables() throws SQLException {
+        Map<String, String> tables = new TreeMap<>();
+        PreparedStatement statement = mDb.prepare(
+                "SELECT name, sql FROM sqlite_master WHERE type = 'table'", null);
+        try {
+            ResultSet results = statement.executeQuery();
+            while (results.next())
+                tables.put(results.getString(1), results.getString(2));
+        } finally {
+            statement.close();
+        }
+        Set<String> virtualTables = new TreeSet<>();
+        for (Map.Entry<String, String> table : tables.entrySet()) {
+            if (table.getValue() != null && table.getValue().toUpperCase(Locale.US).startsWith("CREATE VIRTUAL"))
+                virtualTables.add(table.getKey());
+        }
+        for (String table : tables.keySet()) {
+            if (table.startsWith("sqlite_") || isVirtual(table, virtualTables))
+                continue;
+            Set<String> columns = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            statement = mDb.prepare("PRAGMA table_info(\"" + table + "\")", null);
+            try {
+                ResultSet results = statement.executeQuery();
+                while (results.next()) {
+                    columns.add(results.getString("name"));
+                    if (results.getInt("pk") > 0 && "INTEGER".equalsIgnoreCase(results.getString("type")))
+                        mRowIds.put(table, results.getString("name"));
+                }
+            } finally {
+                statement.close();
+            }
+            mColumns.put(table, columns);
+        }
+    }
+
+    // Virtual table or one of its shadow tables (e.g. song_search_content)
+    private static boolean isVirtual(String table, Set<String> virtualTables) {
+        for (String virtualTable : virtualTables) {
+            if (table.equals(virtualTable) || table.startsWith(virtualTable + "_"))
+                return true;
+        }
+        return false;
+    }
+    //---------------------------------------------------------------------------------------------
+    // endregion Workload
+
+    // region Plans
+    //---------------------------------------------------------------------------------------------
+    private void explainAll() throws SQLException {
+        for (WorkloadQuery query : mQueries)
+            explain(query);
+    }
+
+    // Plan lines, indented by depth
+    private void explain(WorkloadQuery query) throws SQLException {
+        List<String> plan = new ArrayList<>();
+        Map<Integer, Integer> depths = new HashMap<>();
+        PreparedStatement statement = mDb.prepare("EXPLAIN QUERY PLAN " + query.sql, query.args);
+        try {
+            ResultSet results = statement.executeQuery();
+            int columnCount = results.getMetaData().getColumnCount();
+            while (results.next()) {
+                // Newer SQLite versions have (id, parent, notused, detail); older ones
+                // (selectid, order, from, detail).  Only the newer ones can be nested.
+                String detail = results.getString(columnCount);
+                int depth = 0;
+                if (results.getMetaData().getColumnLabel(1).equals("id")) {
+                    Integer parentDepth = depths.get(results.getInt(2));
+                    depth = parentDepth == null ? 0 : parentDepth + 1;
+                    depths.put(results.getInt(1), depth);
+                }
+                StringBuilder line = new StringBuilder();
+                for (int i = 0; i < depth; i++)
+                    line.append("  ");
+                plan.add(line.append(detail).toString());
+            }
+        } finally {
+            statement.close();
+        }
+        query.plan = plan;
+        query.issues = 0;
+        for (String line : plan) {
+            line = line.trim();
+            if (SCAN.matcher(line).find() || TEMP_BTREE.matcher(line).find() ||
+                    AUTOMATIC_INDEX.matcher(line).find())
+                query.issues++;
+        }
+    }
+
+    private static boolean hasLine(WorkloadQuery query, Pattern pattern) {
+        for (String line : query.plan) {
+            if (pattern.matcher(line.trim()).find())
+                return true;
+        }
+        return false;
+    }
+
+    private static String describeIssues(WorkloadQuery query) {
+        Set<String> issues = new LinkedHashSet<>();
+        for (String line : query.plan) {
+            Matcher scan = FULL_SCAN.matcher(line.trim());
+            if (scan.find())
+                issues.add("scans " + scan.group(1));
+            else if (TEMP_BTREE.matcher(line.trim()).find())
+                issues.add(line.trim().substring("USE ".length()).toLowerCase(Locale.US));
+            else if (AUTOMATIC_INDEX.matcher(line).find())
+                issues.add("automatic index");
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String issue : issues)
+            sb.append(sb.length() > 0 ? "; " : "").append(issue);
+        return sb.toString();
+    }
+
+    private boolean isIndexUsed(String name) {
+        Pattern usesIndex = Pattern.compile("\\bINDEX " + Pattern.quote(name) + "\\b");
+        for (WorkloadQuery query : mQueries) {
+            for (String line : query.plan) {
+                if (usesIndex.matcher(line).find())
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private String queryString(String sql) throws SQLException {
+        PreparedStatement statement = mDb.prepare(sql, null);
+        try {
+            ResultSet results = statement.executeQuery();
+            return results.next() ? results.getString(1) : null;
+        } finally {
+            statement.close();
+        }
+    }
+    //---------------------------------------------------------------------------------------------
+    // endregion Plans
+
+    // region Suggestions
+    //---------------------------------------------------------------------------------------------
+    // Greedily adds the index that helps the most queries, printing each one
+    private List<String> suggest(PrintWriter out) throws SQLException {
+        List<String> suggestions = new ArrayList<>();
+        while (true) {
+            Map<String, String[]> candidates = new TreeMap<>();
+            for (WorkloadQuery query : mQueries) {
+                if (query.issues > 0)
+                    addCandidates(query, candidates);
+            }
+            String[] best = null;
+            List<String> bestHelped = null;
+            int bestScore = 0;
+            for (String[] candidate : candidates.values()) {
+                List<String> helped = new ArrayList<>();
+                int score = tryIndex(candidate, helped);
+                if (score > bestScore) {
+                    best = candidate;
+                    bestHelped = helped;
+                    bestScore = score;
+                }
+            }
+            if (best == null)
+                break;
+            mDb.execSQL(MinutesContract.getCreateIndexSql(best));
+            explainAll();
+            suggestions.add(getIndexName(best));
+            StringBuilder entry = new StringBuilder("{");
+            for (int i = 0; i < best.length; i++)
+                entry.append(i > 0 ? ", " : "").append('"').append(best[i]).append('"');
+            out.println(entry.append("},").toString());
+            out.println("    helps: " + join(bestHelped));
+        }
+        return suggestions;
+    }
+
+    /**
+     * Creates an index, explains the queries with issues, and drops it again.
+     *
+     * @param index table followed by columns
+     * @param helped filled with the names of the queries that have fewer issues
+     * @return queries helped minus queries made worse
+     */
+    private int tryIndex(String[] index, List<String> helped) throws SQLException {
+        if (indexExists(getIndexName(index)))
+            return 0;
+        mDb.execSQL(MinutesContract.getCreateIndexSql(index));
+        int score = 0;
+        try {
+            for (WorkloadQuery query : mQueries) {
+                int before = query.issues;
+                List<String> plan = query.plan;
+                explain(query);
+                if (query.issues < before) {
+                    helped.add(query.name);
+                    score++;
+                }
+                else if (query.issues > before) {
+                    score--;
+                }
+                query.plan = plan;
+                query.issues = before;
+            }
+        } finally {
+            mDb.execSQL("DROP INDEX " + getIndexName(index));
+        }
+        return score;
+    }
+
+    // Single columns of each table the query uses, and pairs ending in an ORDER BY or GROUP BY column
+    private void addCandidates(WorkloadQuery query, Map<String, String[]> candidates) {
+        // Aliases to table names
+        Map<String, String> tables = new HashMap<>();
+        Matcher tableRef = TABLE_REF.matcher(query.sql);
+        while (tableRef.find()) {
+            String table = tableRef.group(1);
+            if (! mColumns.containsKey(table))
+                continue;
+            tables.put(table, table);
+            if (tableRef.group(2) != null && ! KEYWORDS.contains(tableRef.group(2)))
+                tables.put(tableRef.group(2), table);
+        }
+        Map<String, Set<String>> used = getColumnRefs(query.sql, tables);
+        Matcher sortClause = SORT_CLAUSE.matcher(query.sql);
+        int sortStart = -1;
+        while (sortClause.find())
+            sortStart = sortClause.end();
+        Map<String, Set<String>> sorted = sortStart == -1 ? new HashMap<String, Set<String>>() :
+                getColumnRefs(query.sql.substring(sortStart), tables);
+        for (Map.Entry<String, Set<String>> entry : used.entrySet()) {
+            String table = entry.getKey();
+            for (String column : entry.getValue()) {
+                addCandidate(candidates, table, column);
+                if (sorted.containsKey(table)) {
+                    for (String sortColumn : sorted.get(table)) {
+                        if (! sortColumn.equalsIgnoreCase(column))
+                            addCandidate(candidates, table, column, sortColumn);
+                    }
+                }
+            }
+        }
+    }
+
+    private Map<String, Set<String>> getColumnRefs(String sql, Map<String, String> tables) {
+        Map<String, Set<String>> refs = new TreeMap<>();
+        Matcher columnRef = COLUMN_REF.matcher(sql);
+        while (columnRef.find()) {
+            String table = tables.get(columnRef.group(1));
+            if (table == null || ! mColumns.get(table).contains(columnRef.group(2)))
+                continue;
+            if (! refs.containsKey(table))
+                refs.put(table, new TreeSet<String>());
+            refs.get(table).add(columnRef.group(2));
+        }
+        return refs;
+    }
+
+    private void addCandidate(Map<String, String[]> candidates, String... index) {
+        for (int i = 1; i < index.length; i++) {
+            if (index[i].equalsIgnoreCase(mRowIds.get(index[0])))
+                return;
+        }
+        candidates.put(getIndexName(index), index);
+    }
+
+    private boolean indexExists(String name) throws SQLException {
+        PreparedStatement statement = mDb.prepare(
+                "SELECT 1 FROM sqlite_master WHERE type = 'index' AND name = ?", new String[] {name});
+        try {
+            return statement.executeQuery().next();
+        } finally {
+            statement.close();
+        }
+    }
+
+    // Same naming as MinutesContract.getCreateIndexSql()
+    private static String getIndexName(String[] index) {
+        StringBuilder name = new StringBuilder(index[0]);
+        for (int i = 1; i < index.length; i++)
+            name.append('_').append(index[i]);
+        return name.toString();
+    }
+
+    private static String join(List<String> names) {
+        StringBuilder sb = new StringBuilder();
+        for (String name : names)
+            sb.append(sb.length() > 0 ? ", " : "").append(name);
+        return sb.toString();
+    }
+    //---------------------------------------------------------------------------------------------
+    // endregion Suggestions
+}
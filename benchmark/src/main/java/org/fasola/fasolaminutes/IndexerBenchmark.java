@@ -0,0 +1,168 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package org.fasola.fasolaminutes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building section indexers and of section lookups while scrolling.
+ *
+ * <p>The cursor has sorted columns like the lists': last names ({@link LetterIndexer}), a few
+ * hundred distinct labels ({@link StringIndexer}), years ({@link RangeIndexer}) and lead counts
+ * in descending order ({@link BinIndexer}).  Data comes from a fixed seed, so runs are repeatable.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexerBenchmark {
+    private static final long SEED = 42;
+    // Same alphabet as CursorListFragment.setAlphabetIndexer()
+    private static final String ALPHABET = " ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+    private static final int LABEL_COUNT = 300;
+    private static final int LOOKUPS = 1024;
+    // Columns
+    private static final int NAME = 0;
+    private static final int LABEL = 1;
+    private static final int YEAR = 2;
+    private static final int COUNT = 3;
+
+    @Param({"10000", "100000"})
+    public int rows;
+
+    private ArrayCursor mCursor;
+    private int[] mPositions;
+    // Indexers with tables already built (for lookups)
+    private LetterIndexer mLetterIndexer;
+    private StringIndexer mStringIndexer;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(SEED);
+        String[] names = new String[rows];
+        String[] labels = new String[rows];
+        String[] years = new String[rows];
+        String[] counts = new String[rows];
+        Set<String> labelSet = new TreeSet<>();
+        while (labelSet.size() < LABEL_COUNT)
+            labelSet.add(randomName(random));
+        String[] labelValues = labelSet.toArray(new String[LABEL_COUNT]);
+        int[] countValues = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            names[i] = randomName(random);
+            labels[i] = labelValues[random.nextInt(LABEL_COUNT)];
+            years[i] = Integer.toString(1995 + random.nextInt(30));
+            // Most leaders lead a few songs, and a few lead many
+            countValues[i] = (int) (1 / (random.nextDouble() + 0.001));
+        }
+        Arrays.sort(names);
+        Arrays.sort(labels);
+        Arrays.sort(years);
+        Arrays.sort(countValues);
+        for (int i = 0; i < rows; i++)
+            counts[i] = Integer.toString(countValues[rows - 1 - i]);
+        mCursor = new ArrayCursor(new String[] {"name", "label", "year", "count"},
+                                  names, labels, years, counts);
+        mPositions = new int[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++)
+            mPositions[i] = random.nextInt(rows);
+        mLetterIndexer = new LetterIndexer(mCursor, NAME, ALPHABET);
+        mLetterIndexer.prepare();
+        mStringIndexer = new StringIndexer(mCursor, LABEL);
+        mStringIndexer.prepare();
+    }
+
+    // Capitalized name from 3 to 10 letters
+    private static String randomName(Random random) {
+        char[] chars = new char[3 + random.nextInt(8)];
+        chars[0] = (char) ('A' + random.nextInt(26));
+        for (int i = 1; i < chars.length; i++)
+            chars[i] = (char) ('a' + random.nextInt(26));
+        return new String(chars);
+    }
+
+    // region Building
+    //---------------------------------------------------------------------------------------------
+    @Benchmark
+    public LetterIndexer buildLetterIndexer() {
+        LetterIndexer indexer = new LetterIndexer(mCursor, NAME, ALPHABET);
+        indexer.prepare();
+        return indexer;
+    }
+
+    @Benchmark
+    public StringIndexer buildStringIndexer() {
+        StringIndexer indexer = new StringIndexer(mCursor, LABEL);
+        indexer.prepare();
+        return indexer;
+    }
+
+    @Benchmark
+    public RangeIndexer buildRangeIndexer() {
+        RangeIndexer indexer = new RangeIndexer(mCursor, YEAR);
+        indexer.prepare();
+        return indexer;
+    }
+
+    @Benchmark
+    public BinIndexer buildBinIndexer() {
+        BinIndexer indexer = BinIndexer.equalIntervals(mCursor, COUNT, 7);
+        indexer.prepare();
+        return indexer;
+    }
+    //---------------------------------------------------------------------------------------------
+    // endregion Building
+
+    // region Lookups (per lookup)
+    //---------------------------------------------------------------------------------------------
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int letterSectionForPosition() {
+        int sum = 0;
+        for (int position : mPositions)
+            sum += mLetterIndexer.getSectionForPosition(position);
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int stringSectionForPosition() {
+        int sum = 0;
+        for (int position : mPositions)
+            sum += mStringIndexer.getSectionForPosition(position);
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LABEL_COUNT)
+    public int stringCountForSection() {
+        int sum = 0;
+        for (int section = 0; section < LABEL_COUNT; section++)
+            sum += mStringIndexer.getCountForSection(section);
+        return sum;
+    }
+    //---------------------------------------------------------------------------------------------
+    // endregion Lookups
+}
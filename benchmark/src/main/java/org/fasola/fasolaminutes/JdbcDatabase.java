@@ -0,0 +1,125 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package org.fasola.fasolaminutes;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The stand-in SQLiteDatabase backed by a JDBC connection, so app code such as
+ * {@link MinutesContract#createDerivedTables} can run against a real minutes.db.
+ *
+ * <p>SQL errors are rethrown as {@link IllegalStateException}s, since the stand-in's methods
+ * don't declare any.
+ */
+class JdbcDatabase extends SQLiteDatabase {
+    private final Connection mConnection;
+    // Transactions don't nest (createDerivedTables only uses one)
+    private boolean mIsSuccessful;
+
+    JdbcDatabase(Connection connection) {
+        mConnection = connection;
+    }
+
+    Connection getConnection() {
+        return mConnection;
+    }
+
+    @Override
+    public Cursor rawQuery(String sql, String[] selectionArgs) {
+        try {
+            PreparedStatement statement = prepare(sql, selectionArgs);
+            try {
+                ResultSet results = statement.executeQuery();
+                ResultSetMetaData meta = results.getMetaData();
+                String[] names = new String[meta.getColumnCount()];
+                List<List<String>> columns = new ArrayList<>();
+                for (int i = 0; i < names.length; i++) {
+                    names[i] = meta.getColumnLabel(i + 1);
+                    columns.add(new ArrayList<String>());
+                }
+                while (results.next()) {
+                    for (int i = 0; i < names.length; i++)
+                        columns.get(i).add(results.getString(i + 1));
+                }
+                String[][] values = new String[names.length][];
+                for (int i = 0; i < names.length; i++)
+                    values[i] = columns.get(i).toArray(new String[0]);
+                return new ArrayCursor(names, values);
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e.getMessage() + ": " + sql, e);
+        }
+    }
+
+    /**
+     * Prepares a statement with args bound as strings (the way Android binds them).
+     *
+     * @param sql SQL with {@code ?} placeholders
+     * @param args args for the placeholders (or null)
+     */
+    PreparedStatement prepare(String sql, String[] args) throws SQLException {
+        PreparedStatement statement = mConnection.prepareStatement(sql);
+        if (args != null) {
+            for (int i = 0; i < args.length; i++)
+                statement.setString(i + 1, args[i]);
+        }
+        return statement;
+    }
+
+    @Override
+    public void execSQL(String sql) {
+        try {
+            Statement statement = mConnection.createStatement();
+            try {
+                statement.execute(sql);
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e.getMessage() + ": " + sql, e);
+        }
+    }
+
+    @Override
+    public void beginTransaction() {
+        try {
+            mConnection.setAutoCommit(false);
+            mIsSuccessful = false;
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void setTransactionSuccessful() {
+        mIsSuccessful = true;
+    }
+
+    @Override
+    public void endTransaction() {
+        try {
+            if (mIsSuccessful)
+                mConnection.commit();
+            else
+                mConnection.rollback();
+            mConnection.setAutoCommit(true);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package org.fasola.fasolaminutes;
+
+/**
+ * The list fragments' queries, by name.
+ *
+ * <p>Each name is a fragment and sort menu item.  The queries come from {@link ListQueries}, as
+ * the fragments in MainActivity, LeaderActivity and SingingActivity build them.
+ */
+final class ListWorkload {
+    // MainActivity.LeaderListFragment
+    static final String LEADERS_NAME = "leaders_name";
+    static final String LEADERS_FIRST_NAME = "leaders_first_name";
+    static final String LEADERS_COUNT = "leaders_count";
+    static final String LEADERS_ENTROPY = "leaders_entropy";
+    // MainActivity.SongListFragment
+    static final String SONGS_PAGE = "songs_page";
+    static final String SONGS_TITLE = "songs_title";
+    static final String SONGS_LEADS = "songs_leads";
+    static final String SONGS_KEY = "songs_key";
+    static final String SONGS_TIME = "songs_time";
+    static final String SONGS_METER = "songs_meter";
+    static final String SONGS_FILTERED = "songs_filtered";
+    // MainActivity.SingingListFragment
+    static final String SINGINGS_YEAR = "singings_year";
+    static final String SINGINGS_RECORDINGS = "singings_recordings";
+    // LeaderActivity.LeaderSongFragment
+    static final String LEADER_SONGS_LEADS = "leader_songs_leads";
+    static final String LEADER_SONGS_PAGE = "leader_songs_page";
+    static final String LEADER_SONGS_TITLE = "leader_songs_title";
+    // LeaderActivity.LeaderSingingFragment
+    static final String LEADER_SINGINGS = "leader_singings";
+    // LeaderActivity.LeaderLeadsFragment
+    static final String LEADER_LEADS_YEAR = "leader_leads_year";
+    static final String LEADER_LEADS_TITLE = "leader_leads_title";
+    static final String LEADER_LEADS_PAGE = "leader_leads_page";
+    // SingingActivity.SingingSongListFragment
+    static final String SINGING_SONGS_ORDER = "singing_songs_order";
+    static final String SINGING_SONGS_PAGE = "singing_songs_page";
+    static final String SINGING_SONGS_LEADER = "singing_songs_leader";
+
+    static final String[] NAMES = {
+        LEADERS_NAME, LEADERS_FIRST_NAME, LEADERS_COUNT, LEADERS_ENTROPY,
+        SONGS_PAGE, SONGS_TITLE, SONGS_LEADS, SONGS_KEY, SONGS_TIME, SONGS_METER, SONGS_FILTERED,
+        SINGINGS_YEAR, SINGINGS_RECORDINGS,
+        LEADER_SONGS_LEADS, LEADER_SONGS_PAGE, LEADER_SONGS_TITLE,
+        LEADER_SINGINGS,
+        LEADER_LEADS_YEAR, LEADER_LEADS_TITLE, LEADER_LEADS_PAGE,
+        SINGING_SONGS_ORDER, SINGING_SONGS_PAGE, SINGING_SONGS_LEADER
+    };
+
+    // Values the fragments get from their intent
+    private static final long ID = 1234;
+    // Ids from LeaderNameIndex.search() and SongFilter.getSongIds()
+    private static final Long[] SIMILAR_LEADER_IDS = makeIds(20, 37);
+    private static final Long[] FILTERED_SONG_IDS = makeIds(250, 2);
+
+    private ListWorkload() {}
+
+    private static Long[] makeIds(int count, int step) {
+        Long[] ids = new Long[count];
+        for (int i = 0; i < count; i++)
+            ids[i] = (long) (i + 1) * step;
+        return ids;
+    }
+
+    /**
+     * Builds a query as the fragment's {@code onUpdateQuery()} does.
+     *
+     * @param name query name
+     * @return new query
+     */
+    static SQL.Query build(String name) {
+        switch (name) {
+            case LEADERS_COUNT:
+                return ListQueries.leadersByLeadCount();
+            case LEADERS_ENTROPY:
+                return ListQueries.leadersByEntropy();
+            case LEADERS_FIRST_NAME:
+                return ListQueries.leadersByFirstName();
+            case LEADERS_NAME:
+                return ListQueries.leadersByName();
+            case SONGS_PAGE:
+                return ListQueries.songsByPage(null);
+            case SONGS_TITLE:
+                return ListQueries.songsByTitle(null);
+            case SONGS_LEADS:
+                return ListQueries.songsByLeadCount(null);
+            case SONGS_KEY:
+                return ListQueries.songsByKey(null);
+            case SONGS_TIME:
+                return ListQueries.songsByTime(null);
+            case SONGS_METER:
+                return ListQueries.songsByMeter(null);
+            case SONGS_FILTERED:
+                return ListQueries.songsByPage(FILTERED_SONG_IDS);
+            case SINGINGS_RECORDINGS:
+                return ListQueries.singingsWithRecordings();
+            case SINGINGS_YEAR:
+                return ListQueries.singingsByYear();
+            case LEADER_SONGS_PAGE:
+                return ListQueries.leaderSongsByPage(ID);
+            case LEADER_SONGS_TITLE:
+                return ListQueries.leaderSongsByTitle(ID);
+            case LEADER_SONGS_LEADS:
+                return ListQueries.leaderSongsByLeadCount(ID);
+            case LEADER_SINGINGS:
+                return ListQueries.leaderSingings(ID);
+            case LEADER_LEADS_TITLE:
+                return ListQueries.leaderLeadsByTitle(ID);
+            case LEADER_LEADS_PAGE:
+                return ListQueries.leaderLeadsByPage(ID);
+            case LEADER_LEADS_YEAR:
+                return ListQueries.leaderLeadsByYear(ID);
+            case SINGING_SONGS_LEADER:
+                return ListQueries.singingSongsByLeader(ID);
+            case SINGING_SONGS_PAGE:
+                return ListQueries.singingSongsByPage(ID);
+            case SINGING_SONGS_ORDER:
+                return ListQueries.singingSongsByOrder(ID);
+            default:
+                throw new IllegalArgumentException("Unknown query: " + name);
+        }
+    }
+
+    /**
+     * Adds a search as the fragment's {@code onUpdateSearch()} does.
+     *
+     * @param name query name
+     * @param query copy of the query from {@link #build}
+     * @param searchTerm user search string
+     * @return search query
+     */
+    static SQL.Query search(String name, SQL.Query query, String searchTerm) {
+        switch (name) {
+            case LEADERS_NAME:
+            case LEADERS_FIRST_NAME:
+            case LEADERS_COUNT:
+                return ListQueries.leaderSearch(searchTerm, SIMILAR_LEADER_IDS, C.Leader.leadCount);
+            case LEADERS_ENTROPY:
+                return ListQueries.leaderSearch(searchTerm, SIMILAR_LEADER_IDS, C.Leader.entropyDisplay);
+            case SONGS_PAGE:
+                return ListQueries.songSearch(null, searchTerm, null, C.Song.pageSort, "ASC");
+            case SONGS_FILTERED:
+                return ListQueries.songSearch(FILTERED_SONG_IDS, searchTerm, null, C.Song.pageSort, "ASC");
+            case SONGS_TITLE:
+                return ListQueries.songSearch(null, searchTerm, null, C.Song.title, "ASC");
+            case SONGS_LEADS:
+                return ListQueries.songSearch(null, searchTerm, null, C.Song.leadCount, "DESC");
+            case SONGS_KEY:
+                return ListQueries.songSearch(null, searchTerm, C.Song.key, C.Song.key, "ASC");
+            case SONGS_TIME:
+                return ListQueries.songSearch(null, searchTerm, C.Song.time, C.Song.time, "ASC");
+            case SONGS_METER:
+                return ListQueries.songSearch(null, searchTerm, C.Song.meter,
+                        C.Song.meter.cast("INT"), "ASC", C.Song.meter, "ASC");
+            case SINGINGS_YEAR:
+            case SINGINGS_RECORDINGS:
+                return ListQueries.singingSearch(query, searchTerm);
+            case LEADER_SONGS_LEADS:
+            case LEADER_SONGS_PAGE:
+            case LEADER_SONGS_TITLE:
+                return ListQueries.leaderSongSearch(query, searchTerm);
+            case LEADER_SINGINGS:
+                return ListQueries.leaderSingingSearch(query, searchTerm);
+            case LEADER_LEADS_YEAR:
+            case LEADER_LEADS_TITLE:
+            case LEADER_LEADS_PAGE:
+                return ListQueries.leaderLeadSearch(query, searchTerm);
+            case SINGING_SONGS_LEADER:
+                return ListQueries.singingSongByLeaderSearch(query, searchTerm);
+            case SINGING_SONGS_ORDER:
+            case SINGING_SONGS_PAGE:
+                return ListQueries.singingSongSearch(query, searchTerm);
+            default:
+                throw new IllegalArgumentException("Unknown query: " + name);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package org.fasola.fasolaminutes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building and assembling each list fragment's query.
+ *
+ * <p>Each benchmark is one step of loading a list: {@code onUpdateQuery()} ({@link #build}),
+ * assembling the SQL ({@link #render}), and {@code CursorListFragment.setSearch()}, which copies
+ * the query and adds a search ({@link #search}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+    private static final String SEARCH_TERM = "mike r";
+
+    @Param({
+        ListWorkload.LEADERS_NAME, ListWorkload.LEADERS_FIRST_NAME, ListWorkload.LEADERS_COUNT,
+        ListWorkload.LEADERS_ENTROPY,
+        ListWorkload.SONGS_PAGE, ListWorkload.SONGS_TITLE, ListWorkload.SONGS_LEADS,
+        ListWorkload.SONGS_KEY, ListWorkload.SONGS_TIME, ListWorkload.SONGS_METER,
+        ListWorkload.SONGS_FILTERED,
+        ListWorkload.SINGINGS_YEAR, ListWorkload.SINGINGS_RECORDINGS,
+        ListWorkload.LEADER_SONGS_LEADS, ListWorkload.LEADER_SONGS_PAGE, ListWorkload.LEADER_SONGS_TITLE,
+        ListWorkload.LEADER_SINGINGS,
+        ListWorkload.LEADER_LEADS_YEAR, ListWorkload.LEADER_LEADS_TITLE, ListWorkload.LEADER_LEADS_PAGE,
+        ListWorkload.SINGING_SONGS_ORDER, ListWorkload.SINGING_SONGS_PAGE,
+        ListWorkload.SINGING_SONGS_LEADER
+    })
+    public String query;
+
+    // Assembled query, as it is once loaded
+    private SQL.Query mQuery;
+
+    @Setup
+    public void setup() {
+        mQuery = ListWorkload.build(query);
+        mQuery.toString();
+    }
+
+    /** Builds the query without assembling it. */
+    @Benchmark
+    public SQL.Query build() {
+        return ListWorkload.build(query);
+    }
+
+    /** Builds and assembles the query. */
+    @Benchmark
+    public String render() {
+        return ListWorkload.build(query).toString();
+    }
+
+    /** Builds the query and assembles it with bind args (as MinutesDb does). */
+    @Benchmark
+    public SQL.Statement statement() {
+        return ListWorkload.build(query).toStatement();
+    }
+
+    /** Copies an assembled query. */
+    @Benchmark
+    public SQL.Query copy() {
+        return mQuery.copy();
+    }
+
+    /** Copies the query, adds a search, and assembles it. */
+    @Benchmark
+    public String search() {
+        return ListWorkload.search(query, mQuery.copy(), SEARCH_TERM).toString();
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package android.database;
+
+import java.io.Closeable;
+
+/** Stand-in for the Android Cursor interface (only the methods the app's SQL and indexers use). */
+public interface Cursor extends Closeable {
+    int FIELD_TYPE_NULL = 0;
+    int FIELD_TYPE_INTEGER = 1;
+    int FIELD_TYPE_FLOAT = 2;
+    int FIELD_TYPE_STRING = 3;
+    int FIELD_TYPE_BLOB = 4;
+
+    int getCount();
+    int getPosition();
+    boolean moveToPosition(int position);
+    boolean moveToFirst();
+    boolean moveToLast();
+    boolean moveToNext();
+    boolean isBeforeFirst();
+    int getColumnCount();
+    int getColumnIndex(String columnName);
+    String getColumnName(int columnIndex);
+    String getString(int columnIndex);
+    int getInt(int columnIndex);
+    long getLong(int columnIndex);
+    double getDouble(int columnIndex);
+    boolean isNull(int columnIndex);
+    void registerDataSetObserver(DataSetObserver observer);
+    void unregisterDataSetObserver(DataSetObserver observer);
+    boolean isClosed();
+    void close();
+}
@@ -0,0 +1,15 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package android.database;
+
+/** Stand-in for the Android DataSetObserver. */
+public abstract class DataSetObserver {
+    public void onChanged() {
+    }
+
+    public void onInvalidated() {
+    }
+}
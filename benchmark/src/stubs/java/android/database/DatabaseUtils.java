@@ -0,0 +1,35 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package android.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/** Stand-in for Android DatabaseUtils. */
+public class DatabaseUtils {
+    /** Quotes a string for SQL, the same way Android does. */
+    public static String sqlEscapeString(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2);
+        sb.append('\'');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\'')
+                sb.append('\'');
+            sb.append(c);
+        }
+        sb.append('\'');
+        return sb.toString();
+    }
+
+    /** First column of the first row (used by createDerivedTables through JdbcDatabase). */
+    public static long longForQuery(SQLiteDatabase db, String query, String[] selectionArgs) {
+        Cursor cursor = db.rawQuery(query, selectionArgs);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
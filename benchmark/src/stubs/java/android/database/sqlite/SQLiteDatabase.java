@@ -0,0 +1,31 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package android.database.sqlite;
+
+import android.database.Cursor;
+
+/** Stand-in for SQLiteDatabase (benchmarks build queries without running them). */
+public class SQLiteDatabase {
+    public Cursor rawQuery(String sql, String[] selectionArgs) {
+        throw new UnsupportedOperationException("No database in benchmarks");
+    }
+
+    public void execSQL(String sql) {
+        throw new UnsupportedOperationException("No database in benchmarks");
+    }
+
+    public void beginTransaction() {
+        throw new UnsupportedOperationException("No database in benchmarks");
+    }
+
+    public void setTransactionSuccessful() {
+        throw new UnsupportedOperationException("No database in benchmarks");
+    }
+
+    public void endTransaction() {
+        throw new UnsupportedOperationException("No database in benchmarks");
+    }
+}
@@ -0,0 +1,10 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package android.support.annotation;
+
+/** Stand-in for the support library annotation. */
+public @interface NonNull {
+}
@@ -0,0 +1,64 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package android.widget;
+
+import android.database.Cursor;
+import android.database.DataSetObserver;
+
+import java.text.Collator;
+
+/**
+ * Stand-in for the Android AlphabetIndexer.
+ *
+ * <p>Keeps the fields and first-letter comparison that {@code LetterIndexer} builds on.  Section
+ * lookups are overridden by {@code LetterIndexer}, so they aren't implemented here.
+ */
+public class AlphabetIndexer extends DataSetObserver {
+    protected Cursor mDataCursor;
+    protected int mColumnIndex;
+    protected CharSequence mAlphabet;
+    private final String[] mAlphabetArray;
+    private final Collator mCollator;
+
+    public AlphabetIndexer(Cursor cursor, int sortedColumnIndex, CharSequence alphabet) {
+        mDataCursor = cursor;
+        mColumnIndex = sortedColumnIndex;
+        mAlphabet = alphabet;
+        mAlphabetArray = new String[alphabet.length()];
+        for (int i = 0; i < alphabet.length(); i++)
+            mAlphabetArray[i] = Character.toString(alphabet.charAt(i));
+        mCollator = Collator.getInstance();
+        mCollator.setStrength(Collator.PRIMARY);
+        if (cursor != null)
+            cursor.registerDataSetObserver(this);
+    }
+
+    public Object[] getSections() {
+        return mAlphabetArray;
+    }
+
+    public void setCursor(Cursor cursor) {
+        if (mDataCursor != null)
+            mDataCursor.unregisterDataSetObserver(this);
+        mDataCursor = cursor;
+        if (cursor != null)
+            cursor.registerDataSetObserver(this);
+    }
+
+    // Compares the first letter of word (as AlphabetIndexer does)
+    protected int compare(String word, String letter) {
+        String firstLetter = word.length() == 0 ? " " : word.substring(0, 1);
+        return mCollator.compare(firstLetter, letter);
+    }
+
+    public int getPositionForSection(int sectionIndex) {
+        throw new UnsupportedOperationException();
+    }
+
+    public int getSectionForPosition(int position) {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,11 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package org.fasola.fasolaminutes;
+
+/** Stand-in for CursorListFragment: the column names its queries use. */
+public class CursorListFragment {
+    public static final String AUDIO_COLUMN = "__sql_audio_column";
+}
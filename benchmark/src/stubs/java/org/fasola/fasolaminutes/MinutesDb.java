@@ -0,0 +1,21 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package org.fasola.fasolaminutes;
+
+import android.database.Cursor;
+
+/** Stand-in for MinutesDb: benchmarks build queries without opening the database. */
+public class MinutesDb {
+    private static final MinutesDb sInstance = new MinutesDb();
+
+    public static MinutesDb getInstance() {
+        return sInstance;
+    }
+
+    public Cursor query(Object sql, String... args) {
+        throw new UnsupportedOperationException("No database in benchmarks");
+    }
+}
@@ -0,0 +1,12 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package org.fasola.fasolaminutes;
+
+/** Stand-in for SearchSnapshot: the column names its queries use. */
+public class SearchSnapshot {
+    public static final String MATCH_COLUMN = "__search_match";
+    public static final String LIKE_COLUMN = "__search_like";
+}
@@ -0,0 +1,11 @@
+/*
+ * This file is part of FaSoLa Minutes for Android.
+ * Copyright (c) 2016 Mike Richards. All rights reserved.
+ */
+
+package org.fasola.fasolaminutes;
+
+/** Stand-in for SingingActivity: the column names its queries use. */
+public class SingingActivity {
+    public final static String EXTRA_LEAD_ID = "__SINGING_LEAD_ID";
+}
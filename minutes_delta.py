@@ -0,0 +1,112 @@
+#!/usr/bin/env python
+"""Script to make a delta that upgrades one minutes database version to the next
+
+Usage: minutes_delta.py OLD_DB NEW_DB FROM_VERSION
+
+Compares each table by rowid and writes the inserts, updates and deletes that turn
+OLD_DB into NEW_DB to app/src/main/assets/databases/minutes.db_delta_FROM-TO.sql.gz
+(TO is FROM_VERSION + 1, and should be the new C.DB_VERSION).  MinutesDbInstaller
+applies these in place instead of installing the whole database.
+
+Only row changes are supported; if a table's columns change, ship a full install
+(don't make a delta for that version).
+"""
+from __future__ import print_function
+import sqlite3
+import binascii
+import gzip
+import os, sys
+
+DATABASE_NAME = 'minutes.db'
+ASSET_DIR = r'app/src/main/assets/databases'
+
+try:
+    text_type, blob_types = unicode, (buffer, bytearray)
+except NameError:
+    text_type, blob_types = str, (bytes, bytearray, memoryview)
+
+def quote(value):
+    """SQL literal for a value, on one line"""
+    if value is None:
+        return 'NULL'
+    if isinstance(value, blob_types):
+        return "X'%s'" % binascii.hexlify(bytes(value)).decode('ascii').upper()
+    if isinstance(value, float):
+        return repr(value)
+    if not isinstance(value, text_type):
+        return str(value)
+    text = u"'%s'" % value.replace(u"'", u"''")
+    # Keep each statement on one line
+    return text.replace('\r', "'||char(13)||'").replace('\n', "'||char(10)||'")
+
+def tables(db, schema):
+    """Source tables (not sqlite internals) and their CREATE statements"""
+    return dict(db.execute(
+        "SELECT name, sql FROM %s.sqlite_master "
+        "WHERE type = 'table' AND name NOT LIKE 'sqlite_%%'" % schema))
+
+def columns(db, schema, table):
+    return [row[1] for row in db.execute('PRAGMA %s.table_info("%s")' % (schema, table))]
+
+def diff_table(db, table, cols, write):
+    """Writes the changes to one table, returning (inserts, updates, deletes)"""
+    counts = [0, 0, 0]
+    name = '"%s"' % table
+    col_list = ', '.join('"%s"' % c for c in cols)
+    # Deleted rows
+    for (rowid,) in db.execute(
+            'SELECT rowid FROM old.%s WHERE rowid NOT IN (SELECT rowid FROM main.%s) '
+            'ORDER BY rowid' % (name, name)):
+        write('DELETE FROM %s WHERE rowid = %d;\n' % (name, rowid))
+        counts[2] += 1
+    # Changed rows (only the changed columns)
+    changed = ' OR '.join('n."%s" IS NOT o."%s"' % (c, c) for c in cols)
+    n_cols = ', '.join('n."%s"' % c for c in cols)
+    o_cols = ', '.join('o."%s"' % c for c in cols)
+    for row in db.execute(
+            'SELECT n.rowid, %s, %s FROM main.%s n JOIN old.%s o ON n.rowid = o.rowid '
+            'WHERE %s ORDER BY n.rowid' % (n_cols, o_cols, name, name, changed or '0')):
+        new, old = row[1:1 + len(cols)], row[1 + len(cols):]
+        sets = ', '.join('"%s" = %s' % (c, quote(v))
+                         for c, v, o in zip(cols, new, old) if v != o or type(v) != type(o))
+        write('UPDATE %s SET %s WHERE rowid = %d;\n' % (name, sets, row[0]))
+        counts[1] += 1
+    # New rows
+    for row in db.execute(
+            'SELECT rowid, %s FROM main.%s WHERE rowid NOT IN (SELECT rowid FROM old.%s) '
+            'ORDER BY rowid' % (col_list, name, name)):
+        write('INSERT INTO %s (rowid, %s) VALUES (%s);\n' % (
+            name, col_list, ', '.join(quote(v) for v in row)))
+        counts[0] += 1
+    return counts
+
+def main(old_path, new_path, from_version):
+    to_version = from_version + 1
+    db = sqlite3.connect(new_path)
+    db.execute('ATTACH DATABASE ? AS old', (old_path,))
+    old_tables = tables(db, 'old')
+    new_tables = tables(db, 'main')
+    for table in sorted(set(old_tables) | set(new_tables)):
+        if table not in new_tables or table not in old_tables \
+                or columns(db, 'old', table) != columns(db, 'main', table):
+            sys.exit("Table %s changed; a delta can't upgrade it" % table)
+
+    filename = os.path.join(os.path.dirname(sys.argv[0]), ASSET_DIR,
+                            '%s_delta_%d-%d.sql.gz' % (DATABASE_NAME, from_version, to_version))
+    print("Writing delta: %r" % filename)
+    out = gzip.open(filename, 'wb')
+    write = lambda line: out.write(line.encode('utf-8'))
+    try:
+        write(u'-- %s delta %d %d\n' % (DATABASE_NAME, from_version, to_version))
+        for table in sorted(new_tables):
+            counts = diff_table(db, table, columns(db, 'main', table), write)
+            if any(counts):
+                print("    %s: %d inserted, %d updated, %d deleted" % ((table,) + tuple(counts)))
+    finally:
+        out.close()
+    print("Done")
+
+if __name__ == '__main__':
+    if len(sys.argv) != 4:
+        sys.exit(__doc__)
+    main(sys.argv[1], sys.argv[2], int(sys.argv[3]))